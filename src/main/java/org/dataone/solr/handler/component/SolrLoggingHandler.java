@@ -172,8 +172,9 @@ public class SolrLoggingHandler extends SearchHandler {
             // tens of thousands # of rows, then jetty throws an out of memory error
             SolrSearchHandlerUtil.applyRowRestrictions(requestParams, convertedSolrParams);
 
-            SolrSearchHandlerUtil.applyReadRestrictionQueryFilterParameters(httpServletRequest,
-                    convertedSolrParams, READ_PERMISSION_FIELD);
+            SolrSearchHandlerUtil.applyReadRestrictionQueryFilterParameters(req,
+                    httpServletRequest, convertedSolrParams,
+                    Arrays.asList(READ_PERMISSION_FIELD));
 
             if (SolrSearchHandlerUtil.isValidSolrParam(isMNAdministrator)
                     && !SolrSearchHandlerUtil.isCNAdministrator(isCNAdministrator)) {
@@ -71,8 +71,8 @@ public class SolrSearchHandler extends SearchHandler implements SolrRequestHandl
 
         SolrSearchHandlerUtil.logSolrParameters(convertedSolrParams);
 
-        SolrSearchHandlerUtil.applyReadRestrictionQueryFilterParameters(httpServletRequest,
-                convertedSolrParams, readPermissionFields);
+        SolrSearchHandlerUtil.applyReadRestrictionQueryFilterParameters(request,
+                httpServletRequest, convertedSolrParams, readPermissionFields);
 
         SolrSearchHandlerUtil.setNewSolrParameters(request, convertedSolrParams);
 
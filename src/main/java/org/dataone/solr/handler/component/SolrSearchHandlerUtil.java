@@ -1,6 +1,7 @@
 package org.dataone.solr.handler.component;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -13,11 +14,14 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.MultiMapSolrParams;
+import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.request.SolrQueryRequest;
 import org.dataone.cn.servlet.http.ParameterKeys;
 import org.dataone.configuration.Settings;
+import org.dataone.solr.search.D1AclQParserPlugin;
+import org.dataone.solr.servlet.ConfigurationUtil;
 import org.dataone.solr.servlet.SessionAuthorizationFilterStrategy;
 
 import static org.dataone.solr.handler.component.SolrLoggingHandler.replaceParam;
@@ -64,6 +68,28 @@ public class SolrSearchHandlerUtil {
     //
     public static final String CONTEXT_HTTP_REQUEST_KEY = "httpRequest";
 
+    public final static String ENV_NAME_ACL_FILTER = "D1_SOLR_ACL_FILTER";
+    public final static String SETTING_NAME_ACL_FILTER = "solr.aclFilter";
+    public final static String ACL_FILTER_TERMS = "terms";
+    public final static String ACL_FILTER_BOOLEAN = "boolean";
+    public final static String ACL_FILTER_PLUGIN = D1AclQParserPlugin.NAME;
+    public final static String ENV_NAME_ACL_POST_FILTER_SUBJECTS =
+        "D1_SOLR_ACL_POST_FILTER_SUBJECTS";
+    public final static String SETTING_NAME_ACL_POST_FILTER_SUBJECTS =
+        "solr.aclFilter.postFilterSubjects";
+    // Solr runs an uncached filter with a cost of 100 or more as a post filter
+    public final static int ACL_POST_FILTER_COST = 200;
+    // the request parameters holding the parts of the read filter
+    public final static String ACL_PARAM_PREFIX = "d1.acl.";
+    public final static String ACL_SUBJECTS_PARAM = ACL_PARAM_PREFIX + "subjects";
+    public final static String ACL_SEPARATOR_PARAM = ACL_PARAM_PREFIX + "separator";
+    // the terms parser trims its separator, so it cannot be a control character
+    public final static String ACL_SEPARATOR = "\u241F";
+    private static String aclFilter = ConfigurationUtil.getString(
+        ENV_NAME_ACL_FILTER, SETTING_NAME_ACL_FILTER, ACL_FILTER_PLUGIN).trim();
+    private static int aclPostFilterSubjects = ConfigurationUtil.getInt(
+        ENV_NAME_ACL_POST_FILTER_SUBJECTS, SETTING_NAME_ACL_POST_FILTER_SUBJECTS, 500);
+
 
     public static void applyReadRestrictionQueryFilterParameters(
             HttpServletRequest httpServletRequest, HashMap<String, String[]> convertedSolrParams,
@@ -77,6 +103,56 @@ public class SolrSearchHandlerUtil {
     public static void applyReadRestrictionQueryFilterParameters(
             HttpServletRequest httpServletRequest, HashMap<String, String[]> convertedSolrParams,
             List<String> readFields) {
+        applyReadRestriction(httpServletRequest, convertedSolrParams, readFields, null);
+    }
+
+    /**
+     * Add the read restriction, as a {!d1acl} filter if it is configured, the core registers the
+     * parser and the request is not distributed. The shard requests do not carry the request
+     * context, so a distributed request gets the {!terms} filter instead
+     * @param request  the Solr request
+     * @param httpServletRequest  the servlet request carrying the authorization parameters
+     * @param convertedSolrParams  the parameters of the request
+     * @param readFields  the fields listing who may read a record
+     */
+    public static void applyReadRestrictionQueryFilterParameters(SolrQueryRequest request,
+            HttpServletRequest httpServletRequest, HashMap<String, String[]> convertedSolrParams,
+            List<String> readFields) {
+        Map<Object, Object> parserContext = null;
+        if (ACL_FILTER_PLUGIN.equalsIgnoreCase(aclFilter) && request.getCore() != null
+                && request.getCore().getQueryPlugin(D1AclQParserPlugin.NAME) != null) {
+            if (isDistributed(request.getParams(),
+                              request.getCore().getCoreContainer().isZooKeeperAware())) {
+                logger.debug("a distributed request gets the terms filter");
+            } else {
+                parserContext = request.getContext();
+            }
+        }
+        applyReadRestriction(httpServletRequest, convertedSolrParams, readFields, parserContext);
+    }
+
+    /**
+     * @param params  the parameters of the request
+     * @param zooKeeperAware  true if the core runs in SolrCloud
+     * @return true if the request is sent on to shards, as it is by default in SolrCloud or
+     *         when it lists the shards
+     */
+    protected static boolean isDistributed(SolrParams params, boolean zooKeeperAware) {
+        return params.getBool(CommonParams.DISTRIB,
+                              zooKeeperAware || params.get(ShardParams.SHARDS) != null);
+    }
+
+    /**
+     * Add the read restriction
+     * @param httpServletRequest  the servlet request carrying the authorization parameters
+     * @param convertedSolrParams  the parameters of the request
+     * @param readFields  the fields listing who may read a record
+     * @param parserContext  the request context handing the subjects to the {!d1acl} parser,
+     *                       or null to express the restriction in request parameters
+     */
+    protected static void applyReadRestriction(HttpServletRequest httpServletRequest,
+            HashMap<String, String[]> convertedSolrParams, List<String> readFields,
+            Map<Object, Object> parserContext) {
 
         String[] isAdministrator = httpServletRequest
                 .getParameterValues(ParameterKeys.IS_CN_ADMINISTRATOR);
@@ -87,44 +163,23 @@ public class SolrSearchHandlerUtil {
                     .getParameterValues(ParameterKeys.IS_MN_ADMINISTRATOR);
         }
         convertedSolrParams.remove(ParameterKeys.AUTHORIZED_SUBJECTS);
+        // the read filter dereferences these parameters, so a client must not set them
+        convertedSolrParams.keySet().removeIf(name -> name.startsWith(ACL_PARAM_PREFIX));
         if (isInvalidSolrParam(isAdministrator)) {
             logger.debug("not an administrative user");
             String[] authorizedSubjects = httpServletRequest
                     .getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS);
             if ((authorizedSubjects != null) && (authorizedSubjects.length > 0)) {
                 logger.debug("found an authorized user");
-                ArrayList<String> authorizedSubjectList = new ArrayList<String>();
-                for (int i = 0; i < authorizedSubjects.length; i++) {
-                    // since subjects may have spaces in them, format the string
-                    // in quotes
-                    authorizedSubjectList
-                            .add("\"" + escapeQueryChars(authorizedSubjects[i]) + "\"");
+                if (parserContext != null) {
+                    applyPluginReadFilter(authorizedSubjects, readFields, convertedSolrParams,
+                            parserContext);
+                } else if (!ACL_FILTER_BOOLEAN.equalsIgnoreCase(aclFilter)
+                        && canJoinTerms(authorizedSubjects)) {
+                    applyTermsReadFilter(authorizedSubjects, readFields, convertedSolrParams);
+                } else {
+                    applyBooleanReadFilter(authorizedSubjects, readFields, convertedSolrParams);
                 }
-
-                StringBuffer readFqValue = new StringBuffer();
-                readFqValue.append("(");
-                for (Iterator<String> it = readFields.iterator(); it.hasNext();) {
-                    String readField = (String) it.next();
-                    readFqValue.append("(");
-                    String readFieldString = readField + ":"
-                            + StringUtils.join(authorizedSubjectList, " OR " + readField + ":");
-                    readFqValue.append(readFieldString);
-                    readFqValue.append(")");
-                    System.out.println("****SEARCH SECURITY - read string for single field: "
-                            + readFieldString);
-                    System.out.println("****Search Security - full string: "
-                            + readFqValue.toString());
-                    if (it.hasNext()) {
-                        readFqValue.append(" OR ");
-                    }
-                }
-                readFqValue.append(")");
-                System.out.println();
-                logger.debug("**** Search security - full read permission string: "
-                        + readFqValue.toString());
-                MultiMapSolrParams.addParam(CommonParams.FQ, readFqValue.toString(),
-                        convertedSolrParams);
-
             } else {
                 logger.debug("found a public user");
                 MultiMapSolrParams.addParam(CommonParams.FQ, publicFilterString,
@@ -140,6 +195,108 @@ public class SolrSearchHandlerUtil {
         }
     }
     
+    /**
+     * Add the read filter as a {!d1acl} filter, handing the subjects over in the request
+     * context. A user with many subjects gets the post filter, so the records they may read are
+     * not collected into a DocSet before the query runs.
+     * @param authorizedSubjects  the subjects the user may read as
+     * @param readFields  the fields listing who may read a record
+     * @param convertedSolrParams  the parameters of the request
+     * @param parserContext  the context of the Solr request
+     */
+    protected static void applyPluginReadFilter(String[] authorizedSubjects,
+            List<String> readFields, HashMap<String, String[]> convertedSolrParams,
+            Map<Object, Object> parserContext) {
+        D1AclQParserPlugin.setAuthorizedSubjects(parserContext,
+                Arrays.asList(authorizedSubjects));
+        StringBuilder readFqValue = new StringBuilder("{!" + D1AclQParserPlugin.NAME + " "
+                + D1AclQParserPlugin.FIELDS_PARAM + "=" + String.join(",", readFields));
+        if (aclPostFilterSubjects > 0 && authorizedSubjects.length >= aclPostFilterSubjects) {
+            readFqValue.append(" cache=false cost=").append(ACL_POST_FILTER_COST);
+        }
+        readFqValue.append("}");
+        logger.debug("**** Search security - read filter over " + authorizedSubjects.length
+                + " subjects: " + readFqValue);
+        MultiMapSolrParams.addParam(CommonParams.FQ, readFqValue.toString(),
+                convertedSolrParams);
+    }
+
+    /**
+     * Add the read filter as one set of terms per field: a bool query whose should clauses are
+     * terms queries over the same subject list, carried in a request parameter. Each clause
+     * becomes a TermInSetQuery, so the filter is neither re-parsed per subject nor limited by
+     * maxBooleanClauses.
+     * @param authorizedSubjects  the subjects the user may read as
+     * @param readFields  the fields listing who may read a record
+     * @param convertedSolrParams  the parameters of the request
+     */
+    protected static void applyTermsReadFilter(String[] authorizedSubjects,
+            List<String> readFields, HashMap<String, String[]> convertedSolrParams) {
+        StringBuilder readFqValue = new StringBuilder("{!bool");
+        for (String readField : readFields) {
+            String fieldParam = ACL_PARAM_PREFIX + "q." + readField;
+            readFqValue.append(" should=$").append(fieldParam);
+            MultiMapSolrParams.addParam(fieldParam, "{!terms f=" + readField + " separator=$"
+                    + ACL_SEPARATOR_PARAM + " v=$" + ACL_SUBJECTS_PARAM + "}",
+                    convertedSolrParams);
+        }
+        readFqValue.append("}");
+        MultiMapSolrParams.addParam(ACL_SUBJECTS_PARAM,
+                String.join(ACL_SEPARATOR, authorizedSubjects), convertedSolrParams);
+        MultiMapSolrParams.addParam(ACL_SEPARATOR_PARAM, ACL_SEPARATOR, convertedSolrParams);
+        logger.debug("**** Search security - read filter over " + authorizedSubjects.length
+                + " subjects: " + readFqValue);
+        MultiMapSolrParams.addParam(CommonParams.FQ, readFqValue.toString(),
+                convertedSolrParams);
+    }
+
+    /**
+     * Add the read filter as a query string ORing every field and subject pair
+     * @param authorizedSubjects  the subjects the user may read as
+     * @param readFields  the fields listing who may read a record
+     * @param convertedSolrParams  the parameters of the request
+     */
+    protected static void applyBooleanReadFilter(String[] authorizedSubjects,
+            List<String> readFields, HashMap<String, String[]> convertedSolrParams) {
+        ArrayList<String> authorizedSubjectList = new ArrayList<String>();
+        for (int i = 0; i < authorizedSubjects.length; i++) {
+            // since subjects may have spaces in them, format the string
+            // in quotes
+            authorizedSubjectList.add("\"" + escapeQueryChars(authorizedSubjects[i]) + "\"");
+        }
+
+        StringBuffer readFqValue = new StringBuffer();
+        readFqValue.append("(");
+        for (Iterator<String> it = readFields.iterator(); it.hasNext();) {
+            String readField = (String) it.next();
+            readFqValue.append("(");
+            String readFieldString = readField + ":"
+                    + StringUtils.join(authorizedSubjectList, " OR " + readField + ":");
+            readFqValue.append(readFieldString);
+            readFqValue.append(")");
+            if (it.hasNext()) {
+                readFqValue.append(" OR ");
+            }
+        }
+        readFqValue.append(")");
+        logger.debug("**** Search security - full read permission string: "
+                + readFqValue.toString());
+        MultiMapSolrParams.addParam(CommonParams.FQ, readFqValue.toString(),
+                convertedSolrParams);
+    }
+
+    /*
+     * The subjects can be joined for the terms parser if none of them holds the separator
+     */
+    private static boolean canJoinTerms(String[] authorizedSubjects) {
+        for (String subject : authorizedSubjects) {
+            if (subject.isEmpty() || subject.contains(ACL_SEPARATOR)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static void applyRowRestrictions(SolrParams requestParams, HashMap<String, String[]> convertedSolrParams) {
             String[] rows = requestParams.getParams(CommonParams.ROWS);
             if (rows != null) {
@@ -0,0 +1,169 @@
+package org.dataone.solr.search;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * The records a subject set may read in one index, as one bitset per segment. The bitsets are
+ * keyed by the core cache key of their segment, which stays the same while the segment lives,
+ * so the bitsets of the segments a new searcher shares with the old one are reused and only the
+ * new segments are evaluated. Deleted records may be set; the searcher skips them anyway.
+ *
+ * The bitsets of the segments are also looked up in and offered to the D1AclSegmentCache, which
+ * shares them with the searchers that do not have the entry.
+ */
+public class D1AclBits implements Accountable {
+
+    private static Log logger = LogFactory.getLog(D1AclBits.class);
+
+    private static final long BASE_RAM_BYTES =
+        RamUsageEstimator.shallowSizeOfInstance(D1AclBits.class);
+
+    private final Map<IndexReader.CacheKey, FixedBitSet> segments;
+    private final long ramBytesUsed;
+
+    private D1AclBits(Map<IndexReader.CacheKey, FixedBitSet> segments) {
+        this.segments = Collections.unmodifiableMap(segments);
+        long bytes = BASE_RAM_BYTES;
+        for (FixedBitSet bits : segments.values()) {
+            bytes += bits.ramBytesUsed() + RamUsageEstimator.NUM_BYTES_OBJECT_REF * 2L;
+        }
+        this.ramBytesUsed = bytes;
+    }
+
+    /**
+     * Compute the bitsets of a read restriction for the segments of a searcher
+     * @param searcher  the searcher
+     * @param query  the read restriction
+     * @param previous  the bitsets computed for an earlier searcher, or null
+     * @return the bitsets
+     * @throws IOException
+     */
+    public static D1AclBits compute(IndexSearcher searcher, D1AclQuery query, D1AclBits previous)
+            throws IOException {
+        return compute(searcher, query, previous, D1AclSegmentCache.getInstance());
+    }
+
+    /**
+     * Compute the bitsets of a read restriction for the segments of a searcher
+     * @param searcher  the searcher
+     * @param query  the read restriction
+     * @param previous  the bitsets computed for an earlier searcher, or null
+     * @param segmentCache  the bitsets shared by the searchers
+     * @return the bitsets
+     * @throws IOException
+     */
+    static D1AclBits compute(IndexSearcher searcher, D1AclQuery query, D1AclBits previous,
+                             D1AclSegmentCache segmentCache) throws IOException {
+        Map<IndexReader.CacheKey, FixedBitSet> segments =
+            new HashMap<IndexReader.CacheKey, FixedBitSet>();
+        Evaluator evaluator = new Evaluator(searcher, query, segmentCache);
+        int reused = 0;
+        for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+            IndexReader.CacheHelper helper = context.reader().getCoreCacheHelper();
+            if (helper == null) {
+                // nothing identifies the segment, so it is evaluated on each use
+                continue;
+            }
+            FixedBitSet bits = previous == null ? null : previous.segments.get(helper.getKey());
+            if (bits != null) {
+                reused++;
+            } else {
+                bits = evaluator.bits(context);
+            }
+            segments.put(helper.getKey(), bits);
+        }
+        if (previous != null) {
+            logger.debug("Reused the read restriction bits of " + reused + " of "
+                             + segments.size() + " segments");
+        }
+        return new D1AclBits(segments);
+    }
+
+    /**
+     * Finds the bits of a read restriction in the segments of a searcher: from the segment
+     * cache, or else by evaluating the aclKeys or the terms query, which is weighted once at
+     * most
+     */
+    static class Evaluator {
+        private final IndexSearcher searcher;
+        private final D1AclQuery query;
+        private final D1AclSegmentCache segmentCache;
+        private volatile Weight weight;
+
+        Evaluator(IndexSearcher searcher, D1AclQuery query, D1AclSegmentCache segmentCache) {
+            this.searcher = searcher;
+            this.query = query;
+            this.segmentCache = segmentCache;
+        }
+
+        FixedBitSet bits(LeafReaderContext context) throws IOException {
+            FixedBitSet bits = segmentCache.get(context, query);
+            if (bits == null) {
+                Weight termsWeight = weight;
+                if (termsWeight == null) {
+                    termsWeight = searcher.createWeight(
+                        searcher.rewrite(query.evaluatedQuery(searcher)),
+                        ScoreMode.COMPLETE_NO_SCORES, 1f);
+                    weight = termsWeight;
+                }
+                bits = evaluate(termsWeight, context);
+                segmentCache.put(context, query, bits);
+            }
+            return bits;
+        }
+    }
+
+    /**
+     * Evaluate the read restriction for one segment
+     * @param weight  the weight of the terms query of the restriction
+     * @param context  the segment
+     * @return the readable records of the segment, deleted ones included
+     * @throws IOException
+     */
+    static FixedBitSet evaluate(Weight weight, LeafReaderContext context) throws IOException {
+        FixedBitSet bits = new FixedBitSet(context.reader().maxDoc());
+        Scorer scorer = weight.scorer(context);
+        if (scorer != null) {
+            DocIdSetIterator iterator = scorer.iterator();
+            for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS;
+                 doc = iterator.nextDoc()) {
+                bits.set(doc);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @param context  a segment
+     * @return the bits of the segment, or null if they were not computed
+     */
+    public FixedBitSet get(LeafReaderContext context) {
+        IndexReader.CacheHelper helper = context.reader().getCoreCacheHelper();
+        return helper == null ? null : segments.get(helper.getKey());
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return ramBytesUsed;
+    }
+}
@@ -0,0 +1,47 @@
+package org.dataone.solr.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Rebuilds the entries of the d1acl user cache for a new searcher. Solr calls it while it warms
+ * the new searcher, before the searcher serves requests, for the autowarmCount most recently
+ * used subject sets of the old cache. The bitsets of the segments the searchers share are
+ * reused, so only the segments written since the last commit are evaluated.
+ *
+ * The cache is registered in solrconfig.xml:
+ * &lt;cache name="d1acl" class="solr.CaffeineCache" size="1024" autowarmCount="256"
+ *        regenerator="org.dataone.solr.search.D1AclCacheRegenerator"/&gt;
+ */
+public class D1AclCacheRegenerator implements CacheRegenerator {
+
+    public final static String CACHE_NAME = "d1acl";
+
+    /**
+     * @param searcher  a searcher
+     * @return the d1acl cache of the searcher, or null if the core does not register it
+     */
+    @SuppressWarnings("unchecked")
+    public static SolrCache<D1AclQuery, D1AclBits> getCache(IndexSearcher searcher) {
+        if (!(searcher instanceof SolrIndexSearcher)) {
+            return null;
+        }
+        return ((SolrIndexSearcher) searcher).getCache(CACHE_NAME);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <K, V> boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache<K, V> newCache,
+                                         SolrCache<K, V> oldCache, K oldKey, V oldVal)
+            throws IOException {
+        if (oldKey instanceof D1AclQuery && oldVal instanceof D1AclBits) {
+            newCache.put(oldKey, (V) D1AclBits.compute(newSearcher, (D1AclQuery) oldKey,
+                                                       (D1AclBits) oldVal));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,462 @@
+package org.dataone.solr.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.core.SolrCore;
+import org.dataone.service.util.Constants;
+import org.dataone.solr.servlet.cache.DigestUtil;
+import org.dataone.solr.servlet.cache.ExpiringLruCache;
+
+/**
+ * The distinct permission sets of an index. Each is identified by its aclKey, a digest of the
+ * values of the permission fields which the D1AclKeyUpdateProcessorFactory stores in every
+ * record. Most records share one of a few permission sets, so the read restriction of a user
+ * can be resolved to the aclKeys of the sets naming one of their subjects once, and then
+ * checked as a small set of terms of a single field.
+ *
+ * The keys are registered as the records are added, and read back from the index when a
+ * searcher is opened, so they survive a restart. The restriction may use the keys only while
+ * every record of the searcher has one and every key of the searcher is known (see isComplete),
+ * since a record indexed before the processor was set up would not be found, and neither would
+ * a record whose key cannot be read back because its permission fields are neither stored nor
+ * have docValues.
+ *
+ * The public and authenticatedUser subjects, which every authenticated user has, name a large
+ * share of the permission sets, so they are not resolved to keys: the restriction checks them
+ * in the permission fields, as two terms per field, next to the keys of the other subjects. The
+ * keys of the other subjects are remembered per subject set until a key is added or removed.
+ * A key no record of the index has any more is forgotten when a new searcher is refreshed.
+ */
+public class D1AclKeyRegistry {
+
+    private static Log logger = LogFactory.getLog(D1AclKeyRegistry.class);
+
+    public final static String DEFAULT_KEY_FIELD = "aclKey";
+    private final static char VALUE_SEPARATOR = '\u0000';
+    private final static char FIELD_SEPARATOR = '\u0001';
+    // the subjects checked in the permission fields rather than resolved to keys
+    private final static Set<String> SHARED_SUBJECTS = Collections.unmodifiableSet(
+        new HashSet<String>(Arrays.asList(Constants.SUBJECT_PUBLIC,
+                                          Constants.SUBJECT_AUTHENTICATED_USER)));
+    private final static int RESOLVED_CACHE_SIZE = 1024;
+    private final static long RESOLVED_CACHE_TTL_MS = 3600000L;
+
+    // the registries of the cores which have the update processor, by core name
+    private static final Map<String, D1AclKeyRegistry> REGISTRIES =
+        new ConcurrentHashMap<String, D1AclKeyRegistry>();
+
+    private final String keyField;
+    private final List<String> fields;
+    // the known keys, with the last refresh which found them or the one they were added after
+    private final Map<String, Long> knownKeys = new ConcurrentHashMap<String, Long>();
+    private final Map<String, Set<String>> keysBySubject =
+        new ConcurrentHashMap<String, Set<String>>();
+    // registering takes the read lock, forgetting keys the write lock
+    private final ReadWriteLock keysLock = new ReentrantReadWriteLock();
+    // changes whenever a key is added or forgotten
+    private final AtomicLong version = new AtomicLong();
+    private final ExpiringLruCache<SortedSet<String>, ResolvedKeys> resolvedKeys =
+        new ExpiringLruCache<SortedSet<String>, ResolvedKeys>(RESOLVED_CACHE_SIZE,
+                                                              RESOLVED_CACHE_TTL_MS);
+    private volatile long generation = 0;
+    // the reader the keys were last read from
+    private volatile Refreshed refreshed = new Refreshed(null, 0, 0);
+
+    /**
+     * Constructor
+     * @param keyField  the field holding the aclKey
+     * @param fields  the permission fields the aclKey is computed from
+     */
+    public D1AclKeyRegistry(String keyField, List<String> fields) {
+        this.keyField = keyField;
+        this.fields = Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Make the registry of a core available to the query parser
+     * @param core  the core
+     * @param registry  the registry
+     */
+    public static void register(SolrCore core, D1AclKeyRegistry registry) {
+        REGISTRIES.put(core.getName(), registry);
+    }
+
+    /**
+     * Forget the registry of a core, unless a reloaded core replaced it already
+     * @param core  the core
+     * @param registry  the registry
+     */
+    public static void unregister(SolrCore core, D1AclKeyRegistry registry) {
+        REGISTRIES.remove(core.getName(), registry);
+    }
+
+    /**
+     * @param core  a core
+     * @return the registry of the core, or null if the core does not compute aclKeys
+     */
+    public static D1AclKeyRegistry get(SolrCore core) {
+        return core == null ? null : REGISTRIES.get(core.getName());
+    }
+
+    /**
+     * Compute the aclKey of a permission set
+     * @param permissions  the values of each permission field
+     * @return the lower case hex SHA-256 digest of the sorted values, field by field
+     */
+    public String aclKey(Map<String, ? extends Collection<String>> permissions) {
+        StringBuilder canonical = new StringBuilder();
+        for (String field : fields) {
+            canonical.append(field);
+            Collection<String> values = permissions.get(field);
+            if (values != null) {
+                for (String value : new TreeSet<String>(values)) {
+                    canonical.append(VALUE_SEPARATOR).append(value);
+                }
+            }
+            canonical.append(FIELD_SEPARATOR);
+        }
+        return DigestUtil.sha256Hex(canonical.toString());
+    }
+
+    /**
+     * Register a permission set
+     * @param aclKey  the aclKey of the set
+     * @param permissions  the values of each permission field
+     */
+    public void register(String aclKey, Map<String, ? extends Collection<String>> permissions) {
+        keysLock.readLock().lock();
+        try {
+            if (knownKeys.containsKey(aclKey)) {
+                knownKeys.put(aclKey, generation);
+                return;
+            }
+            for (String field : fields) {
+                Collection<String> values = permissions.get(field);
+                if (values != null) {
+                    for (String subject : values) {
+                        if (!SHARED_SUBJECTS.contains(subject)) {
+                            keysBySubject.computeIfAbsent(subject,
+                                s -> ConcurrentHashMap.newKeySet()).add(aclKey);
+                        }
+                    }
+                }
+            }
+            // mark the key known only once each of its subjects leads to it
+            knownKeys.put(aclKey, generation);
+            version.incrementAndGet();
+        } finally {
+            keysLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param subjects  the subjects a user may read as
+     * @return the aclKeys of the permission sets naming one of the subjects, except for the
+     *         public and authenticatedUser subjects
+     */
+    public SortedSet<String> resolve(Collection<String> subjects) {
+        SortedSet<String> keys = new TreeSet<String>();
+        for (String subject : subjects) {
+            Set<String> subjectKeys = SHARED_SUBJECTS.contains(subject) ? null
+                : keysBySubject.get(subject);
+            if (subjectKeys != null) {
+                keys.addAll(subjectKeys);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * The read restriction of a subject set: the records whose aclKey is one of the keys the
+     * subjects resolve to, or whose permission fields name the public or authenticatedUser
+     * subject
+     * @param searcher  the searcher the restriction is evaluated on
+     * @param subjects  the subjects a user may read as
+     * @return the restriction, or null if the keys of the searcher may not be used (see
+     *         isComplete)
+     * @throws IOException
+     */
+    public Query query(IndexSearcher searcher, SortedSet<String> subjects) throws IOException {
+        if (!isComplete(searcher)) {
+            return null;
+        }
+        List<BytesRef> shared = new ArrayList<BytesRef>();
+        SortedSet<String> others = new TreeSet<String>();
+        for (String subject : subjects) {
+            if (SHARED_SUBJECTS.contains(subject)) {
+                shared.add(new BytesRef(subject));
+            } else {
+                others.add(subject);
+            }
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        Query keys = others.isEmpty() ? null : keysQuery(others);
+        if (keys != null) {
+            builder.add(keys, BooleanClause.Occur.SHOULD);
+        }
+        if (!shared.isEmpty()) {
+            for (String field : fields) {
+                builder.add(new TermInSetQuery(field, shared), BooleanClause.Occur.SHOULD);
+            }
+        }
+        BooleanQuery query = builder.build();
+        if (query.clauses().isEmpty()) {
+            return new MatchNoDocsQuery("none of the subjects is in a permission set");
+        }
+        return new ConstantScoreQuery(query);
+    }
+
+    /*
+     * The terms query over the keys the subjects resolve to, or null if there are none
+     */
+    private Query keysQuery(SortedSet<String> subjects) {
+        // read the version first, so a key added meanwhile makes the entry stale
+        long current = version.get();
+        ResolvedKeys resolved = resolvedKeys.get(subjects);
+        if (resolved == null || resolved.version != current) {
+            SortedSet<String> keys = resolve(subjects);
+            Query query = null;
+            if (!keys.isEmpty()) {
+                List<BytesRef> terms = new ArrayList<BytesRef>(keys.size());
+                for (String key : keys) {
+                    terms.add(new BytesRef(key));
+                }
+                query = new TermInSetQuery(keyField, terms);
+            }
+            resolved = new ResolvedKeys(current, query);
+            resolvedKeys.put(subjects, resolved);
+        }
+        return resolved.query;
+    }
+
+    /**
+     * Register the aclKeys of a new searcher this registry does not know yet, and forget those
+     * none of its records has which were not added since the refresh before. It does nothing if
+     * the keys were read from the same reader before.
+     * @param searcher  the searcher
+     * @throws IOException
+     */
+    public void refresh(IndexSearcher searcher) throws IOException {
+        synchronized (this) {
+            Refreshed last = refreshReader(searcher);
+            if (last.generation == generation) {
+                forgetKeysBefore(last.generation - 1);
+            }
+        }
+    }
+
+    /*
+     * Forget the keys last found or added before a refresh
+     */
+    private void forgetKeysBefore(long oldest) {
+        keysLock.writeLock().lock();
+        try {
+            Set<String> forgotten = new HashSet<String>();
+            for (Iterator<Map.Entry<String, Long>> iterator = knownKeys.entrySet().iterator();
+                 iterator.hasNext();) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getValue() < oldest) {
+                    forgotten.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+            if (forgotten.isEmpty()) {
+                return;
+            }
+            for (Iterator<Set<String>> iterator = keysBySubject.values().iterator();
+                 iterator.hasNext();) {
+                Set<String> keys = iterator.next();
+                keys.removeAll(forgotten);
+                if (keys.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+            version.incrementAndGet();
+            logger.debug("Forgot " + forgotten.size() + " aclKeys no record has any more");
+        } finally {
+            keysLock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Register the unknown aclKeys of a searcher, and count those which cannot be verified
+     */
+    private Refreshed refreshReader(IndexSearcher searcher) throws IOException {
+        IndexReader.CacheHelper helper = searcher.getIndexReader().getReaderCacheHelper();
+        IndexReader.CacheKey readerKey = helper == null ? null : helper.getKey();
+        Refreshed last = refreshed;
+        if (readerKey != null && readerKey == last.readerKey) {
+            return last;
+        }
+        synchronized (this) {
+            last = refreshed;
+            if (readerKey != null && readerKey == last.readerKey) {
+                return last;
+            }
+            long current = ++generation;
+            int added = 0;
+            int unverified = 0;
+            for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+                Terms terms = context.reader().terms(keyField);
+                if (terms == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = terms.iterator();
+                PostingsEnum postings = null;
+                for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                    String aclKey = term.utf8ToString();
+                    if (knownKeys.replace(aclKey, current) != null) {
+                        continue;
+                    }
+                    // every record with the key has the same permissions, deleted or not
+                    postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                    Map<String, Set<String>> permissions =
+                        readPermissions(context.reader(), postings.nextDoc());
+                    if (aclKey.equals(aclKey(permissions))) {
+                        register(aclKey, permissions);
+                        added++;
+                    } else {
+                        logger.debug("The permissions of the records with the aclKey " + aclKey
+                                         + " do not match it");
+                        unverified++;
+                    }
+                }
+            }
+            if (unverified > 0) {
+                logger.warn("The permissions of the records with " + unverified + " aclKeys "
+                                + "do not match them, or cannot be read because the fields are "
+                                + "neither stored nor have docValues. The " + keyField
+                                + " field is not used until the records are indexed again.");
+            }
+            last = new Refreshed(readerKey, current, unverified);
+            refreshed = last;
+            logger.debug("Read " + added + " new aclKeys from the index, " + knownKeys.size()
+                             + " known");
+            return last;
+        }
+    }
+
+    /*
+     * Read the permission values of a record, from the docValues or else the stored fields
+     */
+    private Map<String, Set<String>> readPermissions(LeafReader reader, int doc)
+            throws IOException {
+        Map<String, Set<String>> permissions = new LinkedHashMap<String, Set<String>>();
+        Document stored = null;
+        for (String field : fields) {
+            Set<String> values = new HashSet<String>();
+            FieldInfo info = reader.getFieldInfos().fieldInfo(field);
+            if (info != null && (info.getDocValuesType() == DocValuesType.SORTED
+                                 || info.getDocValuesType() == DocValuesType.SORTED_SET)) {
+                SortedSetDocValues docValues = DocValues.getSortedSet(reader, field);
+                if (docValues.advanceExact(doc)) {
+                    for (int count = docValues.docValueCount(); count > 0; count--) {
+                        values.add(docValues.lookupOrd(docValues.nextOrd()).utf8ToString());
+                    }
+                }
+            } else if (info != null) {
+                if (stored == null) {
+                    stored = reader.storedFields().document(doc, new HashSet<String>(fields));
+                }
+                Collections.addAll(values, stored.getValues(field));
+            }
+            permissions.put(field, values);
+        }
+        return permissions;
+    }
+
+    /**
+     * Check that the keys of a searcher may be used, registering those not known yet
+     * @param searcher  a searcher
+     * @return true if every record of the searcher has an aclKey and every aclKey is known
+     * @throws IOException
+     */
+    public boolean isComplete(IndexSearcher searcher) throws IOException {
+        for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+            int maxDoc = context.reader().maxDoc();
+            Terms terms = context.reader().terms(keyField);
+            if (maxDoc > 0 && (terms == null || terms.getDocCount() < maxDoc)) {
+                return false;
+            }
+        }
+        return refreshReader(searcher).unverifiedKeys == 0;
+    }
+
+    public String getKeyField() {
+        return keyField;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public int size() {
+        return knownKeys.size();
+    }
+
+    /*
+     * The reader the keys were last read from, the refresh which read them, and the number of
+     * its keys which did not match the permissions of their records
+     */
+    private static final class Refreshed {
+        private final IndexReader.CacheKey readerKey;
+        private final long generation;
+        private final int unverifiedKeys;
+
+        private Refreshed(IndexReader.CacheKey readerKey, long generation, int unverifiedKeys) {
+            this.readerKey = readerKey;
+            this.generation = generation;
+            this.unverifiedKeys = unverifiedKeys;
+        }
+    }
+
+    /*
+     * The keys a subject set resolved to, while the keys are the same
+     */
+    private static final class ResolvedKeys {
+        private final long version;
+        private final Query query;
+
+        private ResolvedKeys(long version, Query query) {
+            this.version = version;
+            this.query = query;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.dataone.solr.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.search.DelegatingCollector;
+import org.apache.solr.search.PostFilter;
+
+/**
+ * The read restriction as a post filter: with cache=false and a cost of 100 or more, Solr runs
+ * the main query and the other filters first and only then checks the permission docValues of
+ * each hit. A selective query by a user with a huge group membership then does not build the
+ * DocSet of every record the user may read.
+ *
+ * For each segment, the subjects are looked up once in the terms dictionary of the docValues of
+ * every field, and a hit is readable if one of its ordinals is among them.
+ */
+public class D1AclPostFilter extends D1AclQuery implements PostFilter {
+
+    /**
+     * Constructor
+     * @param fields  the fields listing who may read a record. They must have docValues
+     * @param subjects  the subjects the user may read as
+     */
+    public D1AclPostFilter(List<String> fields, SortedSet<String> subjects) {
+        super(fields, subjects);
+    }
+
+    /**
+     * Constructor
+     * @param fields  the fields listing who may read a record. They must have docValues
+     * @param subjects  the subjects the user may read as
+     * @param registry  the aclKeys of the permission sets of these fields, checked if Solr runs
+     *                  the filter as a plain one after all. It may be null
+     */
+    public D1AclPostFilter(List<String> fields, SortedSet<String> subjects,
+                           D1AclKeyRegistry registry) {
+        super(fields, subjects, registry);
+    }
+
+    @Override
+    public DelegatingCollector getFilterCollector(IndexSearcher searcher) {
+        return new DelegatingCollector() {
+            private final SortedSetDocValues[] values = new SortedSetDocValues[fields.length];
+            private final long[][] ords = new long[fields.length][];
+            private boolean anyOrds;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                super.doSetNextReader(context);
+                anyOrds = false;
+                for (int i = 0; i < fields.length; i++) {
+                    values[i] = DocValues.getSortedSet(context.reader(), fields[i]);
+                    ords[i] = lookupOrds(values[i]);
+                    anyOrds |= ords[i].length > 0;
+                }
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                if (anyOrds && isReadable(doc)) {
+                    super.collect(doc);
+                }
+            }
+
+            private boolean isReadable(int doc) throws IOException {
+                for (int i = 0; i < fields.length; i++) {
+                    if (ords[i].length > 0 && values[i].advanceExact(doc)) {
+                        for (int count = values[i].docValueCount(); count > 0; count--) {
+                            if (Arrays.binarySearch(ords[i], values[i].nextOrd()) >= 0) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /*
+     * The sorted ordinals of the subjects present in a segment
+     */
+    private long[] lookupOrds(SortedSetDocValues docValues) throws IOException {
+        long[] found = new long[subjects.size()];
+        int count = 0;
+        if (docValues.getValueCount() > 0) {
+            for (String subject : subjects) {
+                long ord = docValues.lookupTerm(new BytesRef(subject));
+                if (ord >= 0) {
+                    found[count++] = ord;
+                }
+            }
+        }
+        long[] ords = Arrays.copyOf(found, count);
+        Arrays.sort(ords);
+        return ords;
+    }
+}
@@ -0,0 +1,133 @@
+package org.dataone.solr.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SyntaxError;
+
+/**
+ * The {!d1acl} query parser: the read restriction the DataONE search handlers add as a filter.
+ *
+ * It takes no query string. The handler puts the authorized subjects of the user into the
+ * request context (see setAuthorizedSubjects), so they are neither joined into a query string
+ * nor parsed again, and a client cannot supply them. The fields local parameter lists the
+ * permission fields, comma separated.
+ *
+ * By default the filter is cached like any other filter query, or in the d1acl user cache if
+ * the core registers it (see D1AclCacheRegenerator). With cache=false and cost=100 or more, it
+ * is a post filter which checks the docValues of the hits instead, provided every field is a
+ * string field with docValues; otherwise it stays an uncached filter.
+ *
+ * If the core computes the aclKey of every record (see D1AclKeyUpdateProcessorFactory), the
+ * filter is evaluated as a terms query over the aclKeys of the permission sets naming one of
+ * the subjects instead, in whichever of these modes it runs (see D1AclKeyRegistry).
+ *
+ * The context is not forwarded to the shards of a distributed request, so the parser works on a
+ * single core only; the handlers use the {!terms} filter for a distributed request instead (see
+ * SolrSearchHandlerUtil). The parser must be registered in solrconfig.xml:
+ * &lt;queryParser name="d1acl" class="org.dataone.solr.search.D1AclQParserPlugin"/&gt;
+ */
+public class D1AclQParserPlugin extends QParserPlugin {
+
+    public final static String NAME = "d1acl";
+    public final static String FIELDS_PARAM = "fields";
+    public final static String CONTEXT_AUTHORIZED_SUBJECTS = "d1.acl.authorizedSubjects";
+    public final static List<String> DEFAULT_FIELDS = Collections.unmodifiableList(Arrays.asList(
+        "readPermission", "rightsHolder", "writePermission", "changePermission"));
+
+    /**
+     * Hand the authorized subjects of a request to the parser
+     * @param requestContext  the context of the Solr request
+     * @param subjects  the subjects the user may read as
+     */
+    public static void setAuthorizedSubjects(Map<Object, Object> requestContext,
+                                             Collection<String> subjects) {
+        requestContext.put(CONTEXT_AUTHORIZED_SUBJECTS,
+                           Collections.unmodifiableSortedSet(new TreeSet<String>(subjects)));
+    }
+
+    /**
+     * @param requestContext  the context of the Solr request
+     * @return the authorized subjects of the request, or null if the handler did not set them
+     */
+    @SuppressWarnings("unchecked")
+    public static SortedSet<String> getAuthorizedSubjects(Map<Object, Object> requestContext) {
+        Object subjects = requestContext.get(CONTEXT_AUTHORIZED_SUBJECTS);
+        return subjects instanceof SortedSet ? (SortedSet<String>) subjects : null;
+    }
+
+    @Override
+    public QParser createParser(String qstr, SolrParams localParams, SolrParams params,
+                                SolrQueryRequest req) {
+        return new QParser(qstr, localParams, params, req) {
+            @Override
+            public Query parse() throws SyntaxError {
+                SortedSet<String> subjects = getAuthorizedSubjects(req.getContext());
+                if (subjects == null) {
+                    throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+                        "The " + NAME + " filter is only set by the DataONE search handlers");
+                }
+                List<String> fields = parseFields(localParams);
+                boolean docValues = true;
+                for (String field : fields) {
+                    SchemaField schemaField = req.getSchema().getFieldOrNull(field);
+                    if (schemaField == null) {
+                        throw new SyntaxError("Unknown field " + field + " in the " + NAME
+                                                  + " filter");
+                    }
+                    docValues &= schemaField.hasDocValues()
+                        && schemaField.getType() instanceof StrField;
+                }
+                D1AclKeyRegistry registry = getRegistry(req, fields);
+                D1AclQuery query = docValues ? new D1AclPostFilter(fields, subjects, registry)
+                    : new D1AclQuery(fields, subjects, registry);
+                if (D1AclCacheRegenerator.getCache(req.getSearcher()) != null) {
+                    // the d1acl cache keeps the bitsets, so the filterCache need not
+                    query.setCache(false);
+                }
+                return query;
+            }
+        };
+    }
+
+    /*
+     * The aclKeys of the core, or null if the core does not compute them for these fields
+     */
+    private static D1AclKeyRegistry getRegistry(SolrQueryRequest req, List<String> fields) {
+        D1AclKeyRegistry registry = D1AclKeyRegistry.get(req.getCore());
+        if (registry == null
+                || !new HashSet<String>(fields).equals(new HashSet<String>(registry.getFields()))) {
+            return null;
+        }
+        return registry;
+    }
+
+    private static List<String> parseFields(SolrParams localParams) {
+        String value = localParams == null ? null : localParams.get(FIELDS_PARAM);
+        if (value == null || value.isBlank()) {
+            return DEFAULT_FIELDS;
+        }
+        List<String> fields = new ArrayList<String>();
+        for (String field : value.split(",")) {
+            if (!field.isBlank()) {
+                fields.add(field.trim());
+            }
+        }
+        return fields;
+    }
+}
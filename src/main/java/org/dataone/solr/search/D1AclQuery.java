@@ -0,0 +1,201 @@
+package org.dataone.solr.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.search.ExtendedQueryBase;
+import org.apache.solr.search.SolrCache;
+
+/**
+ * The read restriction of a DataONE search: a record matches if any of the permission fields
+ * holds one of the authorized subjects of the user.
+ *
+ * The query rewrites to one TermInSetQuery per field, so as a cached filter its DocSet is kept
+ * in the filterCache. If the segment cache is enabled, the query is evaluated per segment and
+ * the bitsets of the segments are looked up there first (see D1AclSegmentCache). If the core
+ * has the d1acl user cache, the query is left uncached and its bitsets are kept there per
+ * segment, so a new searcher reuses the bitsets of the segments it shares with the old one
+ * (see D1AclCacheRegenerator). The subjects are held as a sorted set, so the users with the
+ * same subjects share the cache entries whatever the order their subjects were listed in.
+ *
+ * If the core computes aclKeys (see D1AclKeyRegistry), each evaluation checks the aclKeys the
+ * subjects resolve to instead of the permission fields, as long as the searcher evaluated has
+ * a known key on every record. The keys are not part of the query, so the cache entries stay
+ * the same whichever way a segment was evaluated.
+ */
+public class D1AclQuery extends ExtendedQueryBase implements Accountable {
+
+    private static final long BASE_RAM_BYTES =
+        RamUsageEstimator.shallowSizeOfInstance(D1AclQuery.class);
+
+    protected final String[] fields;
+    protected final SortedSet<String> subjects;
+    protected final D1AclKeyRegistry registry;
+    private final long ramBytesUsed;
+
+    /**
+     * Constructor
+     * @param fields  the fields listing who may read a record
+     * @param subjects  the subjects the user may read as
+     */
+    public D1AclQuery(List<String> fields, SortedSet<String> subjects) {
+        this(fields, subjects, null);
+    }
+
+    /**
+     * Constructor
+     * @param fields  the fields listing who may read a record
+     * @param subjects  the subjects the user may read as
+     * @param registry  the aclKeys of the permission sets of these fields, or null
+     */
+    public D1AclQuery(List<String> fields, SortedSet<String> subjects,
+                      D1AclKeyRegistry registry) {
+        this.fields = fields.toArray(new String[0]);
+        this.registry = registry;
+        this.subjects = Collections.unmodifiableSortedSet(new TreeSet<String>(subjects));
+        long bytes = BASE_RAM_BYTES + RamUsageEstimator.shallowSizeOf(this.fields);
+        for (String field : this.fields) {
+            bytes += RamUsageEstimator.sizeOf(field);
+        }
+        for (String subject : this.subjects) {
+            // a tree map entry holds each subject
+            bytes += RamUsageEstimator.sizeOf(subject) + 40;
+        }
+        this.ramBytesUsed = bytes;
+    }
+
+    @Override
+    public Query rewrite(IndexSearcher searcher) throws IOException {
+        if (D1AclCacheRegenerator.getCache(searcher) != null
+                || D1AclSegmentCache.getInstance().isEnabled()) {
+            return this;
+        }
+        return evaluatedQuery(searcher);
+    }
+
+    /**
+     * Look the bitsets of the segments up in the d1acl cache of the searcher, and those it does
+     * not have in the segment cache. The query is only left to be weighted if there is a cache
+     * (see rewrite).
+     */
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
+            throws IOException {
+        D1AclSegmentCache segmentCache = D1AclSegmentCache.getInstance();
+        segmentCache.recordUse(this);
+        SolrCache<D1AclQuery, D1AclBits> cache = D1AclCacheRegenerator.getCache(searcher);
+        D1AclBits bits = cache == null ? null : cache.computeIfAbsent(getCacheKey(),
+            key -> D1AclBits.compute(searcher, key, null, segmentCache));
+        D1AclBits.Evaluator evaluator = new D1AclBits.Evaluator(searcher, this, segmentCache);
+        return new ConstantScoreWeight(this, boost) {
+            @Override
+            public Scorer scorer(LeafReaderContext context) throws IOException {
+                FixedBitSet leafBits = bits == null ? null : bits.get(context);
+                if (leafBits == null) {
+                    leafBits = evaluator.bits(context);
+                }
+                return new ConstantScoreScorer(this, score(), scoreMode,
+                    new BitSetIterator(leafBits, leafBits.approximateCardinality()));
+            }
+
+            @Override
+            public boolean isCacheable(LeafReaderContext context) {
+                // the bits are cached already
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param searcher  the searcher the restriction is evaluated on
+     * @return the restriction as aclKeys if the registry may be used on the searcher, or else
+     *         as one TermInSetQuery per field
+     * @throws IOException
+     */
+    public Query evaluatedQuery(IndexSearcher searcher) throws IOException {
+        Query aclKeys = registry == null ? null : registry.query(searcher, subjects);
+        return aclKeys == null ? termsQuery() : aclKeys;
+    }
+
+    /**
+     * @return the restriction as one TermInSetQuery per field
+     */
+    public Query termsQuery() {
+        List<BytesRef> terms = new ArrayList<BytesRef>(subjects.size());
+        for (String subject : subjects) {
+            terms.add(new BytesRef(subject));
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String field : fields) {
+            builder.add(new TermInSetQuery(field, terms), BooleanClause.Occur.SHOULD);
+        }
+        return new ConstantScoreQuery(builder.build());
+    }
+
+    /**
+     * @return the key of the restriction in the d1acl cache, whatever mode it runs in
+     */
+    public D1AclQuery getCacheKey() {
+        return getClass() == D1AclQuery.class ? this
+            : new D1AclQuery(getFields(), subjects, registry);
+    }
+
+    public List<String> getFields() {
+        return Collections.unmodifiableList(Arrays.asList(fields));
+    }
+
+    public SortedSet<String> getSubjects() {
+        return subjects;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return ramBytesUsed;
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        visitor.visitLeaf(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) && Arrays.equals(fields, ((D1AclQuery) other).fields)
+            && subjects.equals(((D1AclQuery) other).subjects);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * classHash() + Arrays.hashCode(fields)) + subjects.hashCode();
+    }
+
+    @Override
+    public String toString(String field) {
+        // the subjects themselves stay out of the debug output and the logs
+        return getOptions() + D1AclQParserPlugin.NAME + "(" + String.join(",", fields) + ": "
+            + subjects.size() + " subjects)";
+    }
+}
@@ -0,0 +1,252 @@
+package org.dataone.solr.search;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.dataone.solr.servlet.ConfigurationUtil;
+
+/**
+ * The readable records of the frequently used subject sets, as one bitset per segment, shared
+ * by all the searchers of the JVM.
+ *
+ * A bitset is keyed by the core cache key of its segment, so it is found again by every searcher
+ * which still has the segment and only the segments flushed since the last commit are
+ * evaluated. It is dropped when the segment is closed. A subject set is admitted once it was
+ * used minUses times among the recently seen ones, so one-off sets do not push the frequent
+ * ones out. The bytes of the bitsets and their keys are counted against a cap, and the least
+ * recently used bitsets are evicted beyond it.
+ *
+ * A cap of zero (or less) disables the cache.
+ */
+public class D1AclSegmentCache {
+
+    private static Log logger = LogFactory.getLog(D1AclSegmentCache.class);
+
+    public final static String ENV_NAME_MAX_MB = "D1_SOLR_ACL_SEGMENT_CACHE_MB";
+    public final static String ENV_NAME_MIN_USES = "D1_SOLR_ACL_SEGMENT_CACHE_MIN_USES";
+    public final static String SETTING_NAME_MAX_MB = "solr.aclSegmentCache.maxMB";
+    public final static String SETTING_NAME_MIN_USES = "solr.aclSegmentCache.minUses";
+    private final static long DEFAULT_MAX_MB = 64L;
+    private final static int DEFAULT_MIN_USES = 2;
+    // how many subject sets the use counts are kept for
+    private final static int TRACKED_SETS = 1024;
+    private final static long ENTRY_RAM_BYTES = 2 * RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+        + 6L * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+
+    private static final D1AclSegmentCache INSTANCE = fromConfiguration();
+
+    /**
+     * A bitset for a subject set in a segment
+     */
+    private static final class SegmentKey {
+        private final IndexReader.CacheKey core;
+        private final D1AclQuery query;
+
+        private SegmentKey(IndexReader.CacheKey core, D1AclQuery query) {
+            this.core = core;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SegmentKey && core == ((SegmentKey) other).core
+                && query.equals(((SegmentKey) other).query);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(core) + query.hashCode();
+        }
+    }
+
+    private final long maxBytes;
+    private final int minUses;
+    private final LinkedHashMap<SegmentKey, FixedBitSet> bits =
+        new LinkedHashMap<SegmentKey, FixedBitSet>(16, 0.75f, true);
+    private final LinkedHashMap<D1AclQuery, Integer> uses =
+        new LinkedHashMap<D1AclQuery, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<D1AclQuery, Integer> eldest) {
+                return size() > TRACKED_SETS;
+            }
+        };
+    // the segments whose closing is listened to
+    private final Set<IndexReader.CacheKey> cores = new HashSet<IndexReader.CacheKey>();
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param maxBytes  the most bytes the bitsets may take
+     * @param minUses  how many times a subject set is used before its bitsets are kept
+     */
+    public D1AclSegmentCache(long maxBytes, int minUses) {
+        this.maxBytes = maxBytes;
+        this.minUses = Math.max(1, minUses);
+    }
+
+    /**
+     * Create the cache from the environmental variables and the settings
+     * @return a D1AclSegmentCache object
+     */
+    public static D1AclSegmentCache fromConfiguration() {
+        long maxMB = ConfigurationUtil.getLong(ENV_NAME_MAX_MB, SETTING_NAME_MAX_MB,
+                                               DEFAULT_MAX_MB);
+        int minUses = ConfigurationUtil.getInt(ENV_NAME_MIN_USES, SETTING_NAME_MIN_USES,
+                                               DEFAULT_MIN_USES);
+        logger.info("ACL segment cache " + (maxMB > 0 ? maxMB + " MB, kept after " + minUses
+            + " uses" : "disabled"));
+        return new D1AclSegmentCache(maxMB * 1024 * 1024, minUses);
+    }
+
+    /**
+     * @return the cache shared by the searchers of the JVM
+     */
+    public static D1AclSegmentCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Count a use of a subject set
+     * @param query  the read restriction
+     */
+    public synchronized void recordUse(D1AclQuery query) {
+        if (isEnabled()) {
+            uses.merge(query.getCacheKey(), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @param context  a segment
+     * @param query  the read restriction
+     * @return the bits of the restriction in the segment, or null if they are not cached
+     */
+    public FixedBitSet get(LeafReaderContext context, D1AclQuery query) {
+        IndexReader.CacheHelper helper = context.reader().getCoreCacheHelper();
+        if (!isEnabled() || helper == null) {
+            return null;
+        }
+        FixedBitSet found;
+        synchronized (this) {
+            found = bits.get(new SegmentKey(helper.getKey(), query.getCacheKey()));
+        }
+        (found == null ? misses : hits).incrementAndGet();
+        return found;
+    }
+
+    /**
+     * Keep the bits of a restriction in a segment, if its subject set is used often enough
+     * @param context  the segment
+     * @param query  the read restriction
+     * @param segmentBits  the readable records of the segment
+     */
+    public void put(LeafReaderContext context, D1AclQuery query, FixedBitSet segmentBits) {
+        IndexReader.CacheHelper helper = context.reader().getCoreCacheHelper();
+        if (!isEnabled() || helper == null) {
+            return;
+        }
+        D1AclQuery key = query.getCacheKey();
+        long entryBytes = ramBytesUsed(key, segmentBits);
+        if (entryBytes > maxBytes) {
+            return;
+        }
+        boolean listen;
+        synchronized (this) {
+            if (uses.getOrDefault(key, 0) < minUses) {
+                return;
+            }
+            FixedBitSet previous = bits.put(new SegmentKey(helper.getKey(), key), segmentBits);
+            if (previous != null) {
+                bytes -= ramBytesUsed(key, previous);
+            }
+            bytes += entryBytes;
+            evict();
+            listen = cores.add(helper.getKey());
+        }
+        if (listen) {
+            helper.addClosedListener(this::removeCore);
+        }
+    }
+
+    /*
+     * Drop the least recently used bitsets beyond the cap. Called with the monitor held.
+     */
+    private void evict() {
+        Iterator<Map.Entry<SegmentKey, FixedBitSet>> it = bits.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<SegmentKey, FixedBitSet> eldest = it.next();
+            bytes -= ramBytesUsed(eldest.getKey().query, eldest.getValue());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /*
+     * Drop the bitsets of a closed segment
+     */
+    private synchronized void removeCore(IndexReader.CacheKey core) {
+        cores.remove(core);
+        Iterator<Map.Entry<SegmentKey, FixedBitSet>> it = bits.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SegmentKey, FixedBitSet> entry = it.next();
+            if (entry.getKey().core == core) {
+                bytes -= ramBytesUsed(entry.getKey().query, entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private static long ramBytesUsed(D1AclQuery query, FixedBitSet segmentBits) {
+        return ENTRY_RAM_BYTES + query.ramBytesUsed() + segmentBits.ramBytesUsed();
+    }
+
+    /**
+     * Drop every bitset and use count
+     */
+    public synchronized void clear() {
+        bits.clear();
+        uses.clear();
+        bytes = 0;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public synchronized int size() {
+        return bits.size();
+    }
+
+    public synchronized long ramBytesUsed() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,112 @@
+package org.dataone.solr.servlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dataone.service.types.v1.Subject;
+
+/**
+ * An immutable snapshot of the administrative subjects derived from the CN nodelist and the
+ * cn.administrators setting.
+ *
+ * A refresh builds a complete new snapshot and publishes it with a single volatile write, so a
+ * request thread always sees either the old or the new lists, never a half-filled one, and the
+ * membership checks are hash lookups rather than list scans.
+ *
+ * The MN subjects are also indexed the other way round, from a subject to the identifiers of the
+ * MNs it belongs to, so resolving an MN administrator does not walk the nodes.
+ */
+public final class AdministrativeSubjects {
+
+    /**
+     * The snapshot used before the nodelist has been read for the first time
+     */
+    public static final AdministrativeSubjects EMPTY = new AdministrativeSubjects(
+        Collections.<Subject>emptyList(), Collections.<String, List<Subject>>emptyMap());
+
+    private final Set<Subject> cnSubjects;
+    private final Map<String, List<Subject>> mnNodeIdToSubjects;
+    private final Map<Subject, Set<String>> mnSubjectToNodeIds;
+
+    /**
+     * Constructor. The collections are copied.
+     * @param cnSubjects  the subjects of the CNs and the configured CN administrators
+     * @param mnNodeIdToSubjects  the subjects of each MN, keyed by the node identifier
+     */
+    public AdministrativeSubjects(Collection<Subject> cnSubjects,
+                                  Map<String, List<Subject>> mnNodeIdToSubjects) {
+        this.cnSubjects = Collections.unmodifiableSet(new HashSet<Subject>(cnSubjects));
+        Map<String, List<Subject>> nodes = new LinkedHashMap<String, List<Subject>>();
+        Map<Subject, Set<String>> index = new HashMap<Subject, Set<String>>();
+        for (Map.Entry<String, List<Subject>> entry : mnNodeIdToSubjects.entrySet()) {
+            List<Subject> subjects = Collections.unmodifiableList(
+                new ArrayList<Subject>(entry.getValue()));
+            nodes.put(entry.getKey(), subjects);
+            for (Subject subject : subjects) {
+                Set<String> nodeIds = index.get(subject);
+                if (nodeIds == null) {
+                    nodeIds = new LinkedHashSet<String>();
+                    index.put(subject, nodeIds);
+                }
+                nodeIds.add(entry.getKey());
+            }
+        }
+        for (Map.Entry<Subject, Set<String>> entry : index.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+        this.mnNodeIdToSubjects = Collections.unmodifiableMap(nodes);
+        this.mnSubjectToNodeIds = Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * @param subject  the subject to check
+     * @return true if the subject belongs to a CN or is a configured CN administrator
+     */
+    public boolean isCnAdministrator(Subject subject) {
+        return cnSubjects.contains(subject);
+    }
+
+    /**
+     * @param subject  the subject to check
+     * @return true if the subject belongs to a MN
+     */
+    public boolean isMnAdministrator(Subject subject) {
+        return mnSubjectToNodeIds.containsKey(subject);
+    }
+
+    /**
+     * @param subject  the subject to look up
+     * @return the identifiers of the MNs the subject belongs to, in nodelist order. The set is
+     *         empty if the subject is not an MN subject
+     */
+    public Set<String> getMnNodeIds(Subject subject) {
+        Set<String> nodeIds = mnSubjectToNodeIds.get(subject);
+        return nodeIds == null ? Collections.<String>emptySet() : nodeIds;
+    }
+
+    public Set<Subject> getCnSubjects() {
+        return cnSubjects;
+    }
+
+    public Set<Subject> getMnSubjects() {
+        return mnSubjectToNodeIds.keySet();
+    }
+
+    public Map<String, List<Subject>> getMnNodeIdToSubjects() {
+        return mnNodeIdToSubjects;
+    }
+
+    @Override
+    public String toString() {
+        return "AdministrativeSubjects cn=" + cnSubjects.size() + " mn="
+            + mnSubjectToNodeIds.size() + " mnNodes=" + mnNodeIdToSubjects.size();
+    }
+}
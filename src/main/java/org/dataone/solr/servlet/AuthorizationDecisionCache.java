@@ -0,0 +1,181 @@
+package org.dataone.solr.servlet;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.cn.servlet.http.ParameterKeys;
+import org.dataone.solr.servlet.cache.ExpiringLruCache;
+
+/**
+ * Caches, for a short time, the authorization parameters the filters worked out for a client:
+ * the authorized subjects, the CN administrator token and the MN identifier. The key is a
+ * digest of the credential the client presented (certificate, token or portal cookie), so a
+ * repeat caller of either the search or the log filter skips the certificate, session, admin
+ * and subject resolution altogether.
+ *
+ * Everything cached is derived from the administrative subjects and the configuration, so the
+ * cache is cleared whenever a new snapshot of either is published. A decision worked out while
+ * the cache was being cleared is discarded rather than stored.
+ */
+public class AuthorizationDecisionCache {
+
+    private static Log logger = LogFactory.getLog(AuthorizationDecisionCache.class);
+
+    public final static String ENV_NAME_MAX_SIZE = "D1_SOLR_AUTH_DECISION_CACHE_SIZE";
+    public final static String ENV_NAME_TTL_SECONDS = "D1_SOLR_AUTH_DECISION_CACHE_TTL_SECONDS";
+    public final static String SETTING_NAME_MAX_SIZE = "solr.authDecisionCache.size";
+    public final static String SETTING_NAME_TTL_SECONDS = "solr.authDecisionCache.ttlSeconds";
+    private final static int DEFAULT_MAX_SIZE = 10000;
+    private final static long DEFAULT_TTL_SECONDS = 30L;
+
+    private final ExpiringLruCache<String, AuthorizationDecision> decisions;
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param maxSize  the maximum number of decisions. 0 disables the cache
+     * @param ttlMS  how long a decision is kept at most
+     */
+    public AuthorizationDecisionCache(int maxSize, long ttlMS) {
+        decisions = new ExpiringLruCache<String, AuthorizationDecision>(maxSize, ttlMS);
+    }
+
+    /**
+     * Create a cache from the environmental variables and the settings
+     * @return an AuthorizationDecisionCache object
+     */
+    public static AuthorizationDecisionCache fromConfiguration() {
+        int maxSize = ConfigurationUtil.getInt(ENV_NAME_MAX_SIZE, SETTING_NAME_MAX_SIZE,
+                                               DEFAULT_MAX_SIZE);
+        long ttlSeconds = ConfigurationUtil.getLong(ENV_NAME_TTL_SECONDS, SETTING_NAME_TTL_SECONDS,
+                                                    DEFAULT_TTL_SECONDS);
+        logger.info("Authorization decision cache size " + maxSize + " ttl " + ttlSeconds + "s");
+        return new AuthorizationDecisionCache(maxSize, ttlSeconds * 1000L);
+    }
+
+    /**
+     * @return the generation to pass to put. It changes every time the cache is cleared
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Get the decision for a credential
+     * @param key  the credential key. It may be null
+     * @return the decision, or null if there is none
+     */
+    public AuthorizationDecision get(String key) {
+        return key == null ? null : decisions.get(key);
+    }
+
+    /**
+     * Remember the authorization parameters a request ended up with
+     * @param key  the credential key. Nothing is cached if it is null
+     * @param subject  the subject of the session, or null for public access
+     * @param proxyRequest  the request whose parameters were set by the filter. Nothing is
+     *                      cached if they came from the fallback SubjectInfo, so the next request
+     *                      asks the CN again
+     * @param ttlMS  how long the decision may be kept. It is capped by the cache's time to live
+     * @param startGeneration  the generation read before the decision was worked out
+     */
+    public void put(String key, String subject, AuthorizationRequestWrapper proxyRequest,
+                    long ttlMS, long startGeneration) {
+        if (key == null || !decisions.isEnabled() || proxyRequest.hasFallbackSubjectInfo()) {
+            return;
+        }
+        AuthorizationDecision decision = new AuthorizationDecision(
+            subject, proxyRequest.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS),
+            proxyRequest.getParameterValues(ParameterKeys.IS_CN_ADMINISTRATOR),
+            proxyRequest.getParameterValues(ParameterKeys.IS_MN_ADMINISTRATOR));
+        synchronized (this) {
+            // a clear() since the start means the decision may be based on an old snapshot
+            if (generation.get() == startGeneration) {
+                decisions.put(key, decision, Math.min(ttlMS, decisions.getDefaultTtlMS()));
+            }
+        }
+    }
+
+    /**
+     * Forget the decisions about a subject, or about the members of a group
+     * @param subject  the standardized subject or group value
+     */
+    public void invalidate(String subject) {
+        decisions.removeIf((key, decision) -> subject.equals(decision.getSubject())
+            || decision.hasAuthorizedSubject(subject));
+    }
+
+    /**
+     * Forget all decisions, e.g. because a new administrative subject snapshot was published
+     */
+    public void clear() {
+        synchronized (this) {
+            generation.incrementAndGet();
+            decisions.clear();
+        }
+    }
+
+    public int size() {
+        return decisions.size();
+    }
+
+    public long getHits() {
+        return decisions.getHits();
+    }
+
+    public long getMisses() {
+        return decisions.getMisses();
+    }
+
+    /**
+     * The authorization parameters of a request. The arrays are never modified.
+     */
+    public static final class AuthorizationDecision {
+        private final String subject;
+        private final String[] authorizedSubjects;
+        private final String[] cnAdministrator;
+        private final String[] mnAdministrator;
+
+        private AuthorizationDecision(String subject, String[] authorizedSubjects,
+                                      String[] cnAdministrator, String[] mnAdministrator) {
+            this.subject = subject;
+            this.authorizedSubjects = copy(authorizedSubjects);
+            this.cnAdministrator = copy(cnAdministrator);
+            this.mnAdministrator = copy(mnAdministrator);
+        }
+
+        private static String[] copy(String[] values) {
+            return values == null || values.length == 0 ? null : values.clone();
+        }
+
+        /**
+         * Set the parameters of the decision on a request whose client supplied values of
+         * these parameters have already been removed
+         * @param proxyRequest  the request
+         */
+        public void applyTo(AuthorizationRequestWrapper proxyRequest) {
+            if (authorizedSubjects != null) {
+                proxyRequest.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS,
+                                                authorizedSubjects.clone());
+            }
+            if (cnAdministrator != null) {
+                proxyRequest.setParameterValues(ParameterKeys.IS_CN_ADMINISTRATOR,
+                                                cnAdministrator.clone());
+            }
+            if (mnAdministrator != null) {
+                proxyRequest.setParameterValues(ParameterKeys.IS_MN_ADMINISTRATOR,
+                                                mnAdministrator.clone());
+            }
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        private boolean hasAuthorizedSubject(String value) {
+            return authorizedSubjects != null && Arrays.asList(authorizedSubjects).contains(value);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.dataone.solr.servlet;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.dataone.cn.servlet.http.ParameterKeys;
+import org.dataone.portal.PortalCertificateManager;
+
+/**
+ * A request wrapper which owns the three authorization parameters and delegates everything else
+ * to the wrapped request.
+ *
+ * Unlike the ProxyServletRequestWrapper, the parameter map of the client request is not copied.
+ * The values of ParameterKeys.AUTHORIZED_SUBJECTS, IS_CN_ADMINISTRATOR and IS_MN_ADMINISTRATOR
+ * supplied by the client are never visible through the wrapper; only the values set by the filter
+ * are. A merged parameter map is built only if somebody asks for the map or the names and the
+ * client request contains one of the three keys or the filter has set one of them.
+ *
+ * The wrapper also remembers the portal cookie of the request, so the filter looks it up once
+ * however many times it checks for a credential, and whether the authorized subjects were
+ * worked out from a fallback SubjectInfo.
+ */
+public class AuthorizationRequestWrapper extends HttpServletRequestWrapper {
+
+    private String[] authorizedSubjects;
+    private String[] cnAdministrator;
+    private String[] mnAdministrator;
+    private Map<String, String[]> mergedParameterMap;
+    private Cookie portalCookie;
+    private boolean portalCookieLookedUp = false;
+    private boolean fallbackSubjectInfo = false;
+
+    /**
+     * Constructor
+     * @param request  the client request
+     */
+    public AuthorizationRequestWrapper(HttpServletRequest request) {
+        super(request);
+    }
+
+    /**
+     * @param name  a parameter name
+     * @return true if the parameter is one of the authorization parameters owned by this wrapper
+     */
+    public static boolean isAuthorizationParameter(String name) {
+        return ParameterKeys.AUTHORIZED_SUBJECTS.equals(name)
+            || ParameterKeys.IS_CN_ADMINISTRATOR.equals(name)
+            || ParameterKeys.IS_MN_ADMINISTRATOR.equals(name);
+    }
+
+    /**
+     * Set the values of an authorization parameter
+     * @param name  one of the authorization parameters
+     * @param values  the values. Null or an empty array removes the parameter
+     * @throws IllegalArgumentException if the name is not an authorization parameter
+     */
+    public void setParameterValues(String name, String[] values) {
+        String[] stored = values == null || values.length == 0 ? null : values;
+        if (ParameterKeys.AUTHORIZED_SUBJECTS.equals(name)) {
+            authorizedSubjects = stored;
+        } else if (ParameterKeys.IS_CN_ADMINISTRATOR.equals(name)) {
+            cnAdministrator = stored;
+        } else if (ParameterKeys.IS_MN_ADMINISTRATOR.equals(name)) {
+            mnAdministrator = stored;
+        } else {
+            throw new IllegalArgumentException(name + " is not an authorization parameter");
+        }
+        mergedParameterMap = null;
+    }
+
+    /**
+     * @return true if the client request tried to supply one of the authorization parameters
+     */
+    public boolean hasClientAuthorizationParameters() {
+        HttpServletRequest request = (HttpServletRequest) getRequest();
+        return request.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS) != null
+            || request.getParameterValues(ParameterKeys.IS_CN_ADMINISTRATOR) != null
+            || request.getParameterValues(ParameterKeys.IS_MN_ADMINISTRATOR) != null;
+    }
+
+    /**
+     * @return the portal cookie of the client request, or null if there is none. It is looked
+     *         up on the first call only
+     */
+    public Cookie getPortalCookie() {
+        if (!portalCookieLookedUp) {
+            portalCookie = PortalCertificateManager.getInstance().getCookie(
+                (HttpServletRequest) getRequest());
+            portalCookieLookedUp = true;
+        }
+        return portalCookie;
+    }
+
+    /**
+     * @return true if the authorized subjects were worked out from the fallback SubjectInfo
+     *         because the CN could not be asked, so they may lack groups and identities
+     */
+    public boolean hasFallbackSubjectInfo() {
+        return fallbackSubjectInfo;
+    }
+
+    public void setFallbackSubjectInfo(boolean fallbackSubjectInfo) {
+        this.fallbackSubjectInfo = fallbackSubjectInfo;
+    }
+
+    private boolean hasOwnValues() {
+        return authorizedSubjects != null || cnAdministrator != null || mnAdministrator != null;
+    }
+
+    private String[] getOwnValues(String name) {
+        if (ParameterKeys.AUTHORIZED_SUBJECTS.equals(name)) {
+            return authorizedSubjects;
+        } else if (ParameterKeys.IS_CN_ADMINISTRATOR.equals(name)) {
+            return cnAdministrator;
+        } else {
+            return mnAdministrator;
+        }
+    }
+
+    @Override
+    public String getParameter(String name) {
+        if (isAuthorizationParameter(name)) {
+            String[] values = getOwnValues(name);
+            return values == null ? null : values[0];
+        }
+        return super.getParameter(name);
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        if (isAuthorizationParameter(name)) {
+            String[] values = getOwnValues(name);
+            return values == null ? null : values.clone();
+        }
+        return super.getParameterValues(name);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        if (!hasOwnValues() && !hasClientAuthorizationParameters()) {
+            return super.getParameterMap();
+        }
+        if (mergedParameterMap == null) {
+            Map<String, String[]> merged = new LinkedHashMap<String, String[]>(
+                super.getParameterMap());
+            merged.remove(ParameterKeys.AUTHORIZED_SUBJECTS);
+            merged.remove(ParameterKeys.IS_CN_ADMINISTRATOR);
+            merged.remove(ParameterKeys.IS_MN_ADMINISTRATOR);
+            if (authorizedSubjects != null) {
+                merged.put(ParameterKeys.AUTHORIZED_SUBJECTS, authorizedSubjects.clone());
+            }
+            if (cnAdministrator != null) {
+                merged.put(ParameterKeys.IS_CN_ADMINISTRATOR, cnAdministrator.clone());
+            }
+            if (mnAdministrator != null) {
+                merged.put(ParameterKeys.IS_MN_ADMINISTRATOR, mnAdministrator.clone());
+            }
+            mergedParameterMap = Collections.unmodifiableMap(merged);
+        }
+        return mergedParameterMap;
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        if (!hasOwnValues() && !hasClientAuthorizationParameters()) {
+            return super.getParameterNames();
+        }
+        return Collections.enumeration(getParameterMap().keySet());
+    }
+}
@@ -0,0 +1,178 @@
+package org.dataone.solr.servlet;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.dataone.service.types.v1.util.AuthUtils;
+import org.dataone.service.util.Constants;
+import org.dataone.solr.servlet.cache.ExpiringLruCache;
+
+/**
+ * Caches the authorized subject list the filters put into ParameterKeys.AUTHORIZED_SUBJECTS,
+ * so the SubjectInfo graph of a repeat caller (persons, groups and equivalent identities) is
+ * not walked and standardized again on every request.
+ *
+ * An entry is keyed by the subject and remembers the SubjectInfo object it was expanded from;
+ * it is only used while the filter sees the same SubjectInfo object, which is the case as long
+ * as the SubjectInfoCache serves it. A new SubjectInfo from the CN therefore replaces the entry
+ * on its first use. The lists are de-duplicated and sorted, so equal subject sets give equal
+ * lists.
+ */
+public class AuthorizedSubjectsCache {
+
+    private static Log logger = LogFactory.getLog(AuthorizedSubjectsCache.class);
+
+    public final static String ENV_NAME_MAX_SIZE = "D1_SOLR_AUTHORIZED_SUBJECTS_CACHE_SIZE";
+    public final static String ENV_NAME_TTL_SECONDS =
+        "D1_SOLR_AUTHORIZED_SUBJECTS_CACHE_TTL_SECONDS";
+    public final static String SETTING_NAME_MAX_SIZE = "solr.authorizedSubjectsCache.size";
+    public final static String SETTING_NAME_TTL_SECONDS =
+        "solr.authorizedSubjectsCache.ttlSeconds";
+    private final static int DEFAULT_MAX_SIZE = 10000;
+    private final static long DEFAULT_TTL_SECONDS = 300L;
+
+    private final ExpiringLruCache<String, Expansion> expansions;
+    private final StandardizedDNCache standardizedDNCache;
+    // entries found but expanded from an older SubjectInfo object
+    private final AtomicLong replaced = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param maxSize  the maximum number of subjects. 0 disables the cache
+     * @param ttlMS  how long a list is kept
+     * @param standardizedDNCache  the memo used to standardize the subjects
+     */
+    public AuthorizedSubjectsCache(int maxSize, long ttlMS,
+                                   StandardizedDNCache standardizedDNCache) {
+        this.expansions = new ExpiringLruCache<String, Expansion>(maxSize, ttlMS);
+        this.standardizedDNCache = standardizedDNCache;
+    }
+
+    /**
+     * Create a cache from the environmental variables and the settings
+     * @param standardizedDNCache  the memo used to standardize the subjects
+     * @return an AuthorizedSubjectsCache object
+     */
+    public static AuthorizedSubjectsCache fromConfiguration(
+        StandardizedDNCache standardizedDNCache) {
+        int maxSize = ConfigurationUtil.getInt(ENV_NAME_MAX_SIZE, SETTING_NAME_MAX_SIZE,
+                                               DEFAULT_MAX_SIZE);
+        long ttlSeconds = ConfigurationUtil.getLong(ENV_NAME_TTL_SECONDS, SETTING_NAME_TTL_SECONDS,
+                                                    DEFAULT_TTL_SECONDS);
+        logger.info("Authorized subjects cache size " + maxSize + " ttl " + ttlSeconds + "s");
+        return new AuthorizedSubjectsCache(maxSize, ttlSeconds * 1000L, standardizedDNCache);
+    }
+
+    /**
+     * Get the authorized subjects of a subject: the public and authenticated user pseudo
+     * subjects, and the standardized subjects found in the SubjectInfo
+     * @param authorizedSubject  the subject of the session
+     * @param subjectInfo  the SubjectInfo of the subject. If it is null, only the subject itself
+     *                     is added
+     * @return the sorted subject values. The array is a copy the caller may keep
+     */
+    public String[] getAuthorizedSubjects(Subject authorizedSubject, SubjectInfo subjectInfo) {
+        String key = authorizedSubject.getValue();
+        Expansion expansion = expansions.get(key);
+        if (expansion != null && expansion.subjectInfo != subjectInfo) {
+            replaced.incrementAndGet();
+            expansion = null;
+        }
+        if (expansion == null) {
+            expansion = new Expansion(subjectInfo, expand(authorizedSubject, subjectInfo));
+            expansions.put(key, expansion);
+        } else {
+            logger.debug("Found the authorized subjects of " + key + " in the cache");
+        }
+        return expansion.subjects.clone();
+    }
+
+    /*
+     * Walk the SubjectInfo and build the sorted list of the authorized subjects
+     */
+    private String[] expand(Subject authorizedSubject, SubjectInfo subjectInfo) {
+        Set<String> authorizedSubjects = new TreeSet<String>();
+        // add into the list the public subject and authenticated
+        // subject psuedo users since they will be indexed as subjects allowable
+        // to read
+        authorizedSubjects.add(Constants.SUBJECT_PUBLIC);
+        authorizedSubjects.add(Constants.SUBJECT_AUTHENTICATED_USER);
+        if (subjectInfo == null) {
+            // if it is not valid DN, the unstandardized name is added...
+            authorizedSubjects.add(standardizedDNCache.standardize(authorizedSubject.getValue()));
+        } else {
+            Set<Subject> subjectSet = new HashSet<Subject>();
+            AuthUtils.findPersonsSubjects(subjectSet, subjectInfo, authorizedSubject);
+            for (Subject subject : subjectSet) {
+                if (subject != null) {
+                    if (Constants.SUBJECT_VERIFIED_USER.equals(subject.getValue())) {
+                        authorizedSubjects.add(Constants.SUBJECT_VERIFIED_USER);
+                    } else {
+                        String standardizedName = standardizedDNCache.standardize(
+                                subject.getValue());
+                        logger.debug("Add " + standardizedName + " into the authorized subject "
+                                         + "list");
+                        authorizedSubjects.add(standardizedName);
+                    }
+                }
+            }
+        }
+        return authorizedSubjects.toArray(new String[0]);
+    }
+
+    /**
+     * Forget the authorized subjects of a subject
+     * @param subject  the subject
+     */
+    public void invalidate(Subject subject) {
+        expansions.remove(subject.getValue());
+    }
+
+    /**
+     * Forget the authorized subjects of every subject whose list contains the group
+     * @param group  the group subject
+     * @return the subjects which were forgotten
+     */
+    public List<String> invalidateGroup(Subject group) {
+        String standardizedGroup = standardizedDNCache.standardize(group.getValue());
+        return expansions.removeIf((subject, expansion) ->
+            Arrays.binarySearch(expansion.subjects, standardizedGroup) >= 0);
+    }
+
+    public void clear() {
+        expansions.clear();
+    }
+
+    public int size() {
+        return expansions.size();
+    }
+
+    public long getHits() {
+        return expansions.getHits() - replaced.get();
+    }
+
+    public long getMisses() {
+        return expansions.getMisses() + replaced.get();
+    }
+
+    /*
+     * The authorized subjects expanded from a SubjectInfo object
+     */
+    private static final class Expansion {
+        private final SubjectInfo subjectInfo;
+        private final String[] subjects;
+
+        private Expansion(SubjectInfo subjectInfo, String[] subjects) {
+            this.subjectInfo = subjectInfo;
+            this.subjects = subjects;
+        }
+    }
+}
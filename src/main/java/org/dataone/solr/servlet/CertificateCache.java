@@ -0,0 +1,142 @@
+package org.dataone.solr.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.solr.servlet.cache.DigestUtil;
+import org.dataone.solr.servlet.cache.ExpiringLruCache;
+
+/**
+ * Caches the client certificates parsed from the SSL_CLIENT_CERT header which apache forwards,
+ * keyed by the SHA-256 digest of the raw header value. The CN and MN clients present the same
+ * few certificates over and over, so the PEM rebuild and the ASN.1 parse happen once per
+ * certificate rather than once per request.
+ *
+ * An entry never outlives the notAfter date of its certificate.
+ */
+public class CertificateCache {
+
+    private static Log logger = LogFactory.getLog(CertificateCache.class);
+
+    public final static String ENV_NAME_MAX_SIZE = "D1_SOLR_CERTIFICATE_CACHE_SIZE";
+    public final static String ENV_NAME_TTL_SECONDS = "D1_SOLR_CERTIFICATE_CACHE_TTL_SECONDS";
+    public final static String SETTING_NAME_MAX_SIZE = "solr.certificateCache.size";
+    public final static String SETTING_NAME_TTL_SECONDS = "solr.certificateCache.ttlSeconds";
+    private final static int DEFAULT_MAX_SIZE = 1000;
+    private final static long DEFAULT_TTL_SECONDS = 3600L;
+    // The length of "-----BEGIN CERTIFICATE----- " and "-----END CERTIFICATE-----"
+    private final static int PEM_HEADER_LENGTH = 28;
+    private final static int PEM_FOOTER_LENGTH = 26;
+
+    // CertificateFactory is not documented to be thread safe, so each thread keeps its own
+    private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY =
+        ThreadLocal.withInitial(() -> {
+            try {
+                /* if we want to use BC or another provider, then we should determine a way
+                 to indicate that we do not wish to use the default provider
+                 */
+                return CertificateFactory.getInstance("X.509");
+            } catch (CertificateException e) {
+                throw new IllegalStateException("X.509 is not supported", e);
+            }
+        });
+
+    private final ExpiringLruCache<String, X509Certificate[]> certificates;
+    private final AtomicLong parses = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param maxSize  the maximum number of certificates. 0 disables the cache
+     * @param ttlMS  how long a certificate is kept at most
+     */
+    public CertificateCache(int maxSize, long ttlMS) {
+        certificates = new ExpiringLruCache<String, X509Certificate[]>(maxSize, ttlMS);
+    }
+
+    /**
+     * Create a cache from the environmental variables and the settings
+     * @return a CertificateCache object
+     */
+    public static CertificateCache fromConfiguration() {
+        int maxSize = ConfigurationUtil.getInt(ENV_NAME_MAX_SIZE, SETTING_NAME_MAX_SIZE,
+                                               DEFAULT_MAX_SIZE);
+        long ttlSeconds = ConfigurationUtil.getLong(ENV_NAME_TTL_SECONDS, SETTING_NAME_TTL_SECONDS,
+                                                    DEFAULT_TTL_SECONDS);
+        logger.info("Certificate cache size " + maxSize + " ttl " + ttlSeconds + "s");
+        return new CertificateCache(maxSize, ttlSeconds * 1000L);
+    }
+
+    /**
+     * Get the certificate chain encoded in the SSL_CLIENT_CERT header
+     * @param x509ClientRequest  the raw header value, a PEM certificate whose line breaks
+     *                           mod_header turned into spaces
+     * @return the certificate chain. The array is a copy the caller may keep
+     * @throws CertificateException
+     */
+    public X509Certificate[] getCertificates(String x509ClientRequest)
+        throws CertificateException {
+        String key = certificates.isEnabled() ? DigestUtil.sha256Hex(x509ClientRequest) : null;
+        X509Certificate[] jsseCerts = certificates.get(key);
+        if (jsseCerts == null) {
+            jsseCerts = parse(x509ClientRequest);
+            parses.incrementAndGet();
+            long untilNotAfterMS = jsseCerts[0].getNotAfter().getTime()
+                - System.currentTimeMillis();
+            // an expired certificate is not cached and put ignores a ttl of 0 or less
+            certificates.put(key, jsseCerts,
+                             Math.min(certificates.getDefaultTtlMS(), untilNotAfterMS));
+        }
+        return jsseCerts.clone();
+    }
+
+    /**
+     * Rebuild the PEM certificate from the header value and parse it.
+     * The code was unabashedly ripped and modified from org.apache.catalina.valves.SSLValve
+     * @param x509ClientRequest  the raw header value
+     * @return the certificate chain
+     * @throws CertificateException
+     */
+    protected X509Certificate[] parse(String x509ClientRequest) throws CertificateException {
+        /* mod_header converts the '\n' into ' ' so we have to rebuild the client certificate */
+        String body = x509ClientRequest.replace(' ', '\n');
+        StringBuilder rebuildX509ClientRequest = new StringBuilder(body.length() + 64);
+        rebuildX509ClientRequest.append("-----BEGIN CERTIFICATE-----\n");
+        rebuildX509ClientRequest.append(body.substring(PEM_HEADER_LENGTH,
+                                                       body.length() - PEM_FOOTER_LENGTH));
+        rebuildX509ClientRequest.append("\n-----END CERTIFICATE-----\n");
+        ByteArrayInputStream bais = new ByteArrayInputStream(
+            rebuildX509ClientRequest.toString().getBytes(Charset.defaultCharset()));
+        X509Certificate cert =
+            (X509Certificate) CERTIFICATE_FACTORY.get().generateCertificate(bais);
+        return new X509Certificate[] { cert };
+    }
+
+    public void clear() {
+        certificates.clear();
+    }
+
+    public int size() {
+        return certificates.size();
+    }
+
+    public long getHits() {
+        return certificates.getHits();
+    }
+
+    public long getMisses() {
+        return certificates.getMisses();
+    }
+
+    /**
+     * @return the number of certificates parsed since the cache was created
+     */
+    public long getParses() {
+        return parses.get();
+    }
+}
@@ -0,0 +1,251 @@
+package org.dataone.solr.servlet;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.exceptions.ServiceFailure;
+
+/**
+ * A circuit breaker around the calls the filters make to the CN: the nodelist request and the
+ * getSubjectInfo lookups.
+ *
+ * After a number of consecutive failures the breaker opens and the calls fail fast, without
+ * touching the network, so a degraded CN cannot tie up the Jetty threads. A call slower than the
+ * latency budget counts as a failure even if it eventually succeeds. Once the open period is
+ * over a single probe call is let through (half open); its success closes the breaker and its
+ * failure opens it again.
+ *
+ * While the CN cannot be asked, the callers fall back either to the subjects in the certificate
+ * or to the last SubjectInfo the CN returned for the subject, depending on the fallback setting.
+ */
+public class CnCircuitBreaker {
+
+    private static Log logger = LogFactory.getLog(CnCircuitBreaker.class);
+
+    public final static String ENV_NAME_FAILURE_THRESHOLD = "D1_SOLR_CN_BREAKER_FAILURE_THRESHOLD";
+    public final static String ENV_NAME_OPEN_SECONDS = "D1_SOLR_CN_BREAKER_OPEN_SECONDS";
+    public final static String ENV_NAME_CALL_BUDGET_MS = "D1_SOLR_CN_CALL_BUDGET_MS";
+    public final static String ENV_NAME_FALLBACK = "D1_SOLR_CN_FALLBACK";
+    public final static String SETTING_NAME_FAILURE_THRESHOLD =
+        "solr.cnCircuitBreaker.failureThreshold";
+    public final static String SETTING_NAME_OPEN_SECONDS = "solr.cnCircuitBreaker.openSeconds";
+    public final static String SETTING_NAME_CALL_BUDGET_MS = "solr.cnCircuitBreaker.callBudgetMS";
+    public final static String SETTING_NAME_FALLBACK = "solr.cnCircuitBreaker.fallback";
+    private final static int DEFAULT_FAILURE_THRESHOLD = 5;
+    private final static long DEFAULT_OPEN_SECONDS = 30L;
+    private final static long DEFAULT_CALL_BUDGET_MS = 5000L;
+
+    /**
+     * The states of the breaker
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * What the filters use instead of a SubjectInfo from the CN while the CN cannot be asked
+     */
+    public enum Fallback {
+        /** only the subjects in the certificate or token */
+        CERTIFICATE,
+        /** the last SubjectInfo the CN returned for the subject, else the certificate */
+        CACHED
+    }
+
+    private final int failureThreshold;
+    private final long openMS;
+    private final long callBudgetMS;
+    private final Fallback fallback;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openUntil = 0;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong slowCalls = new AtomicLong();
+    private final AtomicLong rejectedCalls = new AtomicLong();
+    private final AtomicLong openings = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param failureThreshold  the number of consecutive failures which opens the breaker. 0 or
+     *                          less disables the breaker
+     * @param openMS  how long the breaker stays open before a probe call is let through
+     * @param callBudgetMS  the latency budget of a CN call. 0 or less means no budget
+     * @param fallback  what to use instead of the CN answer while the breaker is open
+     */
+    public CnCircuitBreaker(int failureThreshold, long openMS, long callBudgetMS,
+                            Fallback fallback) {
+        this.failureThreshold = failureThreshold;
+        this.openMS = openMS;
+        this.callBudgetMS = callBudgetMS;
+        this.fallback = fallback == null ? Fallback.CERTIFICATE : fallback;
+    }
+
+    /**
+     * @return a breaker which never opens and has no latency budget
+     */
+    public static CnCircuitBreaker disabled() {
+        return new CnCircuitBreaker(0, 0, 0, Fallback.CERTIFICATE);
+    }
+
+    /**
+     * Create a breaker from the environmental variables and the settings
+     * @return a CnCircuitBreaker object
+     */
+    public static CnCircuitBreaker fromConfiguration() {
+        int failureThreshold = ConfigurationUtil.getInt(ENV_NAME_FAILURE_THRESHOLD,
+                                                        SETTING_NAME_FAILURE_THRESHOLD,
+                                                        DEFAULT_FAILURE_THRESHOLD);
+        long openSeconds = ConfigurationUtil.getLong(ENV_NAME_OPEN_SECONDS,
+                                                     SETTING_NAME_OPEN_SECONDS,
+                                                     DEFAULT_OPEN_SECONDS);
+        long callBudgetMS = ConfigurationUtil.getLong(ENV_NAME_CALL_BUDGET_MS,
+                                                      SETTING_NAME_CALL_BUDGET_MS,
+                                                      DEFAULT_CALL_BUDGET_MS);
+        String fallbackName = ConfigurationUtil.getString(ENV_NAME_FALLBACK, SETTING_NAME_FALLBACK,
+                                                          Fallback.CERTIFICATE.name());
+        Fallback fallback = Fallback.CERTIFICATE;
+        try {
+            fallback = Fallback.valueOf(fallbackName.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("The CN fallback " + fallbackName + " is unknown. Use "
+                            + Fallback.CERTIFICATE.name().toLowerCase() + " instead.");
+        }
+        logger.info("CN circuit breaker failure threshold " + failureThreshold + " open "
+                        + openSeconds + "s; call budget " + callBudgetMS + "ms; fallback "
+                        + fallback.name().toLowerCase());
+        return new CnCircuitBreaker(failureThreshold, openSeconds * 1000L, callBudgetMS,
+                                    fallback);
+    }
+
+    /**
+     * Ask whether a CN call may be made now. A caller which gets true must report the outcome
+     * with recordSuccess or recordFailure.
+     * @return false if the breaker is open, or half open with the probe call still running
+     */
+    public synchronized boolean allowCall() {
+        if (failureThreshold <= 0 || state == State.CLOSED) {
+            calls.incrementAndGet();
+            return true;
+        }
+        // a probe which has not reported back within the open period is given up on
+        if (now() >= openUntil) {
+            logger.info("The CN circuit breaker is half open. Let a probe call through.");
+            state = State.HALF_OPEN;
+            openUntil = now() + openMS;
+            calls.incrementAndGet();
+            return true;
+        }
+        rejectedCalls.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Report a call which got an answer from the CN
+     * @param elapsedMS  how long the call took
+     */
+    public void recordSuccess(long elapsedMS) {
+        if (callBudgetMS > 0 && elapsedMS > callBudgetMS) {
+            slowCalls.incrementAndGet();
+            logger.warn("The CN call took " + elapsedMS + " ms, over the budget of "
+                            + callBudgetMS + " ms");
+            recordFailure();
+            return;
+        }
+        synchronized (this) {
+            if (state != State.CLOSED) {
+                logger.info("The CN answered the probe call. Close the circuit breaker.");
+            }
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * Report a call which failed or timed out
+     */
+    public void recordFailure() {
+        failures.incrementAndGet();
+        if (failureThreshold <= 0) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN
+                    || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                logger.warn("Open the CN circuit breaker for " + openMS + " ms after "
+                                + consecutiveFailures + " consecutive failures");
+                state = State.OPEN;
+                openUntil = now() + openMS;
+                openings.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param call  a description of the call which was not made
+     * @return the exception a caller throws when allowCall refused the call
+     */
+    public ServiceFailure newOpenFailure(String call) {
+        return new ServiceFailure("0000", "The CN circuit breaker is open. So " + call
+            + " was not attempted.");
+    }
+
+    /**
+     * @return the current state. An open breaker whose open period is over reports HALF_OPEN
+     *         only once a probe call was let through
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    public Fallback getFallback() {
+        return fallback;
+    }
+
+    /**
+     * @return the latency budget of a CN call in milliseconds. 0 or less means no budget
+     */
+    public long getCallBudgetMS() {
+        return callBudgetMS;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getSlowCalls() {
+        return slowCalls.get();
+    }
+
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+
+    public long getOpenings() {
+        return openings.get();
+    }
+
+    /**
+     * @return the current time in milliseconds. Tests may override it
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "CnCircuitBreaker state=" + getState() + " calls=" + getCalls() + " failures="
+            + getFailures() + " slow=" + getSlowCalls() + " rejected=" + getRejectedCalls()
+            + " openings=" + getOpenings();
+    }
+}
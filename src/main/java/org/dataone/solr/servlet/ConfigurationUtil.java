@@ -0,0 +1,99 @@
+package org.dataone.solr.servlet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.configuration.Settings;
+
+/**
+ * Read the tuning values of the filters. An environmental variable, when it is set, wins over
+ * the value in the DataONE settings, which in turn wins over the default value. This is the same
+ * precedence readEnvVariables uses for the cn url and the admin token.
+ */
+public class ConfigurationUtil {
+
+    private static Log logger = LogFactory.getLog(ConfigurationUtil.class);
+
+    private ConfigurationUtil() {
+    }
+
+    /**
+     * Get a long value
+     * @param envName  the name of the environmental variable
+     * @param settingName  the name of the setting
+     * @param defaultValue  the value used when neither is set or the value is not a number
+     * @return the configured value
+     */
+    public static long getLong(String envName, String settingName, long defaultValue) {
+        String envValue = envName == null ? null : System.getenv(envName);
+        if (envValue != null && !envValue.isBlank()) {
+            try {
+                return Long.parseLong(envValue.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("The env variable " + envName + " has a non-numeric value " + envValue
+                                + ". So it is ignored.");
+            }
+        }
+        try {
+            return Settings.getConfiguration().getLong(settingName, defaultValue);
+        } catch (RuntimeException e) {
+            logger.warn("The setting " + settingName + " is not a number. So the default value "
+                            + defaultValue + " is used.");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get an int value
+     * @param envName  the name of the environmental variable
+     * @param settingName  the name of the setting
+     * @param defaultValue  the value used when neither is set or the value is not a number
+     * @return the configured value
+     */
+    public static int getInt(String envName, String settingName, int defaultValue) {
+        long value = getLong(envName, settingName, defaultValue);
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Get a boolean value
+     * @param envName  the name of the environmental variable
+     * @param settingName  the name of the setting
+     * @param defaultValue  the value used when neither is set
+     * @return the configured value
+     */
+    public static boolean getBoolean(String envName, String settingName, boolean defaultValue) {
+        String envValue = envName == null ? null : System.getenv(envName);
+        if (envValue != null && !envValue.isBlank()) {
+            return Boolean.parseBoolean(envValue.trim());
+        }
+        try {
+            return Settings.getConfiguration().getBoolean(settingName, defaultValue);
+        } catch (RuntimeException e) {
+            logger.warn("The setting " + settingName + " is not a boolean. So the default value "
+                            + defaultValue + " is used.");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a string value
+     * @param envName  the name of the environmental variable
+     * @param settingName  the name of the setting
+     * @param defaultValue  the value used when neither is set
+     * @return the configured value
+     */
+    public static String getString(String envName, String settingName, String defaultValue) {
+        String envValue = envName == null ? null : System.getenv(envName);
+        if (envValue != null && !envValue.isBlank()) {
+            return envValue.trim();
+        }
+        String value = Settings.getConfiguration().getString(settingName);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return value;
+    }
+}
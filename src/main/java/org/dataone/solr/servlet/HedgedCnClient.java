@@ -0,0 +1,424 @@
+package org.dataone.solr.servlet;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.client.auth.CertificateManager;
+import org.dataone.exceptions.MarshallingException;
+import org.dataone.service.exceptions.BaseException;
+import org.dataone.service.exceptions.InvalidToken;
+import org.dataone.service.exceptions.NotAuthorized;
+import org.dataone.service.exceptions.NotFound;
+import org.dataone.service.exceptions.ServiceFailure;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.dataone.service.util.EncodingUtilities;
+import org.dataone.service.util.ExceptionHandler;
+import org.dataone.service.util.TypeMarshaller;
+import org.xml.sax.SAXException;
+
+/**
+ * Sends the GET requests of the filters to a list of CN replicas, the first one being the
+ * primary.
+ *
+ * A request goes to the primary first. If it has not answered after the hedge delay, the same
+ * request is sent to the next CN as well and the first answer wins. A CN which fails (an I/O
+ * error or a 5xx status) is replaced by the next one straight away. The hedge delay follows the
+ * 95th percentile of the recent response times, so only the slowest requests are duplicated.
+ *
+ * The answer of a CN, including a 4xx status, is not retried elsewhere: the replicas are
+ * expected to hold the same data.
+ *
+ * Like the D1Client, the client presents the certificate of the node, as loaded by the
+ * CertificateManager, and turns the DataONE error of a CN into the matching exception.
+ */
+public class HedgedCnClient {
+
+    private static Log logger = LogFactory.getLog(HedgedCnClient.class);
+
+    public final static String ENV_NAME_HEDGE_DELAY_MS = "D1_SOLR_CN_HEDGE_DELAY_MS";
+    public final static String SETTING_NAME_HEDGE_DELAY_MS = "solr.cnClient.hedgeDelayMS";
+    private final static long DEFAULT_HEDGE_DELAY_MS = 500L;
+    // the hedge delay is the configured one until this many response times were seen
+    private final static int MIN_SAMPLES = 20;
+    private final static int LATENCY_WINDOW = 200;
+    private final static long MIN_HEDGE_DELAY_MS = 5L;
+    private final static Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    private final List<String> baseUrls;
+    private final HttpClient httpClient;
+    private final long initialHedgeDelayMS;
+    private final long timeoutMS;
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong alternateAnswers = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param baseUrls  the base urls of the CNs, e.g. https://cn.dataone.org/cn, the primary
+     *                  first
+     * @param httpClient  the client sending the requests
+     * @param initialHedgeDelayMS  the hedge delay until enough response times were seen. 0 or
+     *                             less disables hedging; a failed CN is still replaced
+     * @param timeoutMS  how long a request may take in total. 0 or less means no limit
+     */
+    public HedgedCnClient(List<String> baseUrls, HttpClient httpClient, long initialHedgeDelayMS,
+                          long timeoutMS) {
+        if (baseUrls.isEmpty()) {
+            throw new IllegalArgumentException("At least one CN url is needed");
+        }
+        List<String> urls = new ArrayList<String>();
+        for (String baseUrl : baseUrls) {
+            urls.add(baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1)
+                         : baseUrl);
+        }
+        this.baseUrls = Collections.unmodifiableList(urls);
+        this.httpClient = httpClient;
+        this.initialHedgeDelayMS = initialHedgeDelayMS;
+        this.timeoutMS = timeoutMS;
+    }
+
+    /**
+     * Create a client from the environmental variables and the settings
+     * @param baseUrls  the base urls of the CNs, the primary first
+     * @param timeoutMS  how long a request may take in total. 0 or less means no limit
+     * @return a HedgedCnClient object
+     */
+    public static HedgedCnClient fromConfiguration(List<String> baseUrls, long timeoutMS) {
+        long hedgeDelayMS = ConfigurationUtil.getLong(ENV_NAME_HEDGE_DELAY_MS,
+                                                      SETTING_NAME_HEDGE_DELAY_MS,
+                                                      DEFAULT_HEDGE_DELAY_MS);
+        logger.info("CN client for " + baseUrls + " with the initial hedge delay "
+                        + hedgeDelayMS + "ms and the timeout " + timeoutMS + "ms");
+        return new HedgedCnClient(baseUrls, newHttpClient(), hedgeDelayMS, timeoutMS);
+    }
+
+    /*
+     * A client presenting the certificate of the node, or no certificate if there is none
+     */
+    private static HttpClient newHttpClient() {
+        HttpClient.Builder builder = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT);
+        try {
+            CertificateManager certificateManager = CertificateManager.getInstance();
+            X509Certificate certificate = certificateManager.loadCertificate();
+            PrivateKey key = certificateManager.loadKey();
+            if (certificate != null && key != null) {
+                char[] password = new char[0];
+                KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+                keyStore.load(null, password);
+                keyStore.setKeyEntry("node", key, password, new Certificate[] {certificate});
+                KeyManagerFactory keyManagers =
+                    KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                keyManagers.init(keyStore, password);
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(keyManagers.getKeyManagers(), null, null);
+                builder.sslContext(sslContext);
+                logger.info("The CN client presents the certificate of "
+                                + certificate.getSubjectX500Principal().getName());
+            } else {
+                logger.warn("The node certificate cannot be loaded. So the CN requests are "
+                                + "sent without a client certificate.");
+            }
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            logger.warn("The node certificate cannot be used since " + e.getMessage()
+                            + " So the CN requests are sent without a client certificate.");
+        }
+        return builder.build();
+    }
+
+    /**
+     * Send a GET request to the CNs
+     * @param path  the path after the base url, e.g. /v2/node
+     * @param headers  the request headers. It may be empty
+     * @return the first response with a status code below 500
+     * @throws ServiceFailure  if no CN answered or the time ran out
+     */
+    public HttpResponse<InputStream> send(String path, Map<String, String> headers)
+        throws ServiceFailure {
+        requests.incrementAndGet();
+        HedgedRequest request = new HedgedRequest(path, headers);
+        request.launchNext();
+        long hedgeDelayMS = getHedgeDelayMS();
+        if (hedgeDelayMS > 0 && baseUrls.size() > 1) {
+            request.scheduleHedge(hedgeDelayMS);
+        }
+        try {
+            if (timeoutMS > 0) {
+                return request.winner.get(timeoutMS, TimeUnit.MILLISECONDS);
+            } else {
+                return request.winner.get();
+            }
+        } catch (TimeoutException e) {
+            request.winner.cancel(false);
+            throw new ServiceFailure("0000", "No CN answered " + path + " within " + timeoutMS
+                + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.winner.cancel(false);
+            throw new ServiceFailure("0000", "Interrupted while waiting for " + path);
+        } catch (ExecutionException e) {
+            throw new ServiceFailure("0000", "No CN answered " + path + " since "
+                + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Get the SubjectInfo of a subject from the CNs. A 5xx status is not an answer but a failed
+     * CN (see send), so the DataONE errors thrown here are the 4xx ones.
+     * @param subject  the subject to look up
+     * @return the SubjectInfo object
+     * @throws NotFound  if the CN does not know the subject
+     * @throws NotAuthorized  if the CN refuses to return the subject info
+     * @throws InvalidToken  if the CN does not accept the credentials
+     * @throws ServiceFailure  if no CN answered or the answer cannot be read
+     */
+    public SubjectInfo getSubjectInfo(Subject subject)
+        throws ServiceFailure, NotAuthorized, InvalidToken, NotFound {
+        String path = "/v2/accounts/" + EncodingUtilities.encodeUrlPathSegment(subject.getValue());
+        HttpResponse<InputStream> response = send(path, Collections.<String, String>emptyMap());
+        try (InputStream body = response.body()) {
+            int status = response.statusCode();
+            if (status == 200) {
+                return TypeMarshaller.unmarshalTypeFromStream(SubjectInfo.class, body);
+            }
+            BaseException error = readError(body, status, "Cannot get the subject info of "
+                + subject.getValue() + " since the status code is " + status);
+            if (error instanceof NotFound) {
+                throw (NotFound) error;
+            } else if (error instanceof NotAuthorized) {
+                throw (NotAuthorized) error;
+            } else if (error instanceof InvalidToken) {
+                throw (InvalidToken) error;
+            } else if (error instanceof ServiceFailure) {
+                throw (ServiceFailure) error;
+            }
+            throw new ServiceFailure("0000", "Cannot get the subject info of "
+                + subject.getValue() + " since " + error.getClass().getSimpleName() + ": "
+                + error.getDescription());
+        } catch (IOException | InstantiationException | IllegalAccessException
+                 | MarshallingException e) {
+            throw new ServiceFailure("0000", "Cannot read the subject info of "
+                + subject.getValue() + " since " + e.getMessage());
+        }
+    }
+
+    /*
+     * The DataONE error in the body of a 4xx CN response, or, if the body is not one, the error
+     * the status code stands for. The deserializer makes a ServiceFailure of a body it cannot
+     * read, and a 4xx answer is never a ServiceFailure, so that one is not taken either
+     */
+    private static BaseException readError(InputStream body, int status, String message) {
+        try {
+            BufferedInputStream in = new BufferedInputStream(body);
+            // the parser reports a body which is not xml on stderr, so look before parsing
+            in.mark(1);
+            boolean xml = in.read() == '<';
+            in.reset();
+            BaseException error = xml ? ExceptionHandler.deserializeXml(in, message) : null;
+            if (error != null && !(error instanceof ServiceFailure)) {
+                return error;
+            }
+        } catch (ParserConfigurationException | SAXException | IOException
+                 | RuntimeException e) {
+            logger.debug("The CN error is not a DataONE exception since " + e.getMessage());
+        }
+        if (status == 404) {
+            return new NotFound("0000", message);
+        } else if (status == 401) {
+            return new NotAuthorized("0000", message);
+        }
+        return new ServiceFailure("0000", message);
+    }
+
+    /**
+     * @return how long a request waits for a CN before it is sent to the next one as well: the
+     *         95th percentile of the recent response times, or the configured delay until enough
+     *         of them were seen. 0 or less means no hedging
+     */
+    public long getHedgeDelayMS() {
+        if (initialHedgeDelayMS <= 0) {
+            return initialHedgeDelayMS;
+        }
+        long[] samples;
+        synchronized (latencies) {
+            if (latencyCount < MIN_SAMPLES) {
+                return initialHedgeDelayMS;
+            }
+            samples = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        Arrays.sort(samples);
+        long p95 = samples[(int) Math.ceil(samples.length * 0.95) - 1];
+        return Math.max(MIN_HEDGE_DELAY_MS, p95);
+    }
+
+    /**
+     * Remember the response time of a successful request
+     * @param latencyMS  the response time in milliseconds
+     */
+    protected void recordLatency(long latencyMS) {
+        synchronized (latencies) {
+            latencies[latencyCount % LATENCY_WINDOW] = latencyMS;
+            latencyCount++;
+        }
+    }
+
+    public List<String> getBaseUrls() {
+        return baseUrls;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests sent to a second CN because the first one was slow
+     */
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
+    /**
+     * @return the number of requests answered by a CN other than the primary
+     */
+    public long getAlternateAnswers() {
+        return alternateAnswers.get();
+    }
+
+    /**
+     * @return the number of requests sent to the next CN because one failed
+     */
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    @Override
+    public String toString() {
+        return "HedgedCnClient urls=" + baseUrls + " requests=" + getRequests() + " hedged="
+            + getHedgedRequests() + " alternateAnswers=" + getAlternateAnswers() + " failovers="
+            + getFailovers() + " hedgeDelay=" + getHedgeDelayMS() + "ms";
+    }
+
+    /*
+     * The attempts of one request. The first attempt with a status below 500 completes the
+     * winner; the response bodies of the others are closed.
+     */
+    private final class HedgedRequest {
+        private final String path;
+        private final Map<String, String> headers;
+        private final CompletableFuture<HttpResponse<InputStream>> winner =
+            new CompletableFuture<HttpResponse<InputStream>>();
+        private int launched = 0;
+        private int failed = 0;
+
+        private HedgedRequest(String path, Map<String, String> headers) {
+            this.path = path;
+            this.headers = headers;
+        }
+
+        private void scheduleHedge(long delayMS) {
+            CompletableFuture.delayedExecutor(delayMS, TimeUnit.MILLISECONDS).execute(() -> {
+                if (!winner.isDone() && launchNext()) {
+                    hedgedRequests.incrementAndGet();
+                    logger.debug("No answer to " + path + " after " + delayMS
+                                     + " ms. Hedge it.");
+                }
+            });
+        }
+
+        /*
+         * Send the request to the next CN, if there is one left
+         */
+        private boolean launchNext() {
+            int index;
+            synchronized (this) {
+                if (launched >= baseUrls.size()) {
+                    return false;
+                }
+                index = launched++;
+            }
+            String url = baseUrls.get(index) + path;
+            HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(url)).GET();
+            if (timeoutMS > 0) {
+                builder.timeout(Duration.ofMillis(timeoutMS));
+            }
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                builder.header(header.getKey(), header.getValue());
+            }
+            long start = System.currentTimeMillis();
+            httpClient.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream())
+                .whenComplete((response, error) -> {
+                    if (error == null && response.statusCode() < 500) {
+                        if (winner.complete(response)) {
+                            recordLatency(System.currentTimeMillis() - start);
+                            if (index > 0) {
+                                alternateAnswers.incrementAndGet();
+                            }
+                        } else {
+                            close(response);
+                        }
+                        return;
+                    }
+                    logger.warn("The CN " + baseUrls.get(index) + " failed to answer " + path
+                                    + " since " + (error != null ? error.getMessage()
+                                        : "the status code is " + response.statusCode()));
+                    if (response != null) {
+                        close(response);
+                    }
+                    onFailure(error != null ? error : new IOException(
+                        "the status code of " + url + " is " + response.statusCode()));
+                });
+            return true;
+        }
+
+        private void onFailure(Throwable error) {
+            boolean allFailed;
+            synchronized (this) {
+                failed++;
+                allFailed = failed >= baseUrls.size();
+            }
+            if (allFailed) {
+                winner.completeExceptionally(error);
+            } else if (!winner.isDone() && launchNext()) {
+                failovers.incrementAndGet();
+            }
+        }
+
+        private void close(HttpResponse<InputStream> response) {
+            try {
+                response.body().close();
+            } catch (IOException e) {
+                logger.debug("Cannot close the response body since " + e.getMessage());
+            }
+        }
+    }
+}
@@ -7,7 +7,6 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletResponse;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.dataone.cn.servlet.http.ProxyServletRequestWrapper;
 import org.dataone.service.exceptions.InvalidToken;
 import org.dataone.service.exceptions.NotAuthorized;
 import org.dataone.service.exceptions.NotImplemented;
@@ -20,7 +19,7 @@ public class LogServiceSessionAuthorizationFilter extends SessionAuthorizationFi
 
     protected static Log logger = LogFactory.getLog(LogServiceSessionAuthorizationFilter.class);
     @Override
-    protected void addAuthenticatedSubjectsToRequest(ProxyServletRequestWrapper proxyRequest,
+    protected void addAuthenticatedSubjectsToRequest(AuthorizationRequestWrapper proxyRequest,
             Session session, Subject authorizedSubject)
         throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
         logger.debug("solr search filter handling authorized cert with subject " + authorizedSubject.getValue());
@@ -29,7 +28,7 @@ public class LogServiceSessionAuthorizationFilter extends SessionAuthorizationFi
     }
 
     @Override
-    protected void handleNoCertificateManagerSession(ProxyServletRequestWrapper proxyRequest,
+    protected void handleNoCertificateManagerSession(AuthorizationRequestWrapper proxyRequest,
             ServletResponse response, FilterChain fc) throws ServletException, IOException,
             NotAuthorized {
         // public is not allowed to see any
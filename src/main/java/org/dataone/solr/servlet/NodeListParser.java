@@ -0,0 +1,107 @@
+package org.dataone.solr.servlet;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.NodeState;
+import org.dataone.service.types.v1.NodeType;
+import org.dataone.service.types.v1.Subject;
+
+/**
+ * Streams through a CN nodelist document and keeps only what the filters need: the identifier,
+ * type, state and subjects of every node which is up.
+ *
+ * Only the subject elements directly under a node element are read; the subjects nested in the
+ * service restrictions are skipped, as they were by the DOM based parser.
+ */
+public class NodeListParser {
+
+    private static Log logger = LogFactory.getLog(NodeListParser.class);
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
+    // nodeList is at depth 1, node at depth 2 and the node properties at depth 3
+    private static final int NODE_DEPTH = 2;
+    private static final int NODE_PROPERTY_DEPTH = 3;
+
+    private NodeListParser() {
+    }
+
+    /**
+     * Parse a nodelist document
+     * @param nodeList  the nodelist document. It is not closed by this method
+     * @param cnSubjects  the list to which the subjects of the CNs which are up are added
+     * @param mnNodeIdToSubjects  the map to which the subjects of the MNs which are up are put,
+     *                            keyed by the node identifier
+     * @throws XMLStreamException
+     */
+    public static void parse(InputStream nodeList, List<Subject> cnSubjects,
+                             Map<String, List<Subject>> mnNodeIdToSubjects)
+        throws XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(nodeList);
+        try {
+            int depth = 0;
+            String identifier = null;
+            String type = null;
+            boolean isUp = false;
+            List<Subject> subjectList = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if (depth == NODE_DEPTH && "node".equals(name)) {
+                        type = reader.getAttributeValue(null, "type");
+                        String state = reader.getAttributeValue(null, "state");
+                        isUp = state != null && state.equals(NodeState.UP.xmlValue());
+                        identifier = "";
+                        subjectList = new ArrayList<Subject>();
+                    } else if (depth == NODE_PROPERTY_DEPTH && subjectList != null && isUp
+                            && ("identifier".equals(name) || "subject".equals(name))) {
+                        // getElementText moves the reader to the end of the element
+                        String text = reader.getElementText();
+                        depth--;
+                        if ("identifier".equals(name)) {
+                            identifier = text;
+                        } else {
+                            Subject subject = new Subject();
+                            subject.setValue(text);
+                            subjectList.add(subject);
+                            logger.debug("Find the subject " + text + " for node " + identifier);
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == NODE_DEPTH && subjectList != null) {
+                        if (isUp && !subjectList.isEmpty() && type != null) {
+                            if (type.equals(NodeType.CN.xmlValue())) {
+                                logger.debug("Put all found subjects for CN " + identifier
+                                                 + " into the cn admin subject list.");
+                                cnSubjects.addAll(subjectList);
+                            } else if (type.equals(NodeType.MN.xmlValue())) {
+                                logger.debug("Put all found subjects for MN " + identifier
+                                                 + " into the mn admin subject list.");
+                                mnNodeIdToSubjects.put(identifier, subjectList);
+                            }
+                        }
+                        subjectList = null;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
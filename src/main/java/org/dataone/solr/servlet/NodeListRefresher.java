@@ -0,0 +1,188 @@
+package org.dataone.solr.servlet;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.exceptions.BaseException;
+
+/**
+ * Refreshes the administrative subjects from the CN nodelist on a background thread, so no
+ * request ever waits for the nodelist to be fetched and parsed.
+ *
+ * There is one refresher per JVM, shared by the search and the log filters. Refreshes are
+ * spread by a random jitter around the configured interval; a failed refresh is retried with an
+ * exponential backoff, and until it succeeds the filters keep using the last good snapshot.
+ */
+public class NodeListRefresher {
+
+    private static Log logger = LogFactory.getLog(NodeListRefresher.class);
+
+    public final static String ENV_NAME_REFRESH_INTERVAL_SECONDS =
+        "D1_SOLR_NODELIST_REFRESH_SECONDS";
+    public final static String SETTING_NAME_REFRESH_INTERVAL_SECONDS =
+        "solr.nodelist.refreshSeconds";
+    private final static long DEFAULT_REFRESH_INTERVAL_SECONDS = 120L * 60L; // 2 hours
+    private final static long FIRST_RETRY_MS = 30L * 1000L;
+    private final static double JITTER = 0.1;
+
+    private static final NodeListRefresher INSTANCE = new NodeListRefresher();
+
+    private ScheduledExecutorService scheduler = null;
+    private int users = 0;
+    private long refreshIntervalMS = DEFAULT_REFRESH_INTERVAL_SECONDS * 1000L;
+    private volatile int consecutiveFailures = 0;
+    private volatile long lastSuccessMS = 0L;
+
+    private NodeListRefresher() {
+    }
+
+    /**
+     * @return the refresher shared by all filters in this JVM
+     */
+    public static NodeListRefresher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register a filter as a user of the refresher. The first user starts the background
+     * refreshes; later users share them. If the nodelist snapshot saved by an earlier run can
+     * be loaded, it is published at once and the nodelist is read in the background. Otherwise
+     * the first user reads the nodelist on the calling thread.
+     */
+    public synchronized void start() {
+        users++;
+        if (scheduler != null) {
+            logger.debug("The nodelist refresher is already running for " + users + " filters");
+            return;
+        }
+        refreshIntervalMS = ConfigurationUtil.getLong(ENV_NAME_REFRESH_INTERVAL_SECONDS,
+                                                      SETTING_NAME_REFRESH_INTERVAL_SECONDS,
+                                                      DEFAULT_REFRESH_INTERVAL_SECONDS) * 1000L;
+        if (refreshIntervalMS <= 0) {
+            refreshIntervalMS = DEFAULT_REFRESH_INTERVAL_SECONDS * 1000L;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "d1-nodelist-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (loadSnapshot()) {
+            ScheduledExecutorService executor = scheduler;
+            executor.execute(() -> refreshAndReschedule(executor));
+        } else {
+            logger.debug("about to cache admin");
+            boolean loaded = refresh();
+            scheduleNext(scheduler, loaded);
+        }
+        logger.info("Started the nodelist refresher with the interval " + refreshIntervalMS
+                        + " ms");
+    }
+
+    /**
+     * Unregister a filter. The background refreshes stop when the last user is gone.
+     */
+    public synchronized void stop() {
+        users--;
+        if (users <= 0 && scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            users = 0;
+            logger.info("Stopped the nodelist refresher");
+        }
+    }
+
+    /**
+     * Refresh the administrative subjects now, on the calling thread
+     * @return true if the nodelist was read
+     */
+    public boolean refresh() {
+        try {
+            // pick up a changed cn url or administrators before reading the nodelist
+            SessionAuthorizationFilterStrategy.reloadConfigurationIfChanged();
+            SessionAuthorizationFilterStrategy.cacheAdministrativeSubjectList();
+            consecutiveFailures = 0;
+            lastSuccessMS = System.currentTimeMillis();
+            logger.info("nodelist refreshed");
+            return true;
+        } catch (BaseException ex) {
+            consecutiveFailures++;
+            logger.error(ex.serialize(BaseException.FMT_XML));
+        } catch (RuntimeException ex) {
+            consecutiveFailures++;
+            logger.error("Cannot refresh the nodelist since " + ex.getMessage(), ex);
+        }
+        return false;
+    }
+
+    /*
+     * Publish the saved nodelist snapshot, if there is a usable one
+     */
+    private boolean loadSnapshot() {
+        try {
+            return SessionAuthorizationFilterStrategy.loadNodeListSnapshot();
+        } catch (RuntimeException ex) {
+            logger.warn("Cannot load the nodelist snapshot since " + ex.getMessage(), ex);
+            return false;
+        }
+    }
+
+    /*
+     * Run a refresh on the scheduler thread and schedule the one after it
+     */
+    private void refreshAndReschedule(ScheduledExecutorService executor) {
+        boolean loaded = refresh();
+        scheduleNext(executor, loaded);
+    }
+
+    private void scheduleNext(ScheduledExecutorService executor, boolean loaded) {
+        long delayMS = loaded ? jitter(refreshIntervalMS) : retryDelay(consecutiveFailures);
+        if (!loaded) {
+            logger.warn("The nodelist refresh failed " + consecutiveFailures + " times in a row. "
+                            + "Keep the last good administrative subjects and retry in "
+                            + delayMS + " ms");
+        }
+        try {
+            executor.schedule(() -> refreshAndReschedule(executor), delayMS,
+                              TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // the scheduler was shut down by stop()
+            logger.debug("The nodelist refresh is not rescheduled since " + e.getMessage());
+        }
+    }
+
+    /*
+     * The delay before retrying after the given number of failures: 30 s, 60 s, 120 s ... up to
+     * the refresh interval
+     */
+    private long retryDelay(int failures) {
+        long delayMS = FIRST_RETRY_MS;
+        for (int i = 1; i < failures && delayMS < refreshIntervalMS; i++) {
+            delayMS = delayMS * 2;
+        }
+        return jitter(Math.min(delayMS, refreshIntervalMS));
+    }
+
+    /*
+     * Spread the delay randomly by JITTER either way, so the replicas of a cluster do not all
+     * ask the CN at the same moment
+     */
+    private static long jitter(long delayMS) {
+        double factor = 1.0 + JITTER * (ThreadLocalRandom.current().nextDouble() * 2.0 - 1.0);
+        return Math.max(1L, (long) (delayMS * factor));
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the time of the last successful refresh in milliseconds, or 0 if there is none
+     */
+    public long getLastSuccessMS() {
+        return lastSuccessMS;
+    }
+}
@@ -0,0 +1,311 @@
+package org.dataone.solr.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Subject;
+
+/**
+ * The node subjects of the last nodelist read from the CN, with the validators of its response.
+ *
+ * A snapshot can be saved to a local file in a compact binary form followed by a CRC32 of its
+ * content, so a restarted Solr can publish the administrative subjects straight away, even if
+ * the CN cannot be reached, and revalidate them with a conditional GET later. A file which is
+ * truncated or corrupted is refused as a whole.
+ *
+ * The checksum only detects damage, so the subjects of the file are trusted as administrators
+ * only if nobody but the Solr user can have written it: the file is refused if it is a link,
+ * belongs to another user or is writable by the group or others. There is no default file, since
+ * a shared directory like the Java temporary directory would let another user plant one.
+ */
+public final class NodeListSnapshot {
+
+    private static Log logger = LogFactory.getLog(NodeListSnapshot.class);
+
+    public final static String ENV_NAME_FILE = "D1_SOLR_NODELIST_SNAPSHOT_FILE";
+    public final static String SETTING_NAME_FILE = "solr.nodelist.snapshotFile";
+    // the value of the file setting which disables the snapshot file, like an empty one
+    public final static String DISABLED = "none";
+    private final static int MAGIC = 0x44314e4c; // D1NL
+    private final static int VERSION = 1;
+    private final static int CHECKSUM_LENGTH = 8;
+
+    private final String url;
+    private final String eTag;
+    private final String lastModified;
+    private final long createdMS;
+    private final List<Subject> cnSubjects;
+    private final Map<String, List<Subject>> mnNodeIdToSubjects;
+
+    /**
+     * Constructor. The collections are copied.
+     * @param url  the url the nodelist was read from
+     * @param eTag  the ETag of the response. It may be null
+     * @param lastModified  the Last-Modified date of the response. It may be null
+     * @param createdMS  when the nodelist was read
+     * @param cnSubjects  the subjects of the CNs which are up
+     * @param mnNodeIdToSubjects  the subjects of the MNs which are up, keyed by the identifier
+     */
+    public NodeListSnapshot(String url, String eTag, String lastModified, long createdMS,
+                            List<Subject> cnSubjects,
+                            Map<String, List<Subject>> mnNodeIdToSubjects) {
+        this.url = url;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.createdMS = createdMS;
+        this.cnSubjects = Collections.unmodifiableList(new ArrayList<Subject>(cnSubjects));
+        Map<String, List<Subject>> nodes = new LinkedHashMap<String, List<Subject>>();
+        for (Map.Entry<String, List<Subject>> entry : mnNodeIdToSubjects.entrySet()) {
+            nodes.put(entry.getKey(),
+                      Collections.unmodifiableList(new ArrayList<Subject>(entry.getValue())));
+        }
+        this.mnNodeIdToSubjects = Collections.unmodifiableMap(nodes);
+    }
+
+    /**
+     * @return the configured snapshot file, or null if the snapshot file is disabled
+     */
+    public static Path getConfiguredFile() {
+        String file = ConfigurationUtil.getString(ENV_NAME_FILE, SETTING_NAME_FILE, "");
+        if (file.isBlank() || DISABLED.equalsIgnoreCase(file.trim())) {
+            return null;
+        }
+        return Paths.get(file.trim());
+    }
+
+    /**
+     * Save the snapshot. The file is written next to the target and then moved over it, so a
+     * reader never sees half a snapshot.
+     * @param file  the file to write
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(createdMS);
+            out.writeUTF(url);
+            writeNullableUTF(out, eTag);
+            writeNullableUTF(out, lastModified);
+            writeSubjects(out, cnSubjects);
+            out.writeInt(mnNodeIdToSubjects.size());
+            for (Map.Entry<String, List<Subject>> entry : mnNodeIdToSubjects.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeSubjects(out, entry.getValue());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes.toByteArray());
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Load a snapshot
+     * @param file  the file to read
+     * @return the snapshot, or null if the file does not exist
+     * @throws IOException  if the file cannot be read, is not a complete snapshot or may have
+     *                      been written by another user
+     */
+    public static NodeListSnapshot read(Path file) throws IOException {
+        if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+            return null;
+        }
+        checkWriters(file);
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < CHECKSUM_LENGTH) {
+            throw new IOException("The nodelist snapshot " + file + " is truncated");
+        }
+        int length = bytes.length - CHECKSUM_LENGTH;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes, length, CHECKSUM_LENGTH))) {
+            if (in.readLong() != crc.getValue()) {
+                throw new IOException("The checksum of the nodelist snapshot " + file
+                    + " does not match");
+            }
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0,
+                                                                              length))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a nodelist snapshot of version " + VERSION);
+            }
+            long createdMS = in.readLong();
+            String url = in.readUTF();
+            String eTag = readNullableUTF(in);
+            String lastModified = readNullableUTF(in);
+            List<Subject> cnSubjects = readSubjects(in);
+            int nodes = in.readInt();
+            Map<String, List<Subject>> mnNodeIdToSubjects =
+                new LinkedHashMap<String, List<Subject>>();
+            for (int i = 0; i < nodes; i++) {
+                String nodeId = in.readUTF();
+                mnNodeIdToSubjects.put(nodeId, readSubjects(in));
+            }
+            if (in.available() > 0) {
+                throw new IOException("The nodelist snapshot " + file + " has trailing bytes");
+            }
+            return new NodeListSnapshot(url, eTag, lastModified, createdMS, cnSubjects,
+                                        mnNodeIdToSubjects);
+        }
+    }
+
+    /**
+     * Save the snapshot to the configured file, if there is one. A failure is only logged.
+     */
+    public void writeToConfiguredFile() {
+        Path file = getConfiguredFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            write(file);
+            logger.debug("Saved the nodelist snapshot to " + file);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot save the nodelist snapshot to " + file + " since "
+                            + e.getMessage());
+        }
+    }
+
+    /**
+     * Load the snapshot from the configured file, if there is one
+     * @return the snapshot, or null if there is none or it cannot be read
+     */
+    public static NodeListSnapshot readConfiguredFile() {
+        Path file = getConfiguredFile();
+        if (file == null) {
+            return null;
+        }
+        try {
+            return read(file);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignore the nodelist snapshot " + file + " since " + e.getMessage());
+            return null;
+        }
+    }
+
+    /*
+     * Refuse a file which somebody other than the Solr user may have written
+     */
+    private static void checkWriters(Path file) throws IOException {
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("The nodelist snapshot " + file + " is not a regular file");
+        }
+        UserPrincipal owner = Files.getOwner(file, LinkOption.NOFOLLOW_LINKS);
+        if (!owner.getName().equals(System.getProperty("user.name"))) {
+            throw new IOException("The nodelist snapshot " + file + " belongs to "
+                + owner.getName() + " rather than " + System.getProperty("user.name"));
+        }
+        PosixFileAttributeView view = Files.getFileAttributeView(
+            file, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (view != null) {
+            Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+            if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+                    || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                throw new IOException("The nodelist snapshot " + file
+                    + " is writable by the group or others");
+            }
+        }
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeSubjects(DataOutputStream out, List<Subject> subjects)
+        throws IOException {
+        out.writeInt(subjects.size());
+        for (Subject subject : subjects) {
+            out.writeUTF(subject.getValue());
+        }
+    }
+
+    private static List<Subject> readSubjects(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) {
+            throw new IOException("The nodelist snapshot has an invalid subject count " + count);
+        }
+        List<Subject> subjects = new ArrayList<Subject>(count);
+        for (int i = 0; i < count; i++) {
+            Subject subject = new Subject();
+            subject.setValue(in.readUTF());
+            subjects.add(subject);
+        }
+        return subjects;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getCreatedMS() {
+        return createdMS;
+    }
+
+    public List<Subject> getCnSubjects() {
+        return cnSubjects;
+    }
+
+    public Map<String, List<Subject>> getMnNodeIdToSubjects() {
+        return mnNodeIdToSubjects;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeListSnapshot url=" + url + " cn=" + cnSubjects.size() + " mnNodes="
+            + mnNodeIdToSubjects.size() + " created=" + createdMS;
+    }
+}
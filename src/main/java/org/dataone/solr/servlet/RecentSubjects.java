@@ -0,0 +1,206 @@
+package org.dataone.solr.servlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Subject;
+
+/**
+ * The subjects which recently needed a SubjectInfo from the CN, most recent first.
+ *
+ * The list is saved to a file every few minutes and when the filters are destroyed, so the next
+ * start can prefetch the SubjectInfo objects of the active users before they ask for them (see
+ * SubjectCacheWarmer). The file holds one subject per line.
+ */
+public class RecentSubjects {
+
+    private static Log logger = LogFactory.getLog(RecentSubjects.class);
+
+    public final static String ENV_NAME_FILE = "D1_SOLR_RECENT_SUBJECTS_FILE";
+    public final static String ENV_NAME_MAX_SIZE = "D1_SOLR_RECENT_SUBJECTS_SIZE";
+    public final static String ENV_NAME_SAVE_SECONDS = "D1_SOLR_RECENT_SUBJECTS_SAVE_SECONDS";
+    public final static String SETTING_NAME_FILE = "solr.recentSubjects.file";
+    public final static String SETTING_NAME_MAX_SIZE = "solr.recentSubjects.size";
+    public final static String SETTING_NAME_SAVE_SECONDS = "solr.recentSubjects.saveSeconds";
+    private final static int DEFAULT_MAX_SIZE = 10000;
+    private final static long DEFAULT_SAVE_SECONDS = 300L;
+
+    private final Path file;
+    private final int maxSize;
+    // access ordered, so the eldest entry is the least recently seen subject
+    private final LinkedHashMap<String, Boolean> subjects;
+    private volatile boolean changed = false;
+
+    /**
+     * Constructor
+     * @param file  the file the list is saved to. If it is null, nothing is recorded
+     * @param maxSize  the maximum number of subjects kept
+     */
+    public RecentSubjects(Path file, int maxSize) {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.subjects = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > RecentSubjects.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Create the list from the environmental variables and the settings. If a file is
+     * configured, the list is saved to it periodically on a background thread.
+     * @return a RecentSubjects object
+     */
+    public static RecentSubjects fromConfiguration() {
+        String fileName = ConfigurationUtil.getString(ENV_NAME_FILE, SETTING_NAME_FILE, "");
+        int maxSize = ConfigurationUtil.getInt(ENV_NAME_MAX_SIZE, SETTING_NAME_MAX_SIZE,
+                                               DEFAULT_MAX_SIZE);
+        long saveSeconds = ConfigurationUtil.getLong(ENV_NAME_SAVE_SECONDS,
+                                                     SETTING_NAME_SAVE_SECONDS,
+                                                     DEFAULT_SAVE_SECONDS);
+        Path file = fileName.isBlank() ? null : Paths.get(fileName.trim());
+        RecentSubjects recentSubjects = new RecentSubjects(file, maxSize);
+        if (recentSubjects.isEnabled() && saveSeconds > 0) {
+            ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "d1-recent-subjects-save");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            scheduler.scheduleWithFixedDelay(recentSubjects::saveIfChanged, saveSeconds,
+                                             saveSeconds, TimeUnit.SECONDS);
+        }
+        logger.info("Recent subjects " + (file == null ? "disabled" : file + " size " + maxSize
+                        + " saved every " + saveSeconds + "s"));
+        return recentSubjects;
+    }
+
+    /**
+     * Record that a subject was seen
+     * @param subject  the subject
+     */
+    public void record(Subject subject) {
+        if (!isEnabled() || subject == null || subject.getValue() == null) {
+            return;
+        }
+        synchronized (subjects) {
+            subjects.put(subject.getValue(), Boolean.TRUE);
+        }
+        changed = true;
+    }
+
+    /**
+     * @return the subjects, most recently seen first
+     */
+    public List<String> getSubjects() {
+        List<String> recent;
+        synchronized (subjects) {
+            recent = new ArrayList<String>(subjects.keySet());
+        }
+        Collections.reverse(recent);
+        return recent;
+    }
+
+    /**
+     * Save the list if a subject was recorded since the last save. A failure is only logged.
+     */
+    public void saveIfChanged() {
+        if (!isEnabled() || !changed) {
+            return;
+        }
+        changed = false;
+        try {
+            save(file, getSubjects());
+            logger.debug("Saved the recent subjects to " + file);
+        } catch (IOException | RuntimeException e) {
+            changed = true;
+            logger.warn("Cannot save the recent subjects to " + file + " since "
+                            + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a subject list to a file. The file is written next to the target and then moved
+     * over it.
+     * @param file  the file
+     * @param subjects  the subjects
+     * @throws IOException
+     */
+    public static void save(Path file, List<String> subjects) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, subjects, StandardCharsets.UTF_8);
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Read the subject list saved by an earlier run
+     * @param limit  the maximum number of subjects read
+     * @return the subjects, most recently seen first. It is empty if there is no file
+     */
+    public List<String> load(int limit) {
+        List<String> loaded = new ArrayList<String>();
+        if (!isEnabled() || !Files.exists(file)) {
+            return loaded;
+        }
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (loaded.size() >= limit) {
+                    break;
+                }
+                if (!line.isBlank()) {
+                    loaded.add(line.trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot read the recent subjects from " + file + " since "
+                            + e.getMessage());
+        }
+        return loaded;
+    }
+
+    /**
+     * @return true if a file is configured
+     */
+    public boolean isEnabled() {
+        return file != null && maxSize > 0;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int size() {
+        synchronized (subjects) {
+            return subjects.size();
+        }
+    }
+}
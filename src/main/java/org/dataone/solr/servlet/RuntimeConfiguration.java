@@ -0,0 +1,73 @@
+package org.dataone.solr.servlet;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the configuration the filters use on every request.
+ *
+ * The snapshot is built when a filter is initialized and rebuilt only by an explicit reload or
+ * when the watched environment variables change, so the request path neither reads the
+ * environment nor touches the shared settings and client registries.
+ */
+public final class RuntimeConfiguration {
+
+    private final String cnUrl;
+    private final String adminToken;
+    private final Map<String, String> environment;
+
+    /**
+     * Constructor
+     * @param cnUrl  the base url of the CN
+     * @param adminToken  the token which marks a CN administrator. It may be null
+     * @param environment  the values of the watched environment variables this snapshot was
+     *                     built from. The map is copied
+     */
+    public RuntimeConfiguration(String cnUrl, String adminToken, Map<String, String> environment) {
+        this.cnUrl = cnUrl;
+        this.adminToken = adminToken;
+        this.environment = Collections.unmodifiableMap(
+            new LinkedHashMap<String, String>(environment));
+    }
+
+    /**
+     * Read the current values of the given environment variables
+     * @param names  the names of the variables
+     * @return the values keyed by the names. An unset variable has a null value
+     */
+    public static Map<String, String> readEnvironment(String... names) {
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (String name : names) {
+            values.put(name, System.getenv(name));
+        }
+        return values;
+    }
+
+    /**
+     * @param current  the current values of the watched environment variables
+     * @return true if they differ from the values this snapshot was built from
+     */
+    public boolean isEnvironmentChanged(Map<String, String> current) {
+        return !environment.equals(current);
+    }
+
+    public String getCnUrl() {
+        return cnUrl;
+    }
+
+    public String getAdminToken() {
+        return adminToken;
+    }
+
+    public Map<String, String> getEnvironment() {
+        return environment;
+    }
+
+    @Override
+    public String toString() {
+        // the token is a secret, so only tell whether there is one
+        return "RuntimeConfiguration cnUrl=" + cnUrl + " adminToken="
+            + (adminToken != null && !adminToken.isBlank() ? "set" : "unset");
+    }
+}
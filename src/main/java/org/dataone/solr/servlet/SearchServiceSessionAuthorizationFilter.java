@@ -8,7 +8,6 @@ import javax.servlet.ServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.dataone.cn.servlet.http.ProxyServletRequestWrapper;
 import org.dataone.service.exceptions.InvalidToken;
 import org.dataone.service.exceptions.NotAuthorized;
 import org.dataone.service.exceptions.NotImplemented;
@@ -20,14 +19,14 @@ public class SearchServiceSessionAuthorizationFilter extends SessionAuthorizatio
 
     protected static Log logger = LogFactory.getLog(SearchServiceSessionAuthorizationFilter.class);
 
-    protected void handleNoCertificateManagerSession(ProxyServletRequestWrapper proxyRequest,
+    protected void handleNoCertificateManagerSession(AuthorizationRequestWrapper proxyRequest,
             ServletResponse response, FilterChain fc) throws ServletException, IOException,
             NotAuthorized {
         logger.debug("solr search filter handling no cert.");
         SessionAuthorizationUtil.handleNoCertificateManagerSession(proxyRequest, response, fc);
     }
 
-    protected void addAuthenticatedSubjectsToRequest(ProxyServletRequestWrapper proxyRequest,
+    protected void addAuthenticatedSubjectsToRequest(AuthorizationRequestWrapper proxyRequest,
             Session session, Subject authorizedSubject)
         throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
         SessionAuthorizationUtil.addAuthenticatedSubjectsToRequest(proxyRequest, session,
@@ -8,10 +8,12 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -21,9 +23,7 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,21 +31,14 @@ import org.dataone.client.v2.itk.D1Client;
 import org.dataone.cn.servlet.http.ParameterKeys;
 import org.dataone.cn.servlet.http.ProxyServletRequestWrapper;
 import org.dataone.configuration.Settings;
-import org.dataone.portal.PortalCertificateManager;
 import org.dataone.service.exceptions.BaseException;
 import org.dataone.service.exceptions.InvalidToken;
 import org.dataone.service.exceptions.NotAuthorized;
 import org.dataone.service.exceptions.NotImplemented;
 import org.dataone.service.exceptions.ServiceFailure;
-import org.dataone.service.types.v1.NodeState;
-import org.dataone.service.types.v1.NodeType;
 import org.dataone.service.types.v1.Session;
 import org.dataone.service.types.v1.Subject;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import org.dataone.solr.servlet.AuthorizationDecisionCache.AuthorizationDecision;
 
 
 /**
@@ -60,13 +53,10 @@ import org.xml.sax.SAXException;
 public abstract class SessionAuthorizationFilterStrategy implements Filter {
 
     protected static Log logger = LogFactory.getLog(SessionAuthorizationFilterStrategy.class);
-    protected static List<Subject> cnAdministrativeSubjects = new ArrayList<Subject>();
-    protected static List<Subject> mnAdministrativeSubjects = new ArrayList<Subject>();
+    // Replaced as a whole by cacheAdministrativeSubjectList; never modified in place
+    protected static volatile AdministrativeSubjects administrativeSubjects =
+        AdministrativeSubjects.EMPTY;
     protected static List<Subject> serviceMethodRestrictionSubjects = new ArrayList<Subject>();
-    protected static Map<String, List<Subject>> mnNodeNameToSubjectsMap = new HashMap<String,
-        List<Subject>>();
-    private long lastRefreshTimeMS = 0L;
-    private long nodelistRefreshIntervalSeconds = 120L * 60L * 1000L; // 2 hours
     protected static String cnClientUrl = null;
     // The cn url which lists the nodes registered in cn. It will be cnClientUrl + "/v2/node"
     protected static String cnNodeListUrl = null;
@@ -74,6 +64,8 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
     public final static String ENV_NAME_CN_SOLR_ADMIN_TOKEN = "D1_CN_SOLR_ADMIN_TOKEN";
     private final static String ENV_NAME_D1_CN_URL = "D1_CN_URL";
     private final static String ENV_NAME_CN_ADMINS = "D1_CN_ADMINS"; // Optional. Separated by ;
+    // Optional. The replicas of the cn, separated by ;
+    private final static String ENV_NAME_D1_CN_URLS = "D1_CN_URLS";
     public final static String SETTING_NAME_SOLR_ADMIN_TOKEN = "cn.solrAdministrator.token";
     private final static String SETTING_NAME_D1_CN_URL = "D1Client.CN_URL";
     private final static String SETTING_NAME_CN_ADMINS = "cn.administrators";
@@ -81,7 +73,17 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
     private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
                                                     .connectTimeout(Duration.ofSeconds(10)).build();
 
-    private static String adminToken = null;
+    private final static String[] WATCHED_ENV_NAMES =
+        { ENV_NAME_D1_CN_URL, ENV_NAME_D1_CN_URLS, ENV_NAME_CN_ADMINS,
+          ENV_NAME_CN_SOLR_ADMIN_TOKEN };
+    // Replaced as a whole by reloadConfiguration; read once per request
+    protected static volatile RuntimeConfiguration runtimeConfiguration = null;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private final static String NODE_LIST_PATH = "/v2/node";
+    // Rebuilt by getCnClient when the list of cn urls changes
+    private static volatile HedgedCnClient cnClient = null;
+    // The last nodelist read from the CN, kept to revalidate it with a conditional GET
+    private static volatile NodeListSnapshot parsedNodeList = null;
 
 
     /**
@@ -89,7 +91,8 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
      * what access (if any) to allow
      * requests that do have session information available from the dataONE CertificateManager.
      *
-     * Called from doFilter
+     * Called from doFilter. By default it calls the ProxyServletRequestWrapper variant, so a
+     * subclass which only overrides that one keeps working
      *
      * @param proxyRequest
      * @param response
@@ -98,16 +101,40 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
      * @throws IOException
      * @throws NotAuthorized
      */
-    protected abstract void handleNoCertificateManagerSession(
+    protected void handleNoCertificateManagerSession(
+            AuthorizationRequestWrapper proxyRequest, ServletResponse response,
+            FilterChain filterChain) throws ServletException, IOException, NotAuthorized {
+        handleNoCertificateManagerSession(new ProxyServletRequestWrapper(proxyRequest), response,
+                                          filterChain);
+    }
+
+    /**
+     * The variant of handleNoCertificateManagerSession for the subclasses written before the
+     * filter wrapped the requests in the AuthorizationRequestWrapper
+     *
+     * @param proxyRequest  a copy of the request the filter wrapped
+     * @param response
+     * @param filterChain
+     * @throws ServletException  if the subclass overrides neither variant
+     * @throws IOException
+     * @throws NotAuthorized
+     * @deprecated override the AuthorizationRequestWrapper variant instead
+     */
+    @Deprecated
+    protected void handleNoCertificateManagerSession(
             ProxyServletRequestWrapper proxyRequest, ServletResponse response,
-            FilterChain filterChain) throws ServletException, IOException, NotAuthorized;
+            FilterChain filterChain) throws ServletException, IOException, NotAuthorized {
+        throw new ServletException(getClass().getName()
+                + " does not implement handleNoCertificateManagerSession");
+    }
 
     /**
      * Allows concrete implementations of SessionAuthorizationFilterStrategy to determine how/what authenticated
      * subjects are added to the request's parameter values - ParameterKeys.AUTHORIZED_SUBJECTS, as well as if public
      * user and authenticated user constants are provided.
      *
-     * Called from doFilter
+     * Called from doFilter. By default it calls the ProxyServletRequestWrapper variant on a copy
+     * of the request and sets the authorization parameters it added
      *
      * @param proxyRequest
      * @param session
@@ -116,9 +143,36 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
      * @throws NotAuthorized
      * @throws NotImplemented
      */
-    protected abstract void addAuthenticatedSubjectsToRequest(
+    protected void addAuthenticatedSubjectsToRequest(
+            AuthorizationRequestWrapper proxyRequest, Session session, Subject authorizedSubject)
+        throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
+        ProxyServletRequestWrapper copy = new ProxyServletRequestWrapper(proxyRequest);
+        addAuthenticatedSubjectsToRequest(copy, session, authorizedSubject);
+        for (String name : new String[] { ParameterKeys.AUTHORIZED_SUBJECTS,
+                ParameterKeys.IS_CN_ADMINISTRATOR, ParameterKeys.IS_MN_ADMINISTRATOR }) {
+            proxyRequest.setParameterValues(name, copy.getParameterValues(name));
+        }
+    }
+
+    /**
+     * The variant of addAuthenticatedSubjectsToRequest for the subclasses written before the
+     * filter wrapped the requests in the AuthorizationRequestWrapper
+     *
+     * @param proxyRequest  a copy of the request the filter wrapped
+     * @param session
+     * @param authorizedSubject
+     * @throws ServiceFailure
+     * @throws NotAuthorized
+     * @throws NotImplemented  if the subclass overrides neither variant
+     * @deprecated override the AuthorizationRequestWrapper variant instead
+     */
+    @Deprecated
+    protected void addAuthenticatedSubjectsToRequest(
             ProxyServletRequestWrapper proxyRequest, Session session, Subject authorizedSubject)
-        throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken;
+        throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
+        throw new NotImplemented("0000", getClass().getName()
+                + " does not implement addAuthenticatedSubjectsToRequest");
+    }
 
     /**
      * The service name to look up for additional admin users defined for the services service method restrictions.
@@ -128,7 +182,8 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
     protected abstract String getServiceMethodName();
 
     /**
-     * Initialize the filter by pre-caching a list of administrative subjects
+     * Initialize the filter by pre-caching a list of administrative subjects. The list is
+     * refreshed afterwards by the NodeListRefresher shared by all filters
      *
      * @param fc
      * @throws ServletException
@@ -136,18 +191,110 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
      */
     @Override
     public void init(FilterConfig fc) throws ServletException {
+        reloadConfiguration();
+        NodeListRefresher.getInstance().start();
+        SessionAuthorizationUtil.getSubjectInfoCache().start();
+        SubjectCacheWarmer.warmUpOnce();
+        logger.debug("init SessionAuthorizationFilter: " + this.getClass().getName());
+    }
+
+    /**
+     * Get the current snapshot of the administrative subjects
+     * @return the AdministrativeSubjects object last published by cacheAdministrativeSubjectList
+     */
+    public static AdministrativeSubjects getAdministrativeSubjects() {
+        return administrativeSubjects;
+    }
+
+    /**
+     * Get the current configuration snapshot
+     * @return the RuntimeConfiguration object last published by reloadConfiguration. It is null
+     *         before the first filter is initialized
+     */
+    public static RuntimeConfiguration getRuntimeConfiguration() {
+        return runtimeConfiguration;
+    }
+
+    /**
+     * Build a new configuration snapshot from the environment variables and the settings, and
+     * publish it. If the cn url comes from an env variable, the v1 and v2 D1Clients are pointed
+     * at it here rather than on the request path.
+     * @return the published snapshot
+     */
+    public static synchronized RuntimeConfiguration reloadConfiguration() {
+        Map<String, String> environment = RuntimeConfiguration.readEnvironment(WATCHED_ENV_NAMES);
+        RuntimeConfiguration previous = runtimeConfiguration;
+        String envCnUrl = environment.get(ENV_NAME_D1_CN_URL);
+        if (previous != null && !Objects.equals(
+                previous.getEnvironment().get(ENV_NAME_D1_CN_URL), envCnUrl)) {
+            logger.info("The env variable " + ENV_NAME_D1_CN_URL + " changed to " + envCnUrl
+                            + ". Switch to the new cn.");
+            cnClientUrl = null;
+            cnNodeListUrl = null;
+            // the subject information came from the old cn
+            SessionAuthorizationUtil.getSubjectInfoCache().clear();
+        }
         readEnvVariables();
-        adminToken = Settings.getConfiguration().getString(SETTING_NAME_SOLR_ADMIN_TOKEN);
+        if (envCnUrl != null && !envCnUrl.isBlank()) {
+            setD1ClientCnUrl(envCnUrl);
+        }
+        RuntimeConfiguration current = new RuntimeConfiguration(
+            cnClientUrl, Settings.getConfiguration().getString(SETTING_NAME_SOLR_ADMIN_TOKEN),
+            environment);
+        runtimeConfiguration = current;
+        // the cached decisions may carry the old admin token
+        SessionAuthorizationUtil.getAuthorizationDecisionCache().clear();
+        logger.info("Published the configuration " + current);
+        return current;
+    }
+
+    /**
+     * Reload the configuration if the watched environment variables changed since the current
+     * snapshot was built. The NodeListRefresher calls it before every refresh.
+     * @return true if the configuration was reloaded
+     */
+    public static boolean reloadConfigurationIfChanged() {
+        RuntimeConfiguration current = runtimeConfiguration;
+        if (current != null && !current.isEnvironmentChanged(
+                RuntimeConfiguration.readEnvironment(WATCHED_ENV_NAMES))) {
+            return false;
+        }
+        reloadConfiguration();
+        return true;
+    }
+
+    /*
+     * Make sure the v1 and v2 D1Clients use the given cn url
+     */
+    private static void setD1ClientCnUrl(String envCnUrl) {
+        logger.debug("The cn url value from the env variable " + ENV_NAME_D1_CN_URL + " is "
+                         + envCnUrl);
+        Settings.getConfiguration().setProperty(SETTING_NAME_D1_CN_URL, envCnUrl);
         try {
-            logger.debug("about to cache admin");
-            cacheAdministrativeSubjectList();
-        } catch (NotImplemented ex) {
-            logger.error(ex.serialize(BaseException.FMT_XML));
-        } catch (ServiceFailure ex) {
-            logger.error(ex.serialize(BaseException.FMT_XML));
+            String v2CnUrl = D1Client.getCN().getNodeBaseServiceUrl();
+            // v2CnUrl has the /v2 appendix on the base url. So we use `startWith`
+            if (v2CnUrl == null || !v2CnUrl.startsWith(envCnUrl)) {
+                logger.warn("The current v2 CN url is " + v2CnUrl + " and it is different to "
+                                + "the cn url from an env variable. We need to reset it to "
+                                + envCnUrl);
+                D1Client.setCN(envCnUrl);
+                logger.debug("The new v2 cn url is " + D1Client.getCN().getNodeBaseServiceUrl());
+            }
+            // d1_portal uses the v1 D1Client. So we need to check it as well
+            String v1CnUrl = org.dataone.client.v1.itk.D1Client.getCN().getNodeBaseServiceUrl();
+            // v1CnUrl has the /v1 appendix on the base url. So we use `startWith`
+            if (v1CnUrl == null || !v1CnUrl.startsWith(envCnUrl)) {
+                logger.warn("The current v1 CN url is " + v1CnUrl + " and it is different to "
+                                + "the cn url from an env variable. We need to reset it to "
+                                + envCnUrl);
+                org.dataone.client.v1.itk.D1Client.setCN(envCnUrl);
+                logger.debug(
+                    "The new v1 cn url is " + org.dataone.client.v1.itk.D1Client.getCN()
+                        .getNodeBaseServiceUrl());
+            }
+        } catch (ServiceFailure | NotImplemented e) {
+            logger.warn("The CN url cannot be got since " + e.getMessage());
         }
-        lastRefreshTimeMS = new Date().getTime();
-        logger.debug("init SessionAuthorizationFilter: " + this.getClass().getName());
     }
 
     /**
@@ -209,6 +356,55 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
         }
     }
 
+    /**
+     * Get the base urls of the CNs: cnClientUrl first, followed by the replicas listed in the
+     * env variable D1_CN_URLS
+     * @return the urls without a trailing slash and without duplicates
+     */
+    protected static List<String> getCnUrls() {
+        getCnClientUrl();
+        RuntimeConfiguration config = runtimeConfiguration;
+        String replicas = config != null ? config.getEnvironment().get(ENV_NAME_D1_CN_URLS)
+            : System.getenv(ENV_NAME_D1_CN_URLS);
+        List<String> urls = new ArrayList<String>();
+        urls.add(stripTrailingSlash(cnClientUrl.trim()));
+        List<String> replicaList = splitTextBySemicolon(replicas);
+        if (replicaList != null) {
+            for (String replica : replicaList) {
+                String url = stripTrailingSlash(replica);
+                if (!urls.contains(url)) {
+                    urls.add(url);
+                }
+            }
+        }
+        return urls;
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * Get the client which sends the nodelist and subject info requests to the CNs. It is
+     * rebuilt when the cn urls changed.
+     * @return the HedgedCnClient object for the current cn urls
+     */
+    public static HedgedCnClient getCnClient() {
+        List<String> urls = getCnUrls();
+        HedgedCnClient client = cnClient;
+        if (client == null || !client.getBaseUrls().equals(urls)) {
+            synchronized (SessionAuthorizationFilterStrategy.class) {
+                client = cnClient;
+                if (client == null || !client.getBaseUrls().equals(urls)) {
+                    client = HedgedCnClient.fromConfiguration(urls, SessionAuthorizationUtil
+                        .getCnCircuitBreaker().getCallBudgetMS());
+                    cnClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
     /**
      * Split the text which semicolon separates into a list
      * @param text  the text will be parsed
@@ -237,20 +433,89 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
      * @throws ServiceFailure
      */
     public static InputStream getResponse(String url) throws ServiceFailure {
-        HttpRequest request = HttpRequest.newBuilder()
-            .uri(URI.create(url)).GET().build();
-        HttpResponse<InputStream> response = null;
+        return sendRequest(url, null, null).body();
+    }
+
+    /**
+     * Send a GET request, conditional if a validator of an earlier response is given
+     * @param url  the url will be sent the request
+     * @param eTag  the ETag of an earlier response. It may be null
+     * @param lastModified  the Last-Modified date of an earlier response. It may be null
+     * @return the response. Its status code is 304 if the resource has not been modified
+     * @throws ServiceFailure  also if the CN circuit breaker is open or the CN does not answer
+     *                         within the call budget
+     */
+    protected static HttpResponse<InputStream> sendRequest(String url, String eTag,
+                                                           String lastModified)
+        throws ServiceFailure {
+        CnCircuitBreaker circuitBreaker = SessionAuthorizationUtil.getCnCircuitBreaker();
+        if (!circuitBreaker.allowCall()) {
+            throw circuitBreaker.newOpenFailure("the request to " + url);
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(url)).GET();
+        if (circuitBreaker.getCallBudgetMS() > 0) {
+            builder.timeout(Duration.ofMillis(circuitBreaker.getCallBudgetMS()));
+        }
+        if (eTag != null) {
+            builder.header("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        long start = System.currentTimeMillis();
         try {
-            response = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            HttpResponse<InputStream> response = HTTP_CLIENT.send(
+                builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() >= 500) {
+                circuitBreaker.recordFailure();
+            } else {
+                circuitBreaker.recordSuccess(System.currentTimeMillis() - start);
+            }
+            return response;
         } catch (IOException e) {
+            circuitBreaker.recordFailure();
             throw new ServiceFailure("0000", "Cannot get the response from " + url + " since "
                 + e.getMessage());
         } catch (InterruptedException e) {
+            circuitBreaker.recordFailure();
             Thread.currentThread().interrupt();
             throw new ServiceFailure("0000", "Cannot get the response from " + url + " since "
                 + e.getMessage());
         }
-        return response.body();
+    }
+
+    /**
+     * Send a GET request to the CNs through the circuit breaker, hedged if there are replicas
+     * @param path  the path after the cn base url, e.g. /v2/node
+     * @param eTag  the ETag of an earlier response. It may be null
+     * @param lastModified  the Last-Modified date of an earlier response. It may be null
+     * @return the response. Its status code is 304 if the resource has not been modified
+     * @throws ServiceFailure  also if the CN circuit breaker is open or no CN answers within the
+     *                         call budget
+     */
+    protected static HttpResponse<InputStream> sendCnRequest(String path, String eTag,
+                                                             String lastModified)
+        throws ServiceFailure {
+        CnCircuitBreaker circuitBreaker = SessionAuthorizationUtil.getCnCircuitBreaker();
+        if (!circuitBreaker.allowCall()) {
+            throw circuitBreaker.newOpenFailure("the request to " + path);
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        if (eTag != null) {
+            headers.put("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            HttpResponse<InputStream> response = getCnClient().send(path, headers);
+            circuitBreaker.recordSuccess(System.currentTimeMillis() - start);
+            return response;
+        } catch (ServiceFailure e) {
+            circuitBreaker.recordFailure();
+            throw e;
+        }
     }
 
     /**
@@ -278,74 +543,52 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
             throws IOException, ServletException {
         logger.debug("SessionAuthorizationFilterStrategy doFilter invoked by: "
                 + this.getClass().getName());
-        // Make sure CNs have the correct url from the env variable if it is set
-        String envCnUrl = System.getenv(ENV_NAME_D1_CN_URL);
-        if (envCnUrl != null && !envCnUrl.isBlank()) {
-            logger.debug(
-                "In SessionAuthorizationFilterStrategy.doFilter, The cn url value from the"
-                    + " env variable " + ENV_NAME_D1_CN_URL + " is " + envCnUrl);
-            Settings.getConfiguration().setProperty(SETTING_NAME_D1_CN_URL, envCnUrl);
-            try {
-                String v2CnUrl = D1Client.getCN().getNodeBaseServiceUrl();
-                // v2CnUrl has the /v2 appendix on the base url. So we use `startWith`
-                if (v2CnUrl == null || !v2CnUrl.startsWith(envCnUrl)) {
-                    logger.warn("The current v2 CN url is " + v2CnUrl + " and it is different to "
-                                    + "the cn url from an env variable. We need to reset it to "
-                                    + envCnUrl);
-                    D1Client.setCN(envCnUrl);
-                    logger.debug("The new v2 cn url is " + D1Client.getCN().getNodeBaseServiceUrl());
-                }
-                // d1_portal uses the v1 D1Client. So we need to check it as well
-                String v1CnUrl = org.dataone.client.v1.itk.D1Client.getCN().getNodeBaseServiceUrl();
-                // v1CnUrl has the /v1 appendix on the base url. So we use `startWith`
-                if (v1CnUrl == null || !v1CnUrl.startsWith(envCnUrl)) {
-                    logger.warn("The current v1 CN url is " + v1CnUrl + " and it is different to "
-                                    + "the cn url from an env variable. We need to reset it to "
-                                    + envCnUrl);
-                    org.dataone.client.v1.itk.D1Client.setCN(envCnUrl);
-                    logger.debug(
-                        "The new v1 cn url is " + org.dataone.client.v1.itk.D1Client.getCN()
-                            .getNodeBaseServiceUrl());
-                }
-            } catch (ServiceFailure | NotImplemented e) {
-                logger.warn("The CN url cannot be got since " + e.getMessage());
-            }
-        }
+        RuntimeConfiguration config = runtimeConfiguration;
+        String adminToken = config == null ? null : config.getAdminToken();
 
         try {
             if (request instanceof HttpServletRequest) {
-                String[] emptyValues = {};
-                ProxyServletRequestWrapper proxyRequest = new ProxyServletRequestWrapper(
+                AuthorizationRequestWrapper proxyRequest = new AuthorizationRequestWrapper(
                         (HttpServletRequest) request);
-
-                Map proxyMap = proxyRequest.getParameterMap();
-                if (proxyMap.containsKey(ParameterKeys.AUTHORIZED_SUBJECTS)) {
-                    // clear out any unwanted attempts at hacking
-                    logger.debug("removing attempt at supplying authorized user by client");
-                    proxyRequest.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS, emptyValues);
+                // the wrapper never exposes the authorization parameters sent by the client
+                if (logger.isDebugEnabled() && proxyRequest.hasClientAuthorizationParameters()) {
+                    logger.debug("removing attempt at supplying authorization parameters by "
+                            + "client");
                 }
-                if (proxyMap.containsKey(ParameterKeys.IS_CN_ADMINISTRATOR)) {
-                    // clear out any unwanted attempts at hacking
-                    logger.debug("removing attempt at supplying authorized administrative user by client");
-                    proxyRequest.setParameterValues(ParameterKeys.IS_CN_ADMINISTRATOR, emptyValues);
-                }
-                if (proxyMap.containsKey(ParameterKeys.IS_MN_ADMINISTRATOR)) {
-                    // clear out any unwanted attempts at hacking
-                    logger.debug("removing attempt at supplying authorized administrative user by client");
-                    proxyRequest.setParameterValues(ParameterKeys.IS_MN_ADMINISTRATOR, emptyValues);
+
+                // a repeat caller gets the parameters worked out for its credential before
+                AuthorizationDecisionCache decisionCache =
+                        SessionAuthorizationUtil.getAuthorizationDecisionCache();
+                long decisionGeneration = decisionCache.getGeneration();
+                String credentialKey = SessionAuthorizationUtil.getCredentialKey(proxyRequest);
+                AuthorizationDecision decision = decisionCache.get(credentialKey);
+                if (decision != null) {
+                    decision.applyTo(proxyRequest);
+                    if (decision.getSubject() == null) {
+                        handleNoCertificateManagerSession(proxyRequest, response, fc);
+                    } else {
+                        logger.debug("Solr Session auth - reuse the decision for "
+                                + decision.getSubject());
+                        fc.doFilter(proxyRequest, response);
+                    }
+                    return;
                 }
 
-                boolean hasValidSSL = SessionAuthorizationUtil.validateSSLAttributes(proxyRequest);
+                // a trusted proxy may have verified the certificate for us
+                Session session = SessionAuthorizationUtil.getTrustedProxySession(
+                        (HttpServletRequest) request);
+                boolean hasValidSSL = session != null
+                        || SessionAuthorizationUtil.validateSSLAttributes(proxyRequest);
                 logger.debug("valid SSL: " + hasValidSSL);
                 if (hasValidSSL) {
-                    // check if we have the certificate (session) already
-                    Session session = PortalCertificateManager.getInstance().getSession(
-                            (HttpServletRequest) request);
+                    if (session == null) {
+                        // check if we have the certificate (session) already
+                        session = SessionAuthorizationUtil.getSession(
+                                (HttpServletRequest) request);
+                    }
                     if (session != null) {
                         // we have a authenticated user, maybe an administrator or
-                        if (isTimeForRefresh()) {
-                            cacheAdministrativeSubjectList();
-                        }
+                        AdministrativeSubjects adminSubjects = administrativeSubjects;
                         Subject authorizedSubject = session.getSubject();
                         logger.debug("Solr Session Auth found subject: "
                                 + authorizedSubject.getValue());
@@ -363,7 +606,7 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
                         //
                         // Lastly, the subject may be a valid authorized subject, so
                         // restrict based on the user permissions
-                        if (cnAdministrativeSubjects.contains(authorizedSubject)) {
+                        if (adminSubjects.isCnAdministrator(authorizedSubject)) {
                             // set administrative access
                             logger.debug(authorizedSubject.getValue() + " is a cn administrator");
                             if (adminToken != null && !adminToken.isBlank()) {
@@ -375,20 +618,18 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
                                                 + ENV_NAME_CN_SOLR_ADMIN_TOKEN
                                                 + ". So the cn access is disabled.");
                             }
-                        } else if (mnAdministrativeSubjects.contains(authorizedSubject)) {
-                            for (String mnIdentifier : mnNodeNameToSubjectsMap.keySet()) {
-                                List<Subject> mnSubjectList = mnNodeNameToSubjectsMap
-                                        .get(mnIdentifier);
-                                if (mnSubjectList != null
-                                        && mnSubjectList.contains(authorizedSubject)) {
-                                    String[] mnAdministratorParamValue = { mnIdentifier };
-                                    logger.debug(authorizedSubject.getValue()
-                                            + " is a mn administrator");
-                                    proxyRequest.setParameterValues(
-                                            ParameterKeys.IS_MN_ADMINISTRATOR,
-                                            mnAdministratorParamValue);
-                                }
+                        } else if (adminSubjects.isMnAdministrator(authorizedSubject)) {
+                            Set<String> mnIdentifiers = adminSubjects.getMnNodeIds(
+                                    authorizedSubject);
+                            if (mnIdentifiers.size() > 1) {
+                                logger.debug(authorizedSubject.getValue() + " belongs to the mns "
+                                        + mnIdentifiers + ". Use the first one.");
                             }
+                            String[] mnAdministratorParamValue = { mnIdentifiers.iterator()
+                                    .next() };
+                            logger.debug(authorizedSubject.getValue() + " is a mn administrator");
+                            proxyRequest.setParameterValues(ParameterKeys.IS_MN_ADMINISTRATOR,
+                                    mnAdministratorParamValue);
                         } else {
                             if (!serviceMethodRestrictionSubjects.isEmpty()) {
                                 if (serviceMethodRestrictionSubjects.contains(authorizedSubject)) {
@@ -406,9 +647,17 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
                                         authorizedSubject);
                             }
                         }
+                        // not kept if the subjects came from the fallback subject info
+                        decisionCache.put(credentialKey, SessionAuthorizationUtil
+                                .getStandardizedDNCache().standardize(authorizedSubject.getValue()),
+                                proxyRequest, SessionAuthorizationUtil.getCredentialTtlMS(
+                                        (HttpServletRequest) request), decisionGeneration);
                         fc.doFilter(proxyRequest, response);
                     } else {
                         logger.debug("Solr Session auth - NO SESSION");
+                        decisionCache.put(credentialKey, null, proxyRequest,
+                                SessionAuthorizationUtil.getCredentialTtlMS(
+                                        (HttpServletRequest) request), decisionGeneration);
                         handleNoCertificateManagerSession(proxyRequest, response, fc);
                     }
                 } else {
@@ -453,8 +702,10 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
     }
 
     /*
-     * refreshes an array of subjects listed as CN's in the nodelist. the array
-     * is a static class variable
+     * refreshes an array of subjects listed as CN's in the nodelist. the lists are
+     * built locally and then published as a single immutable snapshot. If the
+     * nodelist cannot be read, the last published snapshot is kept. A nodelist
+     * which was read again is saved to the snapshot file for the next start
      * 
      * @author waltz
      * 
@@ -465,110 +716,119 @@ public abstract class SessionAuthorizationFilterStrategy implements Filter {
      * @returns void
      */
     protected static void cacheAdministrativeSubjectList() throws NotImplemented, ServiceFailure {
-        cnAdministrativeSubjects.clear();
-        mnAdministrativeSubjects.clear();
-        serviceMethodRestrictionSubjects.clear();
-        mnNodeNameToSubjectsMap.clear();
-        List<String> nodeAdministrators = Settings.getConfiguration().getList("cn.administrators");
-        if (nodeAdministrators != null) {
-            for (String administrator : nodeAdministrators) {
-                logger.debug("AdminList property entry " + administrator);
-                Subject adminSubject = new Subject();
-                adminSubject.setValue(administrator);
-                cnAdministrativeSubjects.add(adminSubject);
-            }
-        }
+        List<Subject> cnAdministrativeSubjects = getConfiguredAdministrators();
         // Parse the node information from the result of the cnNodeUrl
         try {
             setCnNodeListUrl();
             logger.debug("The cn node list url is " + cnNodeListUrl);
-            try (InputStream response = getResponse(cnNodeListUrl)) {
-                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-                factory.setNamespaceAware(true);
-                factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-                factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
-                factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-                DocumentBuilder builder = factory.newDocumentBuilder();
-                Document doc = builder.parse(response);
-                // Normalize the XML structure
-                doc.getDocumentElement().normalize();
-                // Get all <node> elements
-                Element root = doc.getDocumentElement(); // nodeList
-                NodeList kids = root.getChildNodes();
-                for (int i = 0; i < kids.getLength(); i++) {
-                    Node nodeItem = kids.item(i);
-                    if (nodeItem.getNodeType() == Node.ELEMENT_NODE && "node".equals(
-                        nodeItem.getNodeName())) {
-                        Element nodeElement = (Element) nodeItem;
-                        String identifier = getTextContent(nodeElement, "identifier");
-                        String type = nodeElement.getAttribute("type");
-                        String state = nodeElement.getAttribute("state");
-                        // Filter for cn/up or mn/up
-                        if (state != null && state.equals(NodeState.UP.xmlValue())) {
-                            // Get all subjects
-                            NodeList children = nodeElement.getChildNodes();
-                            List<Subject> subjectList = new ArrayList<>();
-                            for (int j = 0; j < children.getLength(); j++) {
-                                Node child = children.item(j);
-                                if (child.getNodeType() == Node.ELEMENT_NODE && "subject".equals(
-                                    child.getNodeName())) {
-                                    String subjectStr = child.getTextContent();
-                                    Subject subject = new Subject();
-                                    subject.setValue(subjectStr);
-                                    subjectList.add(subject);
-                                    logger.debug(
-                                        "Find the subject " + subjectStr + " for node " + identifier);                            }
-                            }
-                            if (!subjectList.isEmpty() && type != null) {
-                                if (type.equals(NodeType.CN.xmlValue())) {
-                                    logger.debug("Put all found subjects for CN " + identifier + " "
-                                                     + "into the cn admin subject list.");
-                                    cnAdministrativeSubjects.addAll(subjectList);
-                                } else if (type.equals(NodeType.MN.xmlValue())) {
-                                    logger.debug("Put all found subjects for MN " + identifier + " "
-                                                     + "into the mn admin subject list.");
-                                    mnAdministrativeSubjects.addAll(subjectList);
-                                    mnNodeNameToSubjectsMap.put(identifier, subjectList);
-                                }
-                            }
-                        }
-                    }
+            NodeListSnapshot previous = parsedNodeList;
+            boolean revalidate = previous != null && previous.getUrl().equals(cnNodeListUrl);
+            HttpResponse<InputStream> response = sendCnRequest(NODE_LIST_PATH,
+                    revalidate ? previous.getETag() : null,
+                    revalidate ? previous.getLastModified() : null);
+            NodeListSnapshot current;
+            try (InputStream body = response.body()) {
+                if (response.statusCode() == HTTP_NOT_MODIFIED && revalidate) {
+                    logger.debug("The nodelist at " + cnNodeListUrl + " is not modified");
+                    current = previous;
+                } else if (response.statusCode() >= 200 && response.statusCode() < 300) {
+                    List<Subject> cnNodeSubjects = new ArrayList<Subject>();
+                    Map<String, List<Subject>> mnNodeSubjects =
+                        new LinkedHashMap<String, List<Subject>>();
+                    NodeListParser.parse(body, cnNodeSubjects, mnNodeSubjects);
+                    current = new NodeListSnapshot(cnNodeListUrl,
+                            response.headers().firstValue("ETag").orElse(null),
+                            response.headers().firstValue("Last-Modified").orElse(null),
+                            System.currentTimeMillis(), cnNodeSubjects, mnNodeSubjects);
+                    current.writeToConfiguredFile();
+                } else {
+                    throw new ServiceFailure("0000", "Cannot get the nodelist from "
+                        + cnNodeListUrl + " since the status code is " + response.statusCode());
                 }
             }
-        } catch (IOException | ParserConfigurationException | SAXException e) {
+            parsedNodeList = current;
+            cnAdministrativeSubjects.addAll(current.getCnSubjects());
+            publish(new AdministrativeSubjects(cnAdministrativeSubjects,
+                                               current.getMnNodeIdToSubjects()));
+        } catch (IOException | XMLStreamException e) {
+            publishConfiguredAdministratorsIfEmpty(cnAdministrativeSubjects);
             throw new ServiceFailure("0000", e.getMessage());
+        } catch (ServiceFailure e) {
+            publishConfiguredAdministratorsIfEmpty(cnAdministrativeSubjects);
+            throw e;
         }
     }
 
-    /* Helper method to get text content of a child element*/
-    private static String getTextContent(Element parent, String tagName) {
-        NodeList list = parent.getElementsByTagName(tagName);
-        if (list.getLength() > 0) {
-            return list.item(0).getTextContent();
+    /**
+     * Publish the administrative subjects saved by an earlier run, without asking the CN. The
+     * snapshot is only used if it was read from the nodelist url currently configured; its
+     * validators let the next refresh be a conditional request.
+     * @return true if a snapshot was published
+     */
+    protected static boolean loadNodeListSnapshot() {
+        NodeListSnapshot snapshot = NodeListSnapshot.readConfiguredFile();
+        if (snapshot == null) {
+            return false;
+        }
+        setCnNodeListUrl();
+        if (!snapshot.getUrl().equals(cnNodeListUrl)) {
+            logger.info("Ignore the nodelist snapshot of " + snapshot.getUrl()
+                            + " since the nodelist url is " + cnNodeListUrl);
+            return false;
         }
-        return "";
+        List<Subject> cnAdministrativeSubjects = getConfiguredAdministrators();
+        cnAdministrativeSubjects.addAll(snapshot.getCnSubjects());
+        parsedNodeList = snapshot;
+        publish(new AdministrativeSubjects(cnAdministrativeSubjects,
+                                           snapshot.getMnNodeIdToSubjects()));
+        logger.info("Loaded " + snapshot);
+        return true;
     }
 
-    /**
-     * determines if it is time to refresh the AdministrativeSubjectList derived from nodelist information cache. The
-     * refresh interval helps to minimize unnecessary access to LDAP.
-     *
-     * @author waltz
-     * @return boolean. true if time to refresh
+    /*
+     * The subjects listed in the cn.administrators setting
      */
-    private Boolean isTimeForRefresh() {
-        long nowMS = System.currentTimeMillis();
-        if ((nowMS - this.lastRefreshTimeMS) > nodelistRefreshIntervalSeconds) {
-            this.lastRefreshTimeMS = nowMS;
-            logger.info("nodelist refreshed");
-            return true;
-        } else {
-            return false;
+    private static List<Subject> getConfiguredAdministrators() {
+        List<Subject> administrators = new ArrayList<Subject>();
+        List<String> nodeAdministrators = Settings.getConfiguration().getList("cn.administrators");
+        if (nodeAdministrators != null) {
+            for (String administrator : nodeAdministrators) {
+                logger.debug("AdminList property entry " + administrator);
+                Subject adminSubject = new Subject();
+                adminSubject.setValue(administrator);
+                administrators.add(adminSubject);
+            }
+        }
+        return administrators;
+    }
+
+    /*
+     * Publish a new snapshot of the administrative subjects. The cached authorization
+     * decisions were based on the old one, so they are dropped.
+     */
+    private static void publish(AdministrativeSubjects snapshot) {
+        administrativeSubjects = snapshot;
+        SessionAuthorizationUtil.getAuthorizationDecisionCache().clear();
+        logger.debug("Published " + snapshot);
+    }
+
+    /*
+     * If the nodelist has never been read, at least let the configured
+     * cn.administrators in. Otherwise keep the last good snapshot.
+     */
+    private static void publishConfiguredAdministratorsIfEmpty(List<Subject> configuredAdmins) {
+        if (administrativeSubjects == AdministrativeSubjects.EMPTY
+                && !configuredAdmins.isEmpty()) {
+            publish(new AdministrativeSubjects(configuredAdmins,
+                    new HashMap<String, List<Subject>>()));
         }
     }
 
     @Override
     public void destroy() {
+        NodeListRefresher.getInstance().stop();
+        SessionAuthorizationUtil.getSubjectInfoCache().stop();
+        SessionAuthorizationUtil.getRecentSubjects().saveIfChanged();
         logger.info("destroy SessionAuthorizationFilter");
     }
 }
@@ -1,39 +1,30 @@
 package org.dataone.solr.servlet;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.security.cert.CertificateFactory;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Enumeration;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.dataone.client.auth.CertificateManager;
-import org.dataone.client.v2.itk.D1Client;
 import org.dataone.cn.servlet.http.ParameterKeys;
 import org.dataone.cn.servlet.http.ProxyServletRequestWrapper;
 import org.dataone.portal.PortalCertificateManager;
 import org.dataone.service.exceptions.InvalidToken;
 import org.dataone.service.exceptions.NotAuthorized;
-import org.dataone.service.exceptions.NotFound;
 import org.dataone.service.exceptions.NotImplemented;
 import org.dataone.service.exceptions.ServiceFailure;
 import org.dataone.service.types.v1.Session;
 import org.dataone.service.types.v1.Subject;
 import org.dataone.service.types.v1.SubjectInfo;
-import org.dataone.service.types.v1.util.AuthUtils;
-import org.dataone.service.util.Constants;
+import org.dataone.solr.servlet.cache.DigestUtil;
 
 /**
  * Provide base session authorization behavior. For use by concrete implementations of the
@@ -49,6 +40,21 @@ public class SessionAuthorizationUtil {
         SessionAuthorizationFilterStrategy.getCnClientUrl();
     }
 
+    private static CnCircuitBreaker cnCircuitBreaker = CnCircuitBreaker.fromConfiguration();
+    private static SubjectInfoCache subjectInfoCache =
+        SubjectInfoCache.fromConfiguration(cnCircuitBreaker);
+    private static StandardizedDNCache standardizedDNCache =
+        StandardizedDNCache.fromConfiguration();
+    private static AuthorizedSubjectsCache authorizedSubjectsCache =
+        AuthorizedSubjectsCache.fromConfiguration(standardizedDNCache);
+    private static CertificateCache certificateCache = CertificateCache.fromConfiguration();
+    private static TrustedProxyAuthenticator trustedProxyAuthenticator =
+        TrustedProxyAuthenticator.fromConfiguration();
+    private static TokenSessionCache tokenSessionCache = TokenSessionCache.fromConfiguration();
+    private static AuthorizationDecisionCache authorizationDecisionCache =
+        AuthorizationDecisionCache.fromConfiguration();
+    private static RecentSubjects recentSubjects = RecentSubjects.fromConfiguration();
+
     /**
      * The request attribute under which we store the array of X509Certificate objects representing the certificate
      * chain presented by our client, if any. (as an object of X509Certificate)
@@ -110,7 +116,196 @@ public class SessionAuthorizationUtil {
     private SessionAuthorizationUtil() {
     }
 
-    public static void handleNoCertificateManagerSession(ProxyServletRequestWrapper proxyRequest,
+    /**
+     * Get the circuit breaker guarding the CN calls
+     * @return the CnCircuitBreaker object shared by the filters and the nodelist refresh
+     */
+    public static CnCircuitBreaker getCnCircuitBreaker() {
+        return cnCircuitBreaker;
+    }
+
+    /**
+     * Get the cache of the SubjectInfo objects looked up from the CN
+     * @return the SubjectInfoCache object shared by the search and log filters
+     */
+    public static SubjectInfoCache getSubjectInfoCache() {
+        return subjectInfoCache;
+    }
+
+    /**
+     * Get the list of the subjects which recently needed a SubjectInfo from the CN
+     * @return the RecentSubjects object shared by the search and log filters
+     */
+    public static RecentSubjects getRecentSubjects() {
+        return recentSubjects;
+    }
+
+    /**
+     * Get the memo of the standardized DNs
+     * @return the StandardizedDNCache object shared by the search and log filters
+     */
+    public static StandardizedDNCache getStandardizedDNCache() {
+        return standardizedDNCache;
+    }
+
+    /**
+     * Get the cache of the authorized subject lists
+     * @return the AuthorizedSubjectsCache object shared by the search and log filters
+     */
+    public static AuthorizedSubjectsCache getAuthorizedSubjectsCache() {
+        return authorizedSubjectsCache;
+    }
+
+    /**
+     * Forget what is cached about a subject, e.g. after its equivalent identities or group
+     * memberships changed on the CN
+     * @param subject  the subject
+     */
+    public static void invalidateSubject(Subject subject) {
+        subjectInfoCache.invalidate(subject);
+        authorizedSubjectsCache.invalidate(subject);
+        authorizationDecisionCache.invalidate(standardizedDNCache.standardize(subject.getValue()));
+    }
+
+    /**
+     * Forget what is cached about every subject which belongs to a group, e.g. after the group
+     * lost a member on the CN
+     * @param group  the group subject
+     */
+    public static void invalidateGroup(Subject group) {
+        for (String member : authorizedSubjectsCache.invalidateGroup(group)) {
+            Subject subject = new Subject();
+            subject.setValue(member);
+            subjectInfoCache.invalidate(subject);
+        }
+        authorizationDecisionCache.invalidate(standardizedDNCache.standardize(group.getValue()));
+    }
+
+    /**
+     * Get the cache of the client certificates parsed from the SSL_CLIENT_CERT header
+     * @return the CertificateCache object shared by the search and log filters
+     */
+    public static CertificateCache getCertificateCache() {
+        return certificateCache;
+    }
+
+    /**
+     * Get the session built from the subject headers of a trusted proxy
+     * @param request  the request
+     * @return the session, or null if the trusted proxy mode is off or does not apply to the
+     *         request. The caller then falls back to validateSSLAttributes
+     */
+    public static Session getTrustedProxySession(HttpServletRequest request) {
+        return trustedProxyAuthenticator.getSession(request);
+    }
+
+    /**
+     * Get the session of the request from PortalCertificateManager. When the request carries a
+     * token and no client certificate, the session comes from the cache of verified tokens.
+     * @param request  the request
+     * @return the session, or null if there is none
+     * @throws Exception  if PortalCertificateManager cannot build the session
+     */
+    public static Session getSession(HttpServletRequest request) throws Exception {
+        if (request.getAttribute(CERTIFICATES_ATTR) != null) {
+            // the certificate wins over the token
+            return PortalCertificateManager.getInstance().getSession(request);
+        }
+        return tokenSessionCache.getSession(request);
+    }
+
+    /**
+     * Get the cache of the sessions built from the Authorization header tokens
+     * @return the TokenSessionCache object shared by the search and log filters
+     */
+    public static TokenSessionCache getTokenSessionCache() {
+        return tokenSessionCache;
+    }
+
+    /**
+     * Get the cache of the authorization parameters worked out for the clients
+     * @return the AuthorizationDecisionCache object shared by the search and log filters
+     */
+    public static AuthorizationDecisionCache getAuthorizationDecisionCache() {
+        return authorizationDecisionCache;
+    }
+
+    /**
+     * Get a key identifying the credential a request presents, in the order the credentials
+     * are used: the trusted proxy headers, the client certificate, the token and the portal
+     * cookie. The raw credential never appears in the key.
+     * @param request  the request. If it is the AuthorizationRequestWrapper of the filter, the
+     *                 portal cookie looked up here is not looked up again by validateSSLAttributes
+     * @return the key, or null if the request presents no credential which can be cached
+     */
+    public static String getCredentialKey(HttpServletRequest request) {
+        if (trustedProxyAuthenticator.isTrusted(request)) {
+            String fingerprint = trustedProxyAuthenticator.getFingerprint(request);
+            return fingerprint == null ? null : "proxy:" + fingerprint;
+        }
+        Object certificates = request.getAttribute(CERTIFICATES_ATTR);
+        if (certificates instanceof X509Certificate[]
+                && ((X509Certificate[]) certificates).length > 0) {
+            try {
+                return "cert:" + DigestUtil.sha256Hex(
+                    ((X509Certificate[]) certificates)[0].getEncoded());
+            } catch (CertificateEncodingException e) {
+                return null;
+            }
+        }
+        if ("SUCCESS".equals(request.getHeader(SSL_CLIENT_VERIFY_HEADER))) {
+            String x509ClientRequest = request.getHeader(SSL_CLIENT_CERT_HEADER);
+            if (x509ClientRequest != null && !x509ClientRequest.equals(MOD_HEADER_NULL)
+                    && x509ClientRequest.length() > 28) {
+                return "cert:" + DigestUtil.sha256Hex(x509ClientRequest);
+            }
+            return null;
+        }
+        String token = request.getHeader(D1_AUTHORIZATION_TOKEN_HEADER);
+        if (token != null && !token.equals(MOD_HEADER_NULL)) {
+            return "token:" + DigestUtil.sha256Hex(token);
+        }
+        Cookie portalCookie = getPortalCookie(request);
+        if (portalCookie != null && portalCookie.getValue() != null) {
+            return "cookie:" + DigestUtil.sha256Hex(portalCookie.getValue());
+        }
+        return null;
+    }
+
+    /*
+     * The portal cookie of the request, from the wrapper if the filter looked it up already
+     */
+    private static Cookie getPortalCookie(HttpServletRequest request) {
+        if (request instanceof AuthorizationRequestWrapper) {
+            return ((AuthorizationRequestWrapper) request).getPortalCookie();
+        }
+        return PortalCertificateManager.getInstance().getCookie(request);
+    }
+
+    /**
+     * Get how long the authorization of a request may be remembered: until its certificate or
+     * its token expires
+     * @param request  the request, after the filter worked out its authorization
+     * @return the time in milliseconds. It is Long.MAX_VALUE if the credential does not expire
+     */
+    public static long getCredentialTtlMS(HttpServletRequest request) {
+        long now = System.currentTimeMillis();
+        Object certificates = request.getAttribute(CERTIFICATES_ATTR);
+        if (certificates instanceof X509Certificate[]
+                && ((X509Certificate[]) certificates).length > 0) {
+            return ((X509Certificate[]) certificates)[0].getNotAfter().getTime() - now;
+        }
+        String token = request.getHeader(D1_AUTHORIZATION_TOKEN_HEADER);
+        if (token != null) {
+            long expMS = TokenSessionCache.getExpirationMS(token);
+            if (expMS > 0) {
+                return expMS - now;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public static void handleNoCertificateManagerSession(AuthorizationRequestWrapper proxyRequest,
             ServletResponse response, FilterChain fc) throws ServletException, IOException,
             NotAuthorized {
         // providing no values to the parameters will result in public access
@@ -118,22 +313,60 @@ public class SessionAuthorizationUtil {
         fc.doFilter(proxyRequest, response);
     }
 
+    public static void addAuthenticatedSubjectsToRequest(AuthorizationRequestWrapper proxyRequest,
+            Session session, Subject authorizedSubject)
+        throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
+        addAuthenticatedSubjectsToRequest(proxyRequest, session, authorizedSubject,
+                                          subjectInfoCache);
+    }
+
+    /**
+     * @deprecated use the AuthorizationRequestWrapper variant
+     */
+    @Deprecated
+    public static void handleNoCertificateManagerSession(ProxyServletRequestWrapper proxyRequest,
+            ServletResponse response, FilterChain fc) throws ServletException, IOException,
+            NotAuthorized {
+        logger.debug("session is null: default to public");
+        fc.doFilter(proxyRequest, response);
+    }
+
+    /**
+     * Add the authorized subjects to a ProxyServletRequestWrapper. If it copies the
+     * AuthorizationRequestWrapper of the filter, the subjects are added to that one as well
+     * @deprecated use the AuthorizationRequestWrapper variant
+     */
+    @Deprecated
     public static void addAuthenticatedSubjectsToRequest(ProxyServletRequestWrapper proxyRequest,
             Session session, Subject authorizedSubject)
         throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
-        List<String> authorizedSubjects = new ArrayList<String>();
-        // add into the list the public subject and authenticated
-        // subject psuedo users since they will be indexed as subjects allowable
-        // to read
-        authorizedSubjects.add(Constants.SUBJECT_PUBLIC);
-        authorizedSubjects.add(Constants.SUBJECT_AUTHENTICATED_USER);
+        ServletRequest wrapped = proxyRequest.getRequest();
+        AuthorizationRequestWrapper request = wrapped instanceof AuthorizationRequestWrapper
+            ? (AuthorizationRequestWrapper) wrapped : new AuthorizationRequestWrapper(proxyRequest);
+        addAuthenticatedSubjectsToRequest(request, session, authorizedSubject);
+        String[] authorizedSubjects = request.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS);
+        if (authorizedSubjects != null) {
+            proxyRequest.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS, authorizedSubjects);
+        }
+    }
 
+    /*
+     * Add the authorized subjects, looking the SubjectInfo up in the given cache. A request
+     * authorized with the fallback SubjectInfo is marked as such, so its decision is not cached
+     */
+    static void addAuthenticatedSubjectsToRequest(AuthorizationRequestWrapper proxyRequest,
+            Session session, Subject authorizedSubject, SubjectInfoCache subjectInfoCache)
+        throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
         SubjectInfo authorizedSubjectInfo = session.getSubjectInfo();
         // If the session doesn't have subject info, we need to get it from the CN api call.
         if (authorizedSubjectInfo == null) {
-            try {
-                authorizedSubjectInfo = D1Client.getCN().getSubjectInfo(null, authorizedSubject);
-            } catch (NotFound e) {
+            recentSubjects.record(authorizedSubject);
+            SubjectInfoCache.Result result = subjectInfoCache.lookUp(authorizedSubject);
+            if (result.isFallback()) {
+                proxyRequest.setFallbackSubjectInfo(true);
+            }
+            authorizedSubjectInfo = result.getSubjectInfo();
+            if (authorizedSubjectInfo == null) {
                 // if problem getting the subjectInfo, use the
                 // subjectInfo provided with the certificate.
 
@@ -146,158 +379,103 @@ public class SessionAuthorizationUtil {
                 authorizedSubjectInfo = session.getSubjectInfo();
             }
         }
-        if (authorizedSubjectInfo == null) {
-            String standardizedName = authorizedSubject.getValue();
-            try {
-                standardizedName = CertificateManager.getInstance().standardizeDN(standardizedName);
-            } catch (Exception e) {
-                // is not valid DN
-                // so the unstandardized name is added...
-            }
-            authorizedSubjects.add(standardizedName);
-        } else {
-            Set<Subject> subjectSet = new HashSet<Subject>();
-            AuthUtils.findPersonsSubjects(subjectSet, authorizedSubjectInfo, authorizedSubject);
-            for (Subject subject : subjectSet) {
-                if (subject != null) {
-                    if (Constants.SUBJECT_VERIFIED_USER.equals(subject.getValue())) {
-                        authorizedSubjects.add(Constants.SUBJECT_VERIFIED_USER);
-                    } else {
-                        String standardizedName = subject.getValue();
-                        try {
-                            standardizedName = CertificateManager.getInstance().standardizeDN(
-                                    subject.getValue());
-                        } catch (Exception e) {
-                            logger.warn(
-                                "Could not standardize DN for: " + standardizedName + " since "
-                                    + e.getMessage());
-                        }
-                        logger.debug("Add " + standardizedName + " into the authorized subject "
-                                         + "list");
-                        authorizedSubjects.add(standardizedName);
-                    }
-                }
-            }
-        }
-        if (!authorizedSubjects.isEmpty()) {
-            proxyRequest.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS,
-                    authorizedSubjects.toArray(new String[0]));
-        }
+        String[] authorizedSubjects = authorizedSubjectsCache.getAuthorizedSubjects(
+                authorizedSubject, authorizedSubjectInfo);
+        proxyRequest.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS, authorizedSubjects);
     }
 
     /**
      * Create the java ssl attributes needed for dataone authorization by reading headers.
      * The headers are populated by apache before rewrite and proxy
-     * 
+     *
+     * The credentials are looked up one at a time and the first one found decides: the
+     * certificate attribute, the verified certificate header, the token and the portal cookie.
+     * A request without any credential is answered without allocating anything.
+     *
      * @param request
      * @return boolean
      *
     */
-    public static boolean validateSSLAttributes(ProxyServletRequestWrapper request) {
-        List<String> attributeNames = Collections.list(request.getAttributeNames());
-        boolean rtn = false;
-
-        Cookie portalCookie = PortalCertificateManager.getInstance().getCookie(request);
-
+    public static boolean validateSSLAttributes(AuthorizationRequestWrapper request) {
         // do not process any further if the attributes are already included
         // means that the ssl proxy connection to the solr instance is sending
         // correct certificate information to Java
-        if (attributeNames.contains(CERTIFICATES_ATTR)) {
-            rtn = true;
-        } else {
-            // XXX: is headerNames nullable?
-            List<String> headerNames = Collections.list(request.getHeaderNames());
-            if (logger.isDebugEnabled()) 
-                for (String header : headerNames) {
-                    logger.debug(header + ": " + request.getHeader(header));
-            }   
-            if (headerNames.contains(SSL_CLIENT_VERIFY_HEADER)) {
-                String verify = request.getHeader(SSL_CLIENT_VERIFY_HEADER);
-                if ((verify != null) && verify.equals("SUCCESS")) {
-                    /* the following code was unabashedly ripped and modified from org.apache.catalina.valves.SSLValve */
-
-                    String x509ClientRequest = request.getHeader(SSL_CLIENT_CERT_HEADER);
-                    if ((x509ClientRequest != null) && (!x509ClientRequest.equals(MOD_HEADER_NULL))
-                            && x509ClientRequest.length() > 28) {
-                        ByteArrayInputStream bais = null;
-                        try {
-                            /* mod_header converts the '\n' into ' ' so we have to rebuild the client certificate */
-                            x509ClientRequest = x509ClientRequest.replace(' ', '\n');
-                            StringBuilder rebuildX509ClientRequest = new StringBuilder();
-                            rebuildX509ClientRequest.append("-----BEGIN CERTIFICATE-----\n");
-                            rebuildX509ClientRequest.append(x509ClientRequest.substring(28,
-                                    x509ClientRequest.length() - 26));
-                            rebuildX509ClientRequest.append("\n-----END CERTIFICATE-----\n");
-                            x509ClientRequest = rebuildX509ClientRequest.toString();
-                            // ByteArrayInputStream bais = new ByteArrayInputStream(strcerts.getBytes("UTF-8"));
-                            bais = new ByteArrayInputStream(
-                                    x509ClientRequest.getBytes(Charset.defaultCharset()));
-                            X509Certificate jsseCerts[] = null;
-
-                            /* if we want to use BC or another provider, then we should determine a way
-                             to indicate that we do not wish to use the default provider
-                             */
-                            CertificateFactory cf = CertificateFactory.getInstance("X.509");
-                            X509Certificate cert = (X509Certificate) cf.generateCertificate(bais);
-                            jsseCerts = new X509Certificate[1];
-                            jsseCerts[0] = cert;
-                            request.setAttribute(CERTIFICATES_ATTR, jsseCerts);
-                            String sslCipherHeader = request.getHeader(SSL_CLIENT_CERT_HEADER);
-
-                            if ((sslCipherHeader != null)
-                                    && !(sslCipherHeader.equals(MOD_HEADER_NULL))) {
-                                request.setAttribute(CIPHER_SUITE_ATTR, sslCipherHeader);
-                            }
-
-                            String sslSessionIdHeader = request.getHeader(SSL_SESSIONID_HEADER);
-                            if (sslSessionIdHeader != null
-                                    && !(sslSessionIdHeader.equals(MOD_HEADER_NULL))) {
-                                request.setAttribute(SSL_SESSION_ID_ATTR, sslSessionIdHeader);
-                            }
-
-                            String sslCipherUserKeySizeHeader = request
-                                    .getHeader(SSL_CIPHER_USER_KEYSIZE_HEADER);
-                            if (sslCipherUserKeySizeHeader != null
-                                    && !(sslCipherUserKeySizeHeader.equals(MOD_HEADER_NULL))) {
-                                request.setAttribute(KEY_SIZE_ATTR,
-                                        Integer.valueOf(sslCipherUserKeySizeHeader));
-                            }
-                            rtn = true;
-                        } catch (java.security.cert.CertificateException e) {
-                            logger.warn("sslValve.certError", e);
-
-                        } finally {
-                            // probably not necessary, but a good hapbit.
-                            IOUtils.closeQuietly(bais);
-                        }
-                    }
-
-                } else if (headerNames.contains(D1_AUTHORIZATION_TOKEN_HEADER)
-                        && (!request.getHeader(D1_AUTHORIZATION_TOKEN_HEADER).equals(
-                                MOD_HEADER_NULL))) {
-                    if (logger.isDebugEnabled())
-                        logger.debug("session passed via token: " + D1_AUTHORIZATION_TOKEN_HEADER
-                                + ": " + request.getHeader(D1_AUTHORIZATION_TOKEN_HEADER));
-                    rtn = true;
-                } else if (portalCookie != null) {
-                    if (logger.isDebugEnabled()) 
-                        logger.debug("portal cookie found: " + portalCookie.getName() + ": "
-                                + portalCookie.getValue());
-                    rtn = true;
-                }
-            } else if (headerNames.contains(D1_AUTHORIZATION_TOKEN_HEADER)
-                    && (!request.getHeader(D1_AUTHORIZATION_TOKEN_HEADER).equals(MOD_HEADER_NULL))) {
-                if (logger.isDebugEnabled())
-                    logger.debug("session passed via token: " + D1_AUTHORIZATION_TOKEN_HEADER + ": "
-                            + request.getHeader(D1_AUTHORIZATION_TOKEN_HEADER));
-                rtn = true;
-            } else if (portalCookie != null) {
-                if (logger.isDebugEnabled())
-                    logger.debug("portal cookie found: " + portalCookie.getName() + ": "
-                            + portalCookie.getValue());
-                rtn = true;
+        if (request.getAttribute(CERTIFICATES_ATTR) != null) {
+            return true;
+        }
+        if (logger.isDebugEnabled()) {
+            Enumeration<String> headerNames = request.getHeaderNames();
+            while (headerNames != null && headerNames.hasMoreElements()) {
+                String header = headerNames.nextElement();
+                logger.debug(header + ": " + request.getHeader(header));
+            }
+        }
+        String verify = request.getHeader(SSL_CLIENT_VERIFY_HEADER);
+        if (verify != null && verify.equals("SUCCESS")) {
+            // a verified client certificate is the only credential considered
+            return setCertificateAttributes(request);
+        }
+        String token = request.getHeader(D1_AUTHORIZATION_TOKEN_HEADER);
+        if (token != null && !token.equals(MOD_HEADER_NULL)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("session passed via token: " + D1_AUTHORIZATION_TOKEN_HEADER + ": "
+                        + token);
+            }
+            return true;
+        }
+        Cookie portalCookie = request.getPortalCookie();
+        if (portalCookie != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("portal cookie found: " + portalCookie.getName() + ": "
+                        + portalCookie.getValue());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parse the client certificate header of a verified request and set the java ssl attributes
+     * @param request
+     * @return true if the certificate could be parsed
+     */
+    private static boolean setCertificateAttributes(HttpServletRequest request) {
+        /* the following code was unabashedly ripped and modified from org.apache.catalina.valves.SSLValve */
+        String x509ClientRequest = request.getHeader(SSL_CLIENT_CERT_HEADER);
+        if ((x509ClientRequest == null) || x509ClientRequest.equals(MOD_HEADER_NULL)
+                || x509ClientRequest.length() <= 28) {
+            return false;
+        }
+        try {
+            X509Certificate jsseCerts[] = certificateCache.getCertificates(x509ClientRequest);
+            request.setAttribute(CERTIFICATES_ATTR, jsseCerts);
+            String sslCipherHeader = request.getHeader(SSL_CIPHER_HEADER);
+            if ((sslCipherHeader != null) && !(sslCipherHeader.equals(MOD_HEADER_NULL))) {
+                request.setAttribute(CIPHER_SUITE_ATTR, sslCipherHeader);
+            }
+
+            String sslSessionIdHeader = request.getHeader(SSL_SESSIONID_HEADER);
+            if (sslSessionIdHeader != null && !(sslSessionIdHeader.equals(MOD_HEADER_NULL))) {
+                request.setAttribute(SSL_SESSION_ID_ATTR, sslSessionIdHeader);
+            }
+
+            String sslCipherUserKeySizeHeader = request.getHeader(SSL_CIPHER_USER_KEYSIZE_HEADER);
+            if (sslCipherUserKeySizeHeader != null
+                    && !(sslCipherUserKeySizeHeader.equals(MOD_HEADER_NULL))) {
+                request.setAttribute(KEY_SIZE_ATTR, Integer.valueOf(sslCipherUserKeySizeHeader));
             }
+            return true;
+        } catch (java.security.cert.CertificateException e) {
+            logger.warn("sslValve.certError", e);
+            return false;
         }
-        return rtn;
+    }
+
+    /**
+     * @deprecated use the AuthorizationRequestWrapper variant
+     */
+    @Deprecated
+    public static boolean validateSSLAttributes(ProxyServletRequestWrapper request) {
+        return validateSSLAttributes(new AuthorizationRequestWrapper(request));
     }
 }
@@ -0,0 +1,114 @@
+package org.dataone.solr.servlet;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.client.auth.CertificateManager;
+import org.dataone.solr.servlet.cache.ExpiringLruCache;
+
+/**
+ * Memoizes CertificateManager.standardizeDN, which parses the value as an LDAP name, for the
+ * subjects the filters put into the authorized subject list.
+ *
+ * Standardization only depends on the value, so the entries do not expire and only leave the
+ * memo by eviction. Values which are not DNs, such as ORCID identifiers, are remembered as well
+ * and map to themselves, so their parse failure is neither repeated nor logged again.
+ */
+public class StandardizedDNCache {
+
+    private static Log logger = LogFactory.getLog(StandardizedDNCache.class);
+
+    public final static String ENV_NAME_MAX_SIZE = "D1_SOLR_DN_CACHE_SIZE";
+    public final static String SETTING_NAME_MAX_SIZE = "solr.dnCache.size";
+    private final static int DEFAULT_MAX_SIZE = 10000;
+
+    private final ExpiringLruCache<String, String> standardizedNames;
+    private final AtomicLong notDNs = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param maxSize  the maximum number of values remembered. 0 disables the memo
+     */
+    public StandardizedDNCache(int maxSize) {
+        standardizedNames = new ExpiringLruCache<String, String>(maxSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Create a memo from the environmental variables and the settings
+     * @return a StandardizedDNCache object
+     */
+    public static StandardizedDNCache fromConfiguration() {
+        int maxSize = ConfigurationUtil.getInt(ENV_NAME_MAX_SIZE, SETTING_NAME_MAX_SIZE,
+                                               DEFAULT_MAX_SIZE);
+        logger.info("Standardized DN cache size " + maxSize);
+        return new StandardizedDNCache(maxSize);
+    }
+
+    /**
+     * Standardize a subject value
+     * @param value  the subject value
+     * @return the standardized DN, or the value itself if it is not a DN
+     */
+    public String standardize(String value) {
+        if (value == null) {
+            return null;
+        }
+        String standardizedName = standardizedNames.get(value);
+        if (standardizedName == null) {
+            try {
+                standardizedName = standardizeDN(value);
+            } catch (Exception e) {
+                // is not valid DN, e.g. an ORCID, so the unstandardized name is used
+                logger.debug("Could not standardize DN for: " + value + " since "
+                                 + e.getMessage());
+                notDNs.incrementAndGet();
+                standardizedName = value;
+            }
+            standardizedNames.put(value, standardizedName);
+        }
+        return standardizedName;
+    }
+
+    /**
+     * Standardize a DN without the memo
+     * @param value  the subject value
+     * @return the standardized DN
+     * @throws Exception  if the value is not a DN
+     */
+    protected String standardizeDN(String value) throws Exception {
+        return CertificateManager.getInstance().standardizeDN(value);
+    }
+
+    public void clear() {
+        standardizedNames.clear();
+    }
+
+    public int size() {
+        return standardizedNames.size();
+    }
+
+    public long getHits() {
+        return standardizedNames.getHits();
+    }
+
+    public long getMisses() {
+        return standardizedNames.getMisses();
+    }
+
+    /**
+     * @return the share of the lookups answered from the memo, between 0 and 1
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * @return the number of values found not to be DNs since the memo was created
+     */
+    public long getNotDNs() {
+        return notDNs.get();
+    }
+}
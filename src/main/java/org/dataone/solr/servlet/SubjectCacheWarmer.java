@@ -0,0 +1,152 @@
+package org.dataone.solr.servlet;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+
+/**
+ * Prefetches the SubjectInfo objects and the authorized subject lists of the recently active
+ * subjects when the filters start, so the first requests after a restart find them cached.
+ *
+ * The subjects are looked up by a few threads at a time. The filter initialization waits for the
+ * warm-up at most for the budget; the lookups still running then carry on in the background and
+ * fill the caches as they finish.
+ */
+public class SubjectCacheWarmer {
+
+    private static Log logger = LogFactory.getLog(SubjectCacheWarmer.class);
+
+    public final static String ENV_NAME_CONCURRENCY = "D1_SOLR_WARMUP_CONCURRENCY";
+    public final static String ENV_NAME_BUDGET_MS = "D1_SOLR_WARMUP_BUDGET_MS";
+    public final static String SETTING_NAME_CONCURRENCY = "solr.warmup.concurrency";
+    public final static String SETTING_NAME_BUDGET_MS = "solr.warmup.budgetMS";
+    private final static int DEFAULT_CONCURRENCY = 4;
+    private final static long DEFAULT_BUDGET_MS = 10000L;
+
+    // both filters call warmUp at init, but only the first one warms the caches
+    private static final AtomicBoolean WARMED = new AtomicBoolean();
+
+    private final SubjectInfoCache subjectInfoCache;
+    private final AuthorizedSubjectsCache authorizedSubjectsCache;
+    private final int concurrency;
+    private final long budgetMS;
+    private final AtomicInteger warmed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param subjectInfoCache  the cache of the SubjectInfo objects
+     * @param authorizedSubjectsCache  the cache of the authorized subject lists
+     * @param concurrency  the number of subjects looked up at the same time
+     * @param budgetMS  how long warmUp waits for the lookups. 0 or less does not wait at all
+     */
+    public SubjectCacheWarmer(SubjectInfoCache subjectInfoCache,
+                              AuthorizedSubjectsCache authorizedSubjectsCache, int concurrency,
+                              long budgetMS) {
+        this.subjectInfoCache = subjectInfoCache;
+        this.authorizedSubjectsCache = authorizedSubjectsCache;
+        this.concurrency = Math.max(1, concurrency);
+        this.budgetMS = budgetMS;
+    }
+
+    /**
+     * Warm the shared caches with the recent subjects saved by an earlier run, once per JVM
+     */
+    public static void warmUpOnce() {
+        RecentSubjects recentSubjects = SessionAuthorizationUtil.getRecentSubjects();
+        if (!recentSubjects.isEnabled() || !WARMED.compareAndSet(false, true)) {
+            return;
+        }
+        int concurrency = ConfigurationUtil.getInt(ENV_NAME_CONCURRENCY, SETTING_NAME_CONCURRENCY,
+                                                   DEFAULT_CONCURRENCY);
+        long budgetMS = ConfigurationUtil.getLong(ENV_NAME_BUDGET_MS, SETTING_NAME_BUDGET_MS,
+                                                  DEFAULT_BUDGET_MS);
+        SubjectInfoCache subjectInfoCache = SessionAuthorizationUtil.getSubjectInfoCache();
+        // more subjects than the cache holds would only evict each other
+        List<String> subjects = recentSubjects.load(subjectInfoCache.getMaxSize());
+        new SubjectCacheWarmer(subjectInfoCache,
+                               SessionAuthorizationUtil.getAuthorizedSubjectsCache(), concurrency,
+                               budgetMS).warmUp(subjects);
+    }
+
+    /**
+     * Look the subjects up, waiting at most for the budget
+     * @param subjects  the subjects, the most important first
+     * @return the number of subjects warmed within the budget
+     */
+    public int warmUp(List<String> subjects) {
+        if (subjects.isEmpty()) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = new ThreadPoolExecutor(
+            concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), runnable -> {
+                Thread thread = new Thread(
+                    runnable, "d1-subject-warmup-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        CountDownLatch done = new CountDownLatch(subjects.size());
+        for (String value : subjects) {
+            executor.execute(() -> {
+                try {
+                    warm(value);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        // let the queued lookups finish, then let the threads go
+        executor.shutdown();
+        try {
+            if (budgetMS > 0 && !done.await(budgetMS, TimeUnit.MILLISECONDS)) {
+                logger.info("The cache warm-up is still running after " + budgetMS + " ms. "
+                                + "Continue it in the background.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Warmed " + warmed.get() + " of " + subjects.size() + " recent subjects ("
+                        + failed.get() + " failed) in " + (System.currentTimeMillis() - start)
+                        + " ms");
+        return warmed.get();
+    }
+
+    /*
+     * Fill the caches for one subject
+     */
+    private void warm(String value) {
+        Subject subject = new Subject();
+        subject.setValue(value);
+        try {
+            SubjectInfo subjectInfo = subjectInfoCache.getSubjectInfo(subject);
+            if (subjectInfo != null) {
+                authorizedSubjectsCache.getAuthorizedSubjects(subject, subjectInfo);
+            }
+            warmed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.debug("Cannot warm the caches for " + value + " since " + e.getMessage());
+        }
+    }
+
+    public int getWarmed() {
+        return warmed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+}
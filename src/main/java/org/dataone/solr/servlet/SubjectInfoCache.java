@@ -0,0 +1,653 @@
+package org.dataone.solr.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.exceptions.InvalidToken;
+import org.dataone.service.exceptions.NotAuthorized;
+import org.dataone.service.exceptions.NotFound;
+import org.dataone.service.exceptions.NotImplemented;
+import org.dataone.service.exceptions.ServiceFailure;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.dataone.service.util.TypeMarshaller;
+import org.dataone.solr.servlet.cache.ExpiringLruCache;
+import org.dataone.solr.servlet.cache.MappedByteStore;
+
+/**
+ * Caches the SubjectInfo objects returned by the CN getSubjectInfo call, so that repeat callers
+ * do not pay a CN round trip on every search.
+ *
+ * Subjects the CN does not know about (NotFound) are cached separately, normally with a shorter
+ * time to live, so a newly registered account is picked up soon.
+ *
+ * A change of group membership or a revoked equivalent identity on the CN is only seen by the
+ * filter once the cached entry expires.
+ *
+ * Concurrent misses for the same subject are coalesced into a single CN call. The call runs on a
+ * small pool of lookup threads and every request thread waiting for it gives up after a wait
+ * budget; the caller then falls back to the subjects provided with the certificate, while the
+ * CN call carries on and fills the cache for later requests. If the queue of the lookup threads is
+ * full, a miss is not queued but answered straight away with the fallback described below.
+ *
+ * The CN calls go through a CnCircuitBreaker. While it refuses them, a miss is answered straight
+ * away with the fallback: nothing, so the certificate subjects are used, or the last SubjectInfo
+ * the CN returned for the subject, however old. The lookUp method tells the caller whether it
+ * got such a fallback, so the caller need not remember what it based on it.
+ *
+ * Optionally the SubjectInfo objects are also kept, deflated, in a memory-mapped store outside
+ * the heap. A miss of the heap cache is looked up there before the CN is asked, and since the
+ * store is a file, a restarted Solr still finds the SubjectInfo objects it fetched before, until
+ * their time to live is over.
+ */
+public class SubjectInfoCache {
+
+    private static Log logger = LogFactory.getLog(SubjectInfoCache.class);
+
+    public final static String ENV_NAME_MAX_SIZE = "D1_SOLR_SUBJECT_INFO_CACHE_SIZE";
+    public final static String ENV_NAME_TTL_SECONDS = "D1_SOLR_SUBJECT_INFO_CACHE_TTL_SECONDS";
+    public final static String ENV_NAME_NOT_FOUND_MAX_SIZE =
+        "D1_SOLR_SUBJECT_INFO_NOT_FOUND_CACHE_SIZE";
+    public final static String ENV_NAME_NOT_FOUND_TTL_SECONDS =
+        "D1_SOLR_SUBJECT_INFO_NOT_FOUND_CACHE_TTL_SECONDS";
+    public final static String SETTING_NAME_MAX_SIZE = "solr.subjectInfoCache.size";
+    public final static String SETTING_NAME_TTL_SECONDS = "solr.subjectInfoCache.ttlSeconds";
+    public final static String SETTING_NAME_NOT_FOUND_MAX_SIZE =
+        "solr.subjectInfoCache.notFound.size";
+    public final static String SETTING_NAME_NOT_FOUND_TTL_SECONDS =
+        "solr.subjectInfoCache.notFound.ttlSeconds";
+    private final static int DEFAULT_MAX_SIZE = 10000;
+    private final static long DEFAULT_TTL_SECONDS = 300L;
+    private final static int DEFAULT_NOT_FOUND_MAX_SIZE = 10000;
+    private final static long DEFAULT_NOT_FOUND_TTL_SECONDS = 60L;
+    public final static String ENV_NAME_WAIT_MS = "D1_SOLR_SUBJECT_INFO_WAIT_MS";
+    public final static String ENV_NAME_LOOKUP_THREADS = "D1_SOLR_SUBJECT_INFO_LOOKUP_THREADS";
+    public final static String SETTING_NAME_WAIT_MS = "solr.subjectInfoCache.waitMS";
+    public final static String SETTING_NAME_LOOKUP_THREADS = "solr.subjectInfoCache.lookupThreads";
+    public final static String ENV_NAME_LOOKUP_QUEUE_SIZE =
+        "D1_SOLR_SUBJECT_INFO_LOOKUP_QUEUE_SIZE";
+    public final static String SETTING_NAME_LOOKUP_QUEUE_SIZE =
+        "solr.subjectInfoCache.lookupQueueSize";
+    private final static long DEFAULT_WAIT_MS = 5000L;
+    private final static int DEFAULT_LOOKUP_THREADS = 8;
+    private final static int DEFAULT_LOOKUP_QUEUE_SIZE = 100;
+    public final static String ENV_NAME_STORE_FILE = "D1_SOLR_SUBJECT_INFO_STORE_FILE";
+    public final static String ENV_NAME_STORE_SLOTS = "D1_SOLR_SUBJECT_INFO_STORE_SLOTS";
+    public final static String ENV_NAME_STORE_SLOT_BYTES = "D1_SOLR_SUBJECT_INFO_STORE_SLOT_BYTES";
+    public final static String ENV_NAME_STORE_TTL_SECONDS =
+        "D1_SOLR_SUBJECT_INFO_STORE_TTL_SECONDS";
+    public final static String SETTING_NAME_STORE_FILE = "solr.subjectInfoStore.file";
+    public final static String SETTING_NAME_STORE_SLOTS = "solr.subjectInfoStore.slots";
+    public final static String SETTING_NAME_STORE_SLOT_BYTES = "solr.subjectInfoStore.slotBytes";
+    public final static String SETTING_NAME_STORE_TTL_SECONDS =
+        "solr.subjectInfoStore.ttlSeconds";
+    private final static int DEFAULT_STORE_SLOTS = 262144;
+    private final static int DEFAULT_STORE_SLOT_BYTES = 2048;
+
+    private final ExpiringLruCache<String, SubjectInfo> subjectInfos;
+    private final ExpiringLruCache<String, Boolean> notFoundSubjects;
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> inFlightLookups =
+        new ConcurrentHashMap<String, CompletableFuture<Result>>();
+    private final int lookupThreads;
+    private final int lookupQueueSize;
+    private ThreadPoolExecutor lookupExecutor;
+    // the filters using the lookup threads, see start and stop
+    private int users = 0;
+    private final long waitMS;
+    private final AtomicLong coalescedLookups = new AtomicLong();
+    private final AtomicLong timedOutWaits = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong rejectedLookups = new AtomicLong();
+    private final CnCircuitBreaker circuitBreaker;
+    // the last answer of the CN per subject, kept past the time to live for the CACHED fallback
+    private final ExpiringLruCache<String, SubjectInfo> lastKnownSubjectInfos;
+    // the off-heap second level, or null
+    private final MappedByteStore store;
+    private final long storeTtlMS;
+    private final AtomicLong storeHits = new AtomicLong();
+
+    /**
+     * Constructor. The filters get theirs from fromConfiguration
+     * @param maxSize  the maximum number of SubjectInfo objects. 0 disables the cache
+     * @param ttlMS  how long a SubjectInfo object is kept
+     * @param notFoundMaxSize  the maximum number of unknown subjects. 0 disables negative caching
+     * @param notFoundTtlMS  how long an unknown subject is remembered
+     * @param waitMS  how long a request waits for a CN lookup. 0 or less waits until it is done
+     * @param lookupThreads  the number of threads calling the CN
+     * @param lookupQueueSize  the number of lookups waiting for a thread, beyond which a miss is
+     *                         answered with the fallback
+     * @param circuitBreaker  the breaker guarding the CN calls
+     * @param store  the off-heap store of SubjectInfo objects. It may be null
+     * @param storeTtlMS  how long a SubjectInfo object is kept in the store
+     */
+    SubjectInfoCache(int maxSize, long ttlMS, int notFoundMaxSize, long notFoundTtlMS,
+                     long waitMS, int lookupThreads, int lookupQueueSize,
+                     CnCircuitBreaker circuitBreaker, MappedByteStore store, long storeTtlMS) {
+        this.circuitBreaker = circuitBreaker;
+        this.store = store;
+        this.storeTtlMS = storeTtlMS;
+        lastKnownSubjectInfos = new ExpiringLruCache<String, SubjectInfo>(
+            circuitBreaker.getFallback() == CnCircuitBreaker.Fallback.CACHED ? maxSize : 0,
+            Long.MAX_VALUE);
+        subjectInfos = new ExpiringLruCache<String, SubjectInfo>(maxSize, ttlMS);
+        notFoundSubjects = new ExpiringLruCache<String, Boolean>(notFoundMaxSize, notFoundTtlMS);
+        this.waitMS = waitMS;
+        this.lookupThreads = Math.max(1, lookupThreads);
+        this.lookupQueueSize = Math.max(1, lookupQueueSize);
+        lookupExecutor = newLookupExecutor();
+    }
+
+    /*
+     * The pool of lookup threads. The threads time out when idle, and a full queue rejects the
+     * lookup instead of holding it until the request has long given up
+     */
+    private ThreadPoolExecutor newLookupExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            lookupThreads, lookupThreads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(lookupQueueSize), runnable -> {
+                Thread thread = new Thread(
+                    runnable, "d1-subjectinfo-lookup-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Register a filter as a user of the lookup threads. If the last user stopped them, they
+     * are started again.
+     */
+    public synchronized void start() {
+        users++;
+        if (lookupExecutor.isShutdown()) {
+            lookupExecutor = newLookupExecutor();
+            logger.info("Restarted the subject info lookup threads");
+        }
+    }
+
+    /**
+     * Unregister a filter. The lookup threads are shut down when the last user is gone; a miss
+     * after that is answered with the fallback.
+     */
+    public synchronized void stop() {
+        users--;
+        if (users <= 0) {
+            lookupExecutor.shutdownNow();
+            users = 0;
+            logger.info("Stopped the subject info lookup threads");
+        }
+    }
+
+    /**
+     * Create a cache from the environmental variables and the settings
+     * @param circuitBreaker  the breaker guarding the CN calls
+     * @return a SubjectInfoCache object
+     */
+    public static SubjectInfoCache fromConfiguration(CnCircuitBreaker circuitBreaker) {
+        int maxSize = ConfigurationUtil.getInt(ENV_NAME_MAX_SIZE, SETTING_NAME_MAX_SIZE,
+                                               DEFAULT_MAX_SIZE);
+        long ttlSeconds = ConfigurationUtil.getLong(ENV_NAME_TTL_SECONDS, SETTING_NAME_TTL_SECONDS,
+                                                    DEFAULT_TTL_SECONDS);
+        int notFoundMaxSize = ConfigurationUtil.getInt(ENV_NAME_NOT_FOUND_MAX_SIZE,
+                                                       SETTING_NAME_NOT_FOUND_MAX_SIZE,
+                                                       DEFAULT_NOT_FOUND_MAX_SIZE);
+        long notFoundTtlSeconds = ConfigurationUtil.getLong(ENV_NAME_NOT_FOUND_TTL_SECONDS,
+                                                            SETTING_NAME_NOT_FOUND_TTL_SECONDS,
+                                                            DEFAULT_NOT_FOUND_TTL_SECONDS);
+        long waitMS = ConfigurationUtil.getLong(ENV_NAME_WAIT_MS, SETTING_NAME_WAIT_MS,
+                                                DEFAULT_WAIT_MS);
+        int lookupThreads = ConfigurationUtil.getInt(ENV_NAME_LOOKUP_THREADS,
+                                                     SETTING_NAME_LOOKUP_THREADS,
+                                                     DEFAULT_LOOKUP_THREADS);
+        int lookupQueueSize = ConfigurationUtil.getInt(ENV_NAME_LOOKUP_QUEUE_SIZE,
+                                                       SETTING_NAME_LOOKUP_QUEUE_SIZE,
+                                                       DEFAULT_LOOKUP_QUEUE_SIZE);
+        long storeTtlSeconds = ConfigurationUtil.getLong(ENV_NAME_STORE_TTL_SECONDS,
+                                                         SETTING_NAME_STORE_TTL_SECONDS,
+                                                         ttlSeconds);
+        MappedByteStore store = openStore();
+        logger.info("SubjectInfo cache size " + maxSize + " ttl " + ttlSeconds + "s; not found "
+                        + "cache size " + notFoundMaxSize + " ttl " + notFoundTtlSeconds + "s; "
+                        + "wait " + waitMS + "ms with " + lookupThreads + " lookup threads "
+                        + "and a queue of " + lookupQueueSize + "; "
+                        + "store " + (store == null ? "disabled" : store + " ttl "
+                        + storeTtlSeconds + "s"));
+        return new SubjectInfoCache(maxSize, ttlSeconds * 1000L, notFoundMaxSize,
+                                    notFoundTtlSeconds * 1000L, waitMS, lookupThreads,
+                                    lookupQueueSize, circuitBreaker, store,
+                                    storeTtlSeconds * 1000L);
+    }
+
+    /*
+     * Open the configured off-heap store
+     * @return the store, or null if no file is configured or it cannot be opened
+     */
+    private static MappedByteStore openStore() {
+        String file = ConfigurationUtil.getString(ENV_NAME_STORE_FILE, SETTING_NAME_STORE_FILE,
+                                                  "");
+        if (file.isBlank()) {
+            return null;
+        }
+        int slots = ConfigurationUtil.getInt(ENV_NAME_STORE_SLOTS, SETTING_NAME_STORE_SLOTS,
+                                             DEFAULT_STORE_SLOTS);
+        int slotBytes = ConfigurationUtil.getInt(ENV_NAME_STORE_SLOT_BYTES,
+                                                 SETTING_NAME_STORE_SLOT_BYTES,
+                                                 DEFAULT_STORE_SLOT_BYTES);
+        try {
+            return new MappedByteStore(Paths.get(file.trim()), slots, slotBytes);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot open the subject info store " + file + " since "
+                            + e.getMessage() + " So it is disabled.");
+            return null;
+        }
+    }
+
+    /**
+     * Get the SubjectInfo of the subject, from the cache if possible, otherwise from the CN.
+     * If another request is already asking the CN about the same subject, wait for its answer
+     * instead of asking again.
+     * @param subject  the subject to look up
+     * @return the SubjectInfo object, or null if the CN does not know the subject. If the CN did
+     *         not answer within the wait budget, the circuit breaker is open or the lookup queue is
+     *         full, it is the fallback SubjectInfo, which may be null
+     * @throws ServiceFailure
+     * @throws NotAuthorized
+     * @throws NotImplemented
+     * @throws InvalidToken
+     */
+    public SubjectInfo getSubjectInfo(Subject subject)
+        throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
+        return lookUp(subject).getSubjectInfo();
+    }
+
+    /**
+     * Look the subject up like getSubjectInfo, and tell whether the answer is the fallback
+     * @param subject  the subject to look up
+     * @return the result of the lookup
+     * @throws ServiceFailure
+     * @throws NotAuthorized
+     * @throws NotImplemented
+     * @throws InvalidToken
+     */
+    public Result lookUp(Subject subject)
+        throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
+        String key = subject.getValue();
+        SubjectInfo subjectInfo = subjectInfos.get(key);
+        if (subjectInfo != null) {
+            logger.debug("SubjectInfo cache hit for " + key);
+            return new Result(subjectInfo, false);
+        }
+        if (notFoundSubjects.get(key) != null) {
+            logger.debug("SubjectInfo not found cache hit for " + key);
+            return Result.NOT_FOUND;
+        }
+        subjectInfo = getStored(key);
+        if (subjectInfo != null) {
+            return new Result(subjectInfo, false);
+        }
+        CompletableFuture<Result> lookup = inFlightLookups.get(key);
+        if (lookup == null) {
+            CompletableFuture<Result> newLookup = new CompletableFuture<Result>();
+            lookup = inFlightLookups.putIfAbsent(key, newLookup);
+            if (lookup == null) {
+                lookup = newLookup;
+                if (!circuitBreaker.allowCall()) {
+                    logger.debug("The CN circuit breaker is open. Do not look up " + key);
+                    Result fallback = getFallback(subject);
+                    newLookup.complete(fallback);
+                    inFlightLookups.remove(key, newLookup);
+                    return fallback;
+                }
+                if (!startLookup(subject, newLookup)) {
+                    return newLookup.join();
+                }
+                return awaitLookup(subject, lookup);
+            }
+        }
+        logger.debug("Join the in-flight subject info lookup for " + key);
+        coalescedLookups.incrementAndGet();
+        return awaitLookup(subject, lookup);
+    }
+
+    /*
+     * Ask the CN on a lookup thread and complete the future with the answer. If the lookup
+     * threads are busy with a full queue or stopped, complete it with the fallback instead
+     * @return false if the lookup was not started
+     */
+    private boolean startLookup(Subject subject, CompletableFuture<Result> lookup) {
+        String key = subject.getValue();
+        try {
+            getLookupExecutor().execute(() -> {
+                // cache the answer before the lookup leaves the in-flight map, and leave the
+                // map before waking the waiters, so a request arriving in between finds the
+                // answer in the cache instead of joining a finished lookup
+                SubjectInfo subjectInfo = null;
+                Throwable failure = null;
+                long start = System.currentTimeMillis();
+                try {
+                    subjectInfo = fetchSubjectInfo(subject);
+                    circuitBreaker.recordSuccess(System.currentTimeMillis() - start);
+                    if (subjectInfo != null) {
+                        subjectInfos.put(key, subjectInfo);
+                        lastKnownSubjectInfos.put(key, subjectInfo);
+                        store(key, subjectInfo);
+                    }
+                } catch (NotFound e) {
+                    circuitBreaker.recordSuccess(System.currentTimeMillis() - start);
+                    notFoundSubjects.put(key, Boolean.TRUE);
+                    lastKnownSubjectInfos.remove(key);
+                    if (store != null) {
+                        store.remove(key);
+                    }
+                } catch (NotAuthorized | NotImplemented | InvalidToken e) {
+                    // the CN answered, it just did not like the question
+                    circuitBreaker.recordSuccess(System.currentTimeMillis() - start);
+                    failure = e;
+                } catch (Throwable e) {
+                    circuitBreaker.recordFailure();
+                    failure = e;
+                } finally {
+                    inFlightLookups.remove(key, lookup);
+                }
+                if (failure != null) {
+                    lookup.completeExceptionally(failure);
+                } else {
+                    lookup.complete(subjectInfo == null ? Result.NOT_FOUND
+                        : new Result(subjectInfo, false));
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedLookups.incrementAndGet();
+            logger.warn("The subject info lookup queue is full or stopped. So the fallback "
+                            + "subject info of " + key + " will be used.");
+            Result fallback = getFallback(subject);
+            inFlightLookups.remove(key, lookup);
+            lookup.complete(fallback);
+            return false;
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getLookupExecutor() {
+        return lookupExecutor;
+    }
+
+    /*
+     * Wait for the lookup within the wait budget and translate its failure
+     */
+    private Result awaitLookup(Subject subject, CompletableFuture<Result> lookup)
+        throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken {
+        try {
+            if (waitMS > 0) {
+                return lookup.get(waitMS, TimeUnit.MILLISECONDS);
+            } else {
+                return lookup.get();
+            }
+        } catch (TimeoutException e) {
+            timedOutWaits.incrementAndGet();
+            logger.warn("The CN did not return the subject info of " + subject.getValue()
+                            + " within " + waitMS + " ms. So the fallback subject info will be "
+                            + "used.");
+            return getFallback(subject);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceFailure("0000", "Interrupted while looking up the subject info of "
+                + subject.getValue());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceFailure) {
+                throw (ServiceFailure) cause;
+            } else if (cause instanceof NotAuthorized) {
+                throw (NotAuthorized) cause;
+            } else if (cause instanceof NotImplemented) {
+                throw (NotImplemented) cause;
+            } else if (cause instanceof InvalidToken) {
+                throw (InvalidToken) cause;
+            }
+            throw new ServiceFailure("0000", "Cannot look up the subject info of "
+                + subject.getValue() + " since " + cause);
+        }
+    }
+
+    /*
+     * The SubjectInfo to use when the CN cannot be asked: the last one it returned if the
+     * fallback is CACHED, else null so the subjects in the certificate are used
+     */
+    private Result getFallback(Subject subject) {
+        fallbacks.incrementAndGet();
+        SubjectInfo subjectInfo = lastKnownSubjectInfos.get(subject.getValue());
+        if (subjectInfo != null) {
+            logger.info("Use the last known subject info of " + subject.getValue());
+        }
+        return new Result(subjectInfo, true);
+    }
+
+    /*
+     * Look the subject up in the off-heap store and move a hit into the heap cache for the
+     * rest of its time to live
+     */
+    private SubjectInfo getStored(String key) {
+        if (store == null) {
+            return null;
+        }
+        MappedByteStore.Entry entry = store.get(key);
+        if (entry == null) {
+            return null;
+        }
+        try (InflaterInputStream in = new InflaterInputStream(
+                new ByteArrayInputStream(entry.getValue()))) {
+            SubjectInfo subjectInfo = TypeMarshaller.unmarshalTypeFromStream(SubjectInfo.class,
+                                                                             in);
+            long remainingMS = Math.min(entry.getExpiresAtMS() - System.currentTimeMillis(),
+                                        subjectInfos.getDefaultTtlMS());
+            subjectInfos.put(key, subjectInfo, remainingMS);
+            lastKnownSubjectInfos.put(key, subjectInfo);
+            storeHits.incrementAndGet();
+            logger.debug("SubjectInfo store hit for " + key);
+            return subjectInfo;
+        } catch (Exception e) {
+            logger.warn("Cannot read the stored subject info of " + key + " since "
+                            + e.getMessage());
+            store.remove(key);
+            return null;
+        }
+    }
+
+    /*
+     * Save the SubjectInfo in the off-heap store, deflated
+     */
+    private void store(String key, SubjectInfo subjectInfo) {
+        if (store == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+            TypeMarshaller.marshalTypeToOutputStream(subjectInfo, out);
+        } catch (Exception e) {
+            logger.warn("Cannot store the subject info of " + key + " since " + e.getMessage());
+            return;
+        }
+        if (!store.put(key, bytes.toByteArray(), storeTtlMS)) {
+            logger.debug("The subject info of " + key + " takes " + bytes.size()
+                             + " bytes, which do not fit in a slot of the store");
+        }
+    }
+
+    /**
+     * Get the SubjectInfo of the subject from the CN, or from one of its replicas if it is slow
+     * @param subject  the subject to look up
+     * @return the SubjectInfo object
+     * @throws NotFound  if the CN does not know the subject
+     */
+    protected SubjectInfo fetchSubjectInfo(Subject subject)
+        throws ServiceFailure, NotAuthorized, NotImplemented, InvalidToken, NotFound {
+        return SessionAuthorizationFilterStrategy.getCnClient().getSubjectInfo(subject);
+    }
+
+    /**
+     * Drop whatever is cached for the subject
+     * @param subject  the subject
+     */
+    public void invalidate(Subject subject) {
+        if (subject != null) {
+            subjectInfos.remove(subject.getValue());
+            notFoundSubjects.remove(subject.getValue());
+            lastKnownSubjectInfos.remove(subject.getValue());
+            if (store != null) {
+                store.remove(subject.getValue());
+            }
+        }
+    }
+
+    /**
+     * Drop everything
+     */
+    public void clear() {
+        subjectInfos.clear();
+        notFoundSubjects.clear();
+        lastKnownSubjectInfos.clear();
+        if (store != null) {
+            store.clear();
+        }
+    }
+
+    public long getHits() {
+        return subjectInfos.getHits() + notFoundSubjects.getHits();
+    }
+
+    /**
+     * @return the number of lookups which had to go to the CN
+     */
+    public long getMisses() {
+        return subjectInfos.getMisses() - notFoundSubjects.getHits() - storeHits.get();
+    }
+
+    public long getEvictions() {
+        return subjectInfos.getEvictions() + notFoundSubjects.getEvictions();
+    }
+
+    public long getNotFoundHits() {
+        return notFoundSubjects.getHits();
+    }
+
+    /**
+     * @return the number of requests which shared a CN call started by another request
+     */
+    public long getCoalescedLookups() {
+        return coalescedLookups.get();
+    }
+
+    /**
+     * @return the number of requests which gave up waiting for the CN
+     */
+    public long getTimedOutWaits() {
+        return timedOutWaits.get();
+    }
+
+    /**
+     * @return the number of lookups answered with the fallback because the CN could not be
+     *         asked or did not answer in time
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /**
+     * @return the number of lookups answered with the fallback because the queue of the lookup
+     *         threads was full or they were stopped
+     */
+    public long getRejectedLookups() {
+        return rejectedLookups.get();
+    }
+
+    /**
+     * @return the number of heap cache misses answered by the off-heap store
+     */
+    public long getStoreHits() {
+        return storeHits.get();
+    }
+
+    /**
+     * @return the off-heap store, or null if there is none
+     */
+    public MappedByteStore getStore() {
+        return store;
+    }
+
+    public CnCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return the maximum number of SubjectInfo objects held on the heap
+     */
+    public int getMaxSize() {
+        return subjectInfos.getMaxSize();
+    }
+
+    public int size() {
+        return subjectInfos.size();
+    }
+
+    public int notFoundSize() {
+        return notFoundSubjects.size();
+    }
+
+    @Override
+    public String toString() {
+        return "SubjectInfoCache hits=" + getHits() + " misses=" + getMisses() + " evictions="
+            + getEvictions() + " coalesced=" + getCoalescedLookups() + " timedOut="
+            + getTimedOutWaits() + " fallbacks=" + getFallbacks() + " storeHits="
+            + getStoreHits() + " [found: " + subjectInfos + "] [not found: " + notFoundSubjects
+            + "]" + (store == null ? "" : " [store: " + store + "]");
+    }
+
+    /**
+     * The answer of a lookup
+     */
+    public static final class Result {
+        private static final Result NOT_FOUND = new Result(null, false);
+
+        private final SubjectInfo subjectInfo;
+        private final boolean fallback;
+
+        private Result(SubjectInfo subjectInfo, boolean fallback) {
+            this.subjectInfo = subjectInfo;
+            this.fallback = fallback;
+        }
+
+        /**
+         * @return the SubjectInfo object, or null if the CN does not know the subject or the
+         *         fallback is the certificate
+         */
+        public SubjectInfo getSubjectInfo() {
+            return subjectInfo;
+        }
+
+        /**
+         * @return true if the CN was not asked or did not answer in time, so the SubjectInfo is
+         *         the fallback rather than the current answer of the CN
+         */
+        public boolean isFallback() {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.dataone.solr.servlet;
+
+import java.text.ParseException;
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.JWTParser;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.portal.PortalCertificateManager;
+import org.dataone.service.types.v1.Session;
+import org.dataone.solr.servlet.cache.DigestUtil;
+import org.dataone.solr.servlet.cache.ExpiringLruCache;
+
+/**
+ * Caches the sessions PortalCertificateManager builds from the token in the Authorization
+ * header, keyed by the SHA-256 digest of the header value, so a portal user making a burst of
+ * searches only pays the signature verification once per token.
+ *
+ * An entry lives until the exp claim of the token or the maximum time to live, whichever comes
+ * first. The claim is read from the token claims only after PortalCertificateManager verified
+ * the token, with the JWT library PortalCertificateManager uses. The cached Session objects are shared by the requests and must not be modified.
+ */
+public class TokenSessionCache {
+
+    private static Log logger = LogFactory.getLog(TokenSessionCache.class);
+
+    public final static String ENV_NAME_MAX_SIZE = "D1_SOLR_TOKEN_SESSION_CACHE_SIZE";
+    public final static String ENV_NAME_MAX_TTL_SECONDS =
+        "D1_SOLR_TOKEN_SESSION_CACHE_MAX_TTL_SECONDS";
+    public final static String SETTING_NAME_MAX_SIZE = "solr.tokenSessionCache.size";
+    public final static String SETTING_NAME_MAX_TTL_SECONDS =
+        "solr.tokenSessionCache.maxTtlSeconds";
+    private final static int DEFAULT_MAX_SIZE = 10000;
+    private final static long DEFAULT_MAX_TTL_SECONDS = 600L;
+
+    private static final String D1_AUTHORIZATION_TOKEN_HEADER = "Authorization";
+    private static final String MOD_HEADER_NULL = "(null)";
+    private static final String BEARER = "Bearer ";
+
+    private final ExpiringLruCache<String, Session> sessions;
+
+    /**
+     * Constructor
+     * @param maxSize  the maximum number of sessions. 0 disables the cache
+     * @param maxTtlMS  how long a session is kept at most
+     */
+    public TokenSessionCache(int maxSize, long maxTtlMS) {
+        sessions = new ExpiringLruCache<String, Session>(maxSize, maxTtlMS);
+    }
+
+    /**
+     * Create a cache from the environmental variables and the settings
+     * @return a TokenSessionCache object
+     */
+    public static TokenSessionCache fromConfiguration() {
+        int maxSize = ConfigurationUtil.getInt(ENV_NAME_MAX_SIZE, SETTING_NAME_MAX_SIZE,
+                                               DEFAULT_MAX_SIZE);
+        long maxTtlSeconds = ConfigurationUtil.getLong(ENV_NAME_MAX_TTL_SECONDS,
+                                                       SETTING_NAME_MAX_TTL_SECONDS,
+                                                       DEFAULT_MAX_TTL_SECONDS);
+        logger.info("Token session cache size " + maxSize + " max ttl " + maxTtlSeconds + "s");
+        return new TokenSessionCache(maxSize, maxTtlSeconds * 1000L);
+    }
+
+    /**
+     * Get the session of the token in the Authorization header of the request. A request
+     * without a token goes straight to PortalCertificateManager.
+     * @param request  the request
+     * @return the session, or null if there is none
+     * @throws Exception  if PortalCertificateManager cannot build the session
+     */
+    public Session getSession(HttpServletRequest request) throws Exception {
+        String token = request.getHeader(D1_AUTHORIZATION_TOKEN_HEADER);
+        if (token == null || token.isBlank() || token.equals(MOD_HEADER_NULL)
+                || !sessions.isEnabled()) {
+            return fetchSession(request);
+        }
+        String key = DigestUtil.sha256Hex(token);
+        Session session = sessions.get(key);
+        if (session == null) {
+            session = fetchSession(request);
+            if (session != null) {
+                long ttlMS = sessions.getDefaultTtlMS();
+                long expMS = getExpirationMS(token);
+                if (expMS > 0) {
+                    ttlMS = Math.min(ttlMS, expMS - System.currentTimeMillis());
+                }
+                // put ignores a ttl of 0 or less, so an expired token is not cached
+                sessions.put(key, session, ttlMS);
+            }
+        } else {
+            logger.debug("Found the session of " + session.getSubject().getValue()
+                             + " for the token in the cache");
+        }
+        return session;
+    }
+
+    /**
+     * Build the session from the request, verifying the token
+     * @param request  the request
+     * @return the session, or null if there is none
+     * @throws Exception
+     */
+    protected Session fetchSession(HttpServletRequest request) throws Exception {
+        return PortalCertificateManager.getInstance().getSession(request);
+    }
+
+    /**
+     * Read the top-level exp claim of a JSON web token without verifying it
+     * @param token  the token, optionally with the Bearer prefix
+     * @return the expiration time in milliseconds, or 0 if it cannot be read
+     */
+    protected static long getExpirationMS(String token) {
+        String jwt = token.startsWith(BEARER) ? token.substring(BEARER.length()).trim() : token;
+        try {
+            // the claims of an encrypted token are null
+            JWTClaimsSet claims = JWTParser.parse(jwt).getJWTClaimsSet();
+            Date expiration = claims == null ? null : claims.getExpirationTime();
+            if (expiration != null) {
+                return expiration.getTime();
+            }
+        } catch (ParseException e) {
+            logger.debug("Cannot read the exp claim of the token since " + e.getMessage());
+        }
+        return 0L;
+    }
+
+    public void clear() {
+        sessions.clear();
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public long getHits() {
+        return sessions.getHits();
+    }
+
+    public long getMisses() {
+        return sessions.getMisses();
+    }
+}
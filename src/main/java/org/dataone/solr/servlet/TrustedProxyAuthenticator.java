@@ -0,0 +1,174 @@
+package org.dataone.solr.servlet;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Session;
+import org.dataone.service.types.v1.Subject;
+
+/**
+ * An opt-in fast path for deployments where apache terminates TLS and forwards the verified
+ * subject DN and fingerprint of the client certificate in request headers. For requests coming
+ * from one of the trusted proxy addresses the session is built from those headers, skipping
+ * the PEM rebuild and the certificate parse of validateSSLAttributes.
+ *
+ * The proxy has to set (or unset) the headers on every request, otherwise a client could supply
+ * them itself. Sessions built here carry no SubjectInfo from a certificate extension, so the
+ * groups and equivalent identities of the subject come from the CN.
+ */
+public class TrustedProxyAuthenticator {
+
+    private static Log logger = LogFactory.getLog(TrustedProxyAuthenticator.class);
+
+    public final static String ENV_NAME_ENABLED = "D1_SOLR_TRUSTED_PROXY_ENABLED";
+    public final static String ENV_NAME_ADDRESSES = "D1_SOLR_TRUSTED_PROXY_ADDRESSES";
+    public final static String ENV_NAME_SUBJECT_HEADER = "D1_SOLR_TRUSTED_PROXY_SUBJECT_HEADER";
+    public final static String ENV_NAME_FINGERPRINT_HEADER =
+        "D1_SOLR_TRUSTED_PROXY_FINGERPRINT_HEADER";
+    public final static String SETTING_NAME_ENABLED = "solr.trustedProxy.enabled";
+    public final static String SETTING_NAME_ADDRESSES = "solr.trustedProxy.addresses";
+    public final static String SETTING_NAME_SUBJECT_HEADER = "solr.trustedProxy.subjectHeader";
+    public final static String SETTING_NAME_FINGERPRINT_HEADER =
+        "solr.trustedProxy.fingerprintHeader";
+    private final static String DEFAULT_ADDRESSES = "127.0.0.1;::1";
+    private final static String DEFAULT_SUBJECT_HEADER = "SSL_CLIENT_S_DN";
+    private final static String DEFAULT_FINGERPRINT_HEADER = "SSL_CLIENT_FINGERPRINT";
+
+    /**
+     * The request attribute under which the session built from the proxy headers is stored
+     */
+    public static final String SESSION_ATTR = "org.dataone.solr.trustedProxy.session";
+    /**
+     * The request attribute under which the certificate fingerprint forwarded by the proxy is
+     * stored
+     */
+    public static final String FINGERPRINT_ATTR = "org.dataone.solr.trustedProxy.fingerprint";
+
+    // The same headers validateSSLAttributes reads
+    private static final String SSL_CLIENT_VERIFY_HEADER = "SSL_CLIENT_VERIFY";
+    private static final String MOD_HEADER_NULL = "(null)";
+
+    private final boolean enabled;
+    private final Set<String> trustedAddresses;
+    private final String subjectHeader;
+    private final String fingerprintHeader;
+
+    /**
+     * Constructor
+     * @param enabled  if false, getSession always returns null
+     * @param addresses  the addresses of the trusted proxies. Host names are resolved once, here
+     * @param subjectHeader  the header carrying the verified subject DN
+     * @param fingerprintHeader  the header carrying the certificate fingerprint
+     */
+    public TrustedProxyAuthenticator(boolean enabled, List<String> addresses,
+                                     String subjectHeader, String fingerprintHeader) {
+        Set<String> normalized = new HashSet<String>();
+        if (addresses != null) {
+            for (String address : addresses) {
+                try {
+                    // the servlet container reports the remote address in this form
+                    normalized.add(InetAddress.getByName(address).getHostAddress());
+                } catch (UnknownHostException e) {
+                    logger.warn("Ignore the trusted proxy address " + address + " since "
+                                    + e.getMessage());
+                }
+            }
+        }
+        this.trustedAddresses = Collections.unmodifiableSet(normalized);
+        this.enabled = enabled && !trustedAddresses.isEmpty();
+        this.subjectHeader = subjectHeader;
+        this.fingerprintHeader = fingerprintHeader;
+    }
+
+    /**
+     * Create an authenticator from the environmental variables and the settings
+     * @return a TrustedProxyAuthenticator object. It is disabled unless configured otherwise
+     */
+    public static TrustedProxyAuthenticator fromConfiguration() {
+        boolean enabled = ConfigurationUtil.getBoolean(ENV_NAME_ENABLED, SETTING_NAME_ENABLED,
+                                                       false);
+        List<String> addresses = SessionAuthorizationFilterStrategy.splitTextBySemicolon(
+            ConfigurationUtil.getString(ENV_NAME_ADDRESSES, SETTING_NAME_ADDRESSES,
+                                        DEFAULT_ADDRESSES));
+        String subjectHeader = ConfigurationUtil.getString(ENV_NAME_SUBJECT_HEADER,
+                                                           SETTING_NAME_SUBJECT_HEADER,
+                                                           DEFAULT_SUBJECT_HEADER);
+        String fingerprintHeader = ConfigurationUtil.getString(ENV_NAME_FINGERPRINT_HEADER,
+                                                               SETTING_NAME_FINGERPRINT_HEADER,
+                                                               DEFAULT_FINGERPRINT_HEADER);
+        TrustedProxyAuthenticator authenticator = new TrustedProxyAuthenticator(
+            enabled, addresses, subjectHeader, fingerprintHeader);
+        if (authenticator.isEnabled()) {
+            logger.info("Trust the subject header " + subjectHeader + " from the proxies "
+                            + authenticator.trustedAddresses);
+        }
+        return authenticator;
+    }
+
+    /**
+     * Build the session from the headers set by a trusted proxy
+     * @param request  the request
+     * @return the session, or null if the mode is off, the request does not come from a trusted
+     *         proxy, or the proxy did not forward a verified subject
+     */
+    public Session getSession(HttpServletRequest request) {
+        if (!isTrusted(request)) {
+            return null;
+        }
+        String dn = request.getHeader(subjectHeader);
+        if (dn == null || dn.isBlank() || dn.equals(MOD_HEADER_NULL)) {
+            return null;
+        }
+        String standardizedName = SessionAuthorizationUtil.getStandardizedDNCache().standardize(dn);
+        Subject subject = new Subject();
+        subject.setValue(standardizedName);
+        Session session = new Session();
+        session.setSubject(subject);
+        request.setAttribute(SESSION_ATTR, session);
+        String fingerprint = getFingerprint(request);
+        if (fingerprint != null) {
+            request.setAttribute(FINGERPRINT_ATTR, fingerprint);
+        }
+        logger.debug("Built the session of " + standardizedName + " from the trusted proxy "
+                         + request.getRemoteAddr());
+        return session;
+    }
+
+    /**
+     * @param request  the request
+     * @return true if the mode is on and the request comes from a trusted proxy which verified
+     *         the client certificate
+     */
+    public boolean isTrusted(HttpServletRequest request) {
+        return enabled && trustedAddresses.contains(request.getRemoteAddr())
+            && "SUCCESS".equals(request.getHeader(SSL_CLIENT_VERIFY_HEADER));
+    }
+
+    /**
+     * @param request  the request
+     * @return the certificate fingerprint forwarded by the proxy, or null if there is none
+     */
+    public String getFingerprint(HttpServletRequest request) {
+        String fingerprint = request.getHeader(fingerprintHeader);
+        if (fingerprint == null || fingerprint.isBlank() || fingerprint.equals(MOD_HEADER_NULL)) {
+            return null;
+        }
+        return fingerprint;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Set<String> getTrustedAddresses() {
+        return trustedAddresses;
+    }
+}
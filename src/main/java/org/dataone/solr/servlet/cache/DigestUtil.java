@@ -0,0 +1,50 @@
+package org.dataone.solr.servlet.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the digests used as cache keys for credentials, so the caches never hold a raw
+ * certificate or token as a key.
+ */
+public class DigestUtil {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // MessageDigest objects are not thread safe, so each thread keeps its own
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    });
+
+    private DigestUtil() {
+    }
+
+    /**
+     * @param value  the text to digest. It is encoded in UTF-8
+     * @return the lower case hex SHA-256 digest of the value
+     */
+    public static String sha256Hex(String value) {
+        return sha256Hex(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param value  the bytes to digest
+     * @return the lower case hex SHA-256 digest of the value
+     */
+    public static String sha256Hex(byte[] value) {
+        MessageDigest digest = SHA_256.get();
+        digest.reset();
+        byte[] hash = digest.digest(value);
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,221 @@
+package org.dataone.solr.servlet.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+/**
+ * A small, bounded, least-recently-used cache whose entries expire after a time to live.
+ *
+ * The filters run on every Solr request, so the cache is kept deliberately simple: an
+ * access-ordered LinkedHashMap guarded by the instance monitor. The critical sections are a
+ * single map operation, which is far cheaper than the remote calls the cache is meant to avoid.
+ *
+ * A maximum size of zero (or less) disables the cache; puts are ignored and every get misses.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxSize;
+    private final long defaultTtlMS;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param maxSize  the maximum number of entries held before the least recently used one is
+     *                 evicted
+     * @param defaultTtlMS  the time to live in milliseconds used by {@link #put(Object, Object)}
+     */
+    public ExpiringLruCache(int maxSize, long defaultTtlMS) {
+        this.maxSize = maxSize;
+        this.defaultTtlMS = defaultTtlMS;
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > ExpiringLruCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the value mapped to the key
+     * @param key  the key to look up
+     * @return the value, or null if there is no live entry for the key
+     */
+    public V get(K key) {
+        if (key == null || !isEnabled()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        synchronized (this) {
+            CacheEntry<V> entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (entry.expiresAtMS <= now()) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    /**
+     * Map the key to the value for the default time to live
+     * @param key  the key
+     * @param value  the value. A null value removes the mapping
+     */
+    public void put(K key, V value) {
+        put(key, value, defaultTtlMS);
+    }
+
+    /**
+     * Map the key to the value for the given time to live
+     * @param key  the key
+     * @param value  the value. A null value removes the mapping
+     * @param ttlMS  the time to live in milliseconds. Zero or less means the value is not cached
+     */
+    public void put(K key, V value, long ttlMS) {
+        if (key == null || !isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            if (value == null || ttlMS <= 0) {
+                entries.remove(key);
+            } else {
+                long now = now();
+                // Long.MAX_VALUE means the entry only leaves the cache by eviction
+                long expiresAtMS = ttlMS > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttlMS;
+                entries.put(key, new CacheEntry<V>(value, expiresAtMS));
+            }
+        }
+    }
+
+    /**
+     * Remove the mapping of the key
+     * @param key  the key
+     */
+    public synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Remove all mappings
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Remove all expired mappings
+     */
+    public synchronized void purgeExpired() {
+        long nowMS = now();
+        for (Iterator<CacheEntry<V>> it = entries.values().iterator(); it.hasNext();) {
+            if (it.next().expiresAtMS <= nowMS) {
+                it.remove();
+                expirations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove the mappings matching a condition. The whole cache is scanned, so this is meant for
+     * rare invalidations rather than the request path.
+     * @param condition  the condition on the key and the value
+     * @return the keys of the removed mappings
+     */
+    public synchronized List<K> removeIf(BiPredicate<? super K, ? super V> condition) {
+        List<K> removed = new ArrayList<K>();
+        for (Iterator<Map.Entry<K, CacheEntry<V>>> it = entries.entrySet().iterator();
+                it.hasNext();) {
+            Map.Entry<K, CacheEntry<V>> entry = it.next();
+            if (condition.test(entry.getKey(), entry.getValue().value)) {
+                it.remove();
+                removed.add(entry.getKey());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of mappings, including ones which have expired but not been purged yet
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if the cache holds anything at all
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getDefaultTtlMS() {
+        return defaultTtlMS;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     * The current time in milliseconds. Tests may override it.
+     * @return the current time
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + " max=" + maxSize + " hits=" + getHits() + " misses="
+            + getMisses() + " evictions=" + getEvictions() + " expirations=" + getExpirations();
+    }
+
+    private static final class CacheEntry<V> {
+        private final V value;
+        private final long expiresAtMS;
+
+        private CacheEntry(V value, long expiresAtMS) {
+            this.value = value;
+            this.expiresAtMS = expiresAtMS;
+        }
+    }
+}
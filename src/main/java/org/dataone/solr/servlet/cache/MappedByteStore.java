@@ -0,0 +1,407 @@
+package org.dataone.solr.servlet.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed-size store of byte values keyed by strings, kept in a memory-mapped file rather than
+ * on the heap. The file outlives the JVM, so a restarted process finds the values it stored
+ * before, as long as they have not expired.
+ *
+ * The file is a header followed by slots of the same size. A key hashes to a home slot and may
+ * live in any of the PROBES slots from there; when they are all taken by live entries, the one
+ * closest to expiry is overwritten. Each slot holds the key, so hash collisions are detected, and
+ * a checksum of its content, so a slot torn by a crash reads as empty. A value which does not fit
+ * in a slot is not stored.
+ *
+ * A file written with another slot count or slot size is cleared when it is opened.
+ */
+public class MappedByteStore implements Closeable {
+
+    private final static int MAGIC = 0x44315342; // D1SB
+    private final static int VERSION = 1;
+    private final static int HEADER_BYTES = 64;
+    private final static int SLOT_HEADER_BYTES = 32;
+    private final static int MIN_SLOT_BYTES = 64;
+    private final static int PROBES = 8;
+    // offsets within a slot
+    private final static int HASH = 0;
+    private final static int EXPIRES = 8;
+    private final static int KEY_LENGTH = 16;
+    private final static int VALUE_LENGTH = 20;
+    private final static int CHECKSUM = 24;
+
+    private final Path file;
+    private final int slotCount;
+    private final int slotBytes;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    // the buffer is read with absolute gets, which are safe to share between readers
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+
+    /**
+     * A value and the time it expires
+     */
+    public static final class Entry {
+        private final byte[] value;
+        private final long expiresAtMS;
+
+        private Entry(byte[] value, long expiresAtMS) {
+            this.value = value;
+            this.expiresAtMS = expiresAtMS;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+
+        public long getExpiresAtMS() {
+            return expiresAtMS;
+        }
+    }
+
+    /**
+     * Open the store, creating the file if needed
+     * @param file  the file backing the store
+     * @param slotCount  the number of slots, which is the most values the store can hold
+     * @param slotBytes  the size of a slot. A key and its value must fit in it, less 32 bytes
+     * @throws IOException
+     * @throws IllegalArgumentException  if the store would not fit in one mapping of 2 GB
+     */
+    public MappedByteStore(Path file, int slotCount, int slotBytes) throws IOException {
+        if (slotCount <= 0 || slotBytes < MIN_SLOT_BYTES) {
+            throw new IllegalArgumentException("The store needs at least one slot of at least "
+                + MIN_SLOT_BYTES + " bytes");
+        }
+        long size = HEADER_BYTES + (long) slotCount * slotBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(slotCount + " slots of " + slotBytes
+                + " bytes do not fit in a mapped file of 2 GB");
+        }
+        this.file = file;
+        this.slotCount = slotCount;
+        this.slotBytes = slotBytes;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        try {
+            boolean compatible = channel.size() == size;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (!compatible || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != slotCount || buffer.getInt(12) != slotBytes) {
+                format();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Write the header and mark every slot empty
+     */
+    private void format() {
+        for (int slot = 0; slot < slotCount; slot++) {
+            buffer.putLong(offset(slot) + EXPIRES, 0L);
+        }
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, slotCount);
+        buffer.putInt(12, slotBytes);
+        // the magic goes last, so a header torn by a crash is formatted again
+        buffer.putInt(0, MAGIC);
+    }
+
+    /**
+     * Get the live value of the key
+     * @param key  the key
+     * @return the value and its expiry, or null if there is no live value
+     */
+    public Entry get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(keyBytes);
+        long now = now();
+        lock.readLock().lock();
+        try {
+            int slot = find(hash, keyBytes, now);
+            if (slot >= 0) {
+                int offset = offset(slot);
+                byte[] value = new byte[buffer.getInt(offset + VALUE_LENGTH)];
+                buffer.get(offset + SLOT_HEADER_BYTES + keyBytes.length, value);
+                hits.incrementAndGet();
+                return new Entry(value, buffer.getLong(offset + EXPIRES));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Store the value of the key, replacing the one stored before
+     * @param key  the key
+     * @param value  the value
+     * @param ttlMS  how long the value lives. Zero or less removes the key
+     * @return false if the key and the value do not fit in a slot, so nothing was stored
+     */
+    public boolean put(String key, byte[] value, long ttlMS) {
+        if (ttlMS <= 0) {
+            remove(key);
+            return true;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (SLOT_HEADER_BYTES + keyBytes.length + value.length > slotBytes) {
+            oversized.incrementAndGet();
+            remove(key);
+            return false;
+        }
+        long hash = hash(keyBytes);
+        long now = now();
+        long expiresAtMS = ttlMS > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttlMS;
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(value);
+        lock.writeLock().lock();
+        try {
+            int slot = find(hash, keyBytes, now);
+            if (slot < 0) {
+                slot = chooseVictim(hash, now);
+            }
+            int offset = offset(slot);
+            // empty the slot while it is rewritten, so a crash leaves it empty or unreadable
+            buffer.putLong(offset + EXPIRES, 0L);
+            buffer.putLong(offset + HASH, hash);
+            buffer.putInt(offset + KEY_LENGTH, keyBytes.length);
+            buffer.putInt(offset + VALUE_LENGTH, value.length);
+            buffer.putInt(offset + CHECKSUM, (int) crc.getValue());
+            buffer.put(offset + SLOT_HEADER_BYTES, keyBytes);
+            buffer.put(offset + SLOT_HEADER_BYTES + keyBytes.length, value);
+            buffer.putLong(offset + EXPIRES, expiresAtMS);
+            writes.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Remove the value of the key
+     * @param key  the key
+     */
+    public void remove(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(keyBytes);
+        lock.writeLock().lock();
+        try {
+            // an expired value is removed as well
+            int slot = find(hash, keyBytes, Long.MIN_VALUE);
+            if (slot >= 0) {
+                buffer.putLong(offset(slot) + EXPIRES, 0L);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all values
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            format();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Count the live values. The whole file is scanned, so this is meant for monitoring.
+     * @return the number of live values
+     */
+    public int size() {
+        long now = now();
+        int size = 0;
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (buffer.getLong(offset(slot) + EXPIRES) > now) {
+                    size++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return size;
+    }
+
+    /**
+     * Flush the store to the file and close it. The store must not be used afterwards.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * The slot among the probes which holds a value of the key expiring after the given time,
+     * or -1
+     */
+    private int find(long hash, byte[] keyBytes, long now) {
+        int home = home(hash);
+        for (int probe = 0; probe < Math.min(PROBES, slotCount); probe++) {
+            int slot = (home + probe) % slotCount;
+            int offset = offset(slot);
+            long expiresAtMS = buffer.getLong(offset + EXPIRES);
+            if (expiresAtMS != 0L && expiresAtMS > now && buffer.getLong(offset + HASH) == hash
+                    && holds(offset, keyBytes)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Compare the key and check the content of the slot against its checksum
+     */
+    private boolean holds(int offset, byte[] keyBytes) {
+        if (buffer.getInt(offset + KEY_LENGTH) != keyBytes.length) {
+            return false;
+        }
+        int valueLength = buffer.getInt(offset + VALUE_LENGTH);
+        if (valueLength < 0
+                || SLOT_HEADER_BYTES + keyBytes.length + valueLength > slotBytes) {
+            return false;
+        }
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buffer.get(offset + SLOT_HEADER_BYTES + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + SLOT_HEADER_BYTES, keyBytes.length + valueLength));
+        return (int) crc.getValue() == buffer.getInt(offset + CHECKSUM);
+    }
+
+    /*
+     * The slot a new key goes to: the first empty or expired one among the probes, else the
+     * one which expires first
+     */
+    private int chooseVictim(long hash, long now) {
+        int home = home(hash);
+        int victim = home;
+        long earliest = Long.MAX_VALUE;
+        for (int probe = 0; probe < Math.min(PROBES, slotCount); probe++) {
+            int slot = (home + probe) % slotCount;
+            long expiresAtMS = buffer.getLong(offset(slot) + EXPIRES);
+            if (expiresAtMS <= now) {
+                return slot;
+            }
+            if (expiresAtMS < earliest) {
+                earliest = expiresAtMS;
+                victim = slot;
+            }
+        }
+        evictions.incrementAndGet();
+        return victim;
+    }
+
+    private int home(long hash) {
+        return (int) Long.remainderUnsigned(hash, slotCount);
+    }
+
+    private int offset(int slot) {
+        return HEADER_BYTES + slot * slotBytes;
+    }
+
+    /*
+     * The 64-bit FNV-1a hash of the key
+     */
+    private static long hash(byte[] keyBytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : keyBytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getSlotBytes() {
+        return slotBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * @return the number of live values overwritten to make room for another key
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of values which were not stored since they do not fit in a slot
+     */
+    public long getOversized() {
+        return oversized.get();
+    }
+
+    /**
+     * The current time in milliseconds. Tests may override it.
+     * @return the current time
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "file=" + file + " slots=" + slotCount + "x" + slotBytes + " hits=" + getHits()
+            + " misses=" + getMisses() + " writes=" + getWrites() + " evictions="
+            + getEvictions() + " oversized=" + getOversized();
+    }
+}
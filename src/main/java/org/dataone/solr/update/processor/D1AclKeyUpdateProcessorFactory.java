@@ -0,0 +1,133 @@
+package org.dataone.solr.update.processor;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.AbstractSolrEventListener;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.processor.UpdateRequestProcessor;
+import org.apache.solr.update.processor.UpdateRequestProcessorFactory;
+import org.apache.solr.util.plugin.SolrCoreAware;
+import org.dataone.solr.search.D1AclKeyRegistry;
+import org.dataone.solr.search.D1AclQParserPlugin;
+
+/**
+ * Stores the aclKey of every added record: a digest of the values of its permission fields,
+ * which the {!d1acl} filter checks instead of the fields once every record has one (see
+ * D1AclKeyRegistry). The keys are registered as the records are added and read back from the
+ * index whenever a searcher is opened.
+ *
+ * An atomic update is only resolved into the full record by the DistributedUpdateProcessor, so
+ * the factory has to come after it in the update chain; a record still holding an update
+ * operation on a permission field is rejected rather than given a key that may not match. The
+ * keyField argument names the field (aclKey by default), a string field that must be indexed.
+ *
+ * &lt;processor class="solr.DistributedUpdateProcessorFactory"/&gt;
+ * &lt;processor class="org.dataone.solr.update.processor.D1AclKeyUpdateProcessorFactory"/&gt;
+ * &lt;processor class="solr.RunUpdateProcessorFactory"/&gt;
+ */
+public class D1AclKeyUpdateProcessorFactory extends UpdateRequestProcessorFactory
+        implements SolrCoreAware {
+
+    private static Log logger = LogFactory.getLog(D1AclKeyUpdateProcessorFactory.class);
+
+    public final static String KEY_FIELD_PARAM = "keyField";
+
+    private String keyField = D1AclKeyRegistry.DEFAULT_KEY_FIELD;
+    private D1AclKeyRegistry registry =
+        new D1AclKeyRegistry(keyField, D1AclQParserPlugin.DEFAULT_FIELDS);
+
+    @Override
+    public void init(NamedList<?> args) {
+        Object value = args == null ? null : args.get(KEY_FIELD_PARAM);
+        if (value != null && !value.toString().isBlank()) {
+            keyField = value.toString().trim();
+            registry = new D1AclKeyRegistry(keyField, D1AclQParserPlugin.DEFAULT_FIELDS);
+        }
+    }
+
+    @Override
+    public void inform(SolrCore core) {
+        D1AclKeyRegistry.register(core, registry);
+        AbstractSolrEventListener refresher = new AbstractSolrEventListener(core) {
+            @Override
+            public void newSearcher(SolrIndexSearcher newSearcher,
+                                    SolrIndexSearcher currentSearcher) {
+                try {
+                    registry.refresh(newSearcher);
+                } catch (IOException e) {
+                    logger.warn("Cannot read the aclKeys of the new searcher since "
+                                    + e.getMessage());
+                }
+            }
+        };
+        core.registerFirstSearcherListener(refresher);
+        core.registerNewSearcherListener(refresher);
+        core.addCloseHook(new CloseHook() {
+            @Override
+            public void preClose(SolrCore closing) {
+                D1AclKeyRegistry.unregister(closing, registry);
+            }
+        });
+        logger.info("Compute the aclKey field " + keyField + " of the core " + core.getName());
+    }
+
+    @Override
+    public UpdateRequestProcessor getInstance(SolrQueryRequest req, SolrQueryResponse rsp,
+                                              UpdateRequestProcessor next) {
+        return new UpdateRequestProcessor(next) {
+            @Override
+            public void processAdd(AddUpdateCommand cmd) throws IOException {
+                setAclKey(cmd.getSolrInputDocument());
+                super.processAdd(cmd);
+            }
+        };
+    }
+
+    /**
+     * Compute the aclKey of a record, store it in the record and register it
+     * @param doc  the record
+     */
+    public void setAclKey(SolrInputDocument doc) {
+        Map<String, Set<String>> permissions = new LinkedHashMap<String, Set<String>>();
+        for (String field : registry.getFields()) {
+            Set<String> values = new HashSet<String>();
+            Collection<Object> fieldValues = doc.getFieldValues(field);
+            if (fieldValues != null) {
+                for (Object fieldValue : fieldValues) {
+                    if (fieldValue instanceof Map) {
+                        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
+                            "The " + field + " field holds an atomic update. The "
+                                + getClass().getSimpleName() + " has to come after the "
+                                + "DistributedUpdateProcessorFactory in the update chain.");
+                    }
+                    if (fieldValue != null) {
+                        values.add(fieldValue.toString());
+                    }
+                }
+            }
+            permissions.put(field, values);
+        }
+        String aclKey = registry.aclKey(permissions);
+        doc.setField(keyField, aclKey);
+        registry.register(aclKey, permissions);
+    }
+
+    public D1AclKeyRegistry getRegistry() {
+        return registry;
+    }
+}
@@ -0,0 +1,119 @@
+package org.dataone.solr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.stream.Stream;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+
+/**
+ * The Solr home of the tests which parse and run queries on real cores. It is copied from the
+ * solrhome test resources to a temporary directory, and its cores keep their indexes in memory.
+ */
+public class EmbeddedSolrHome implements Closeable {
+
+    private final CoreContainer container;
+
+    /**
+     * Copy the Solr home to a directory and load its cores
+     * @param directory  an empty directory
+     * @throws Exception
+     */
+    public EmbeddedSolrHome(Path directory) throws Exception {
+        URL resource = EmbeddedSolrHome.class.getResource("solrhome");
+        Path source = Paths.get(resource.toURI());
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path target = directory.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else {
+                    try (InputStream in = Files.newInputStream(path)) {
+                        Files.copy(in, target);
+                    }
+                }
+            }
+        }
+        container = CoreContainer.createAndLoad(directory);
+    }
+
+    /**
+     * Index records and open a searcher on them
+     * @param core  the name of the core
+     * @param docs  the records
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    public void index(String core, Collection<SolrInputDocument> docs)
+            throws IOException, SolrServerException {
+        index(core, docs, null);
+    }
+
+    /**
+     * Index records and open a searcher on them
+     * @param core  the name of the core
+     * @param docs  the records
+     * @param chain  the update chain, or null for the default one
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    public void index(String core, Collection<SolrInputDocument> docs, String chain)
+            throws IOException, SolrServerException {
+        EmbeddedSolrServer server = new EmbeddedSolrServer(container, core);
+        UpdateRequest update = new UpdateRequest();
+        update.add(docs);
+        if (chain != null) {
+            update.setParam(UpdateParams.UPDATE_CHAIN, chain);
+        }
+        update.process(server);
+        server.commit();
+    }
+
+    /**
+     * Remove every record of a core
+     * @param core  the name of the core
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    public void clear(String core) throws IOException, SolrServerException {
+        EmbeddedSolrServer server = new EmbeddedSolrServer(container, core);
+        server.deleteByQuery("*:*");
+        server.commit();
+    }
+
+    /**
+     * @param core  the name of the core
+     * @param params  the parameters of the request
+     * @return a request to the core, which the caller closes
+     */
+    public SolrQueryRequest request(String core, SolrParams params) {
+        SolrCore solrCore = container.getCore(core);
+        return new LocalSolrQueryRequest(solrCore, params) {
+            @Override
+            public void close() {
+                super.close();
+                solrCore.close();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        container.shutdown();
+    }
+}
@@ -0,0 +1,312 @@
+package org.dataone.solr.handler.component;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.MultiMapSolrParams;
+import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.dataone.cn.servlet.http.ParameterKeys;
+import org.dataone.solr.EmbeddedSolrHome;
+import org.dataone.solr.search.D1AclQParserPlugin;
+import org.dataone.solr.servlet.AuthorizationRequestWrapper;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the read restriction of the SolrSearchHandlerUtil class
+ */
+public class SolrSearchHandlerUtilTest {
+    private final static List<String> READ_FIELDS = Arrays.asList(
+        "readPermission", "rightsHolder", "writePermission", "changePermission");
+    private final static String[] SUBJECTS = {
+        "public", "authenticatedUser", "CN=Jing Tao,O=NCEAS,C=US,DC=cilogon,DC=org",
+        "http://orcid.org/0000-0002-1209-5268"};
+    private final static String CORE = "acl";
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+    private static EmbeddedSolrHome home;
+
+    @BeforeClass
+    public static void setUpSolr() throws Exception {
+        home = new EmbeddedSolrHome(folder.getRoot().toPath());
+    }
+
+    @AfterClass
+    public static void tearDownSolr() {
+        home.close();
+    }
+
+    private static AuthorizationRequestWrapper request(String[] subjects) {
+        AuthorizationRequestWrapper request =
+            new AuthorizationRequestWrapper(new MockHttpServletRequest());
+        request.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS, subjects);
+        return request;
+    }
+
+    /**
+     * Test that the read filter is a bool query of terms queries over the subject parameter,
+     * and that a client cannot supply the parameters it dereferences
+     * @throws Exception
+     */
+    @Test
+    public void testTermsReadFilter() throws Exception {
+        HashMap<String, String[]> params = new HashMap<String, String[]>();
+        MultiMapSolrParams.addParam(CommonParams.FQ, "formatType:METADATA", params);
+        MultiMapSolrParams.addParam(SolrSearchHandlerUtil.ACL_SUBJECTS_PARAM, "*", params);
+        MultiMapSolrParams.addParam("d1.acl.q.rightsHolder", "*:*", params);
+        SolrSearchHandlerUtil.applyReadRestrictionQueryFilterParameters(
+            request(SUBJECTS), params, READ_FIELDS);
+
+        String[] fqs = params.get(CommonParams.FQ);
+        assertEquals(2, fqs.length);
+        assertEquals("formatType:METADATA", fqs[0]);
+        assertEquals("{!bool should=$d1.acl.q.readPermission should=$d1.acl.q.rightsHolder "
+            + "should=$d1.acl.q.writePermission should=$d1.acl.q.changePermission}", fqs[1]);
+        String[] subjects = params.get(SolrSearchHandlerUtil.ACL_SUBJECTS_PARAM);
+        assertEquals(1, subjects.length);
+        assertArrayEquals(SUBJECTS, subjects[0].split(SolrSearchHandlerUtil.ACL_SEPARATOR));
+        assertEquals(1, params.get("d1.acl.q.rightsHolder").length);
+
+        // resolve the local params the way the bool and terms parsers do
+        MultiMapSolrParams requestParams = new MultiMapSolrParams(params);
+        ModifiableSolrParams bool = new ModifiableSolrParams();
+        QueryParsing.parseLocalParams(fqs[1], 0, bool, requestParams);
+        assertEquals(4, bool.getParams("should").length);
+        ModifiableSolrParams terms = new ModifiableSolrParams();
+        QueryParsing.parseLocalParams(bool.getParams("should")[1], 0, terms, requestParams);
+        assertEquals("terms", terms.get(QueryParsing.TYPE));
+        assertEquals("rightsHolder", terms.get("f"));
+        assertEquals(SolrSearchHandlerUtil.ACL_SEPARATOR, terms.get("separator"));
+        assertEquals(subjects[0], terms.get(QueryParsing.V));
+    }
+
+    /**
+     * Test that subjects which cannot be joined fall back to the query string, and that the
+     * public user gets the public filter
+     * @throws Exception
+     */
+    @Test
+    public void testFallbacks() throws Exception {
+        HashMap<String, String[]> params = new HashMap<String, String[]>();
+        SolrSearchHandlerUtil.applyReadRestrictionQueryFilterParameters(
+            request(new String[] {"public", "odd" + SolrSearchHandlerUtil.ACL_SEPARATOR + "one"}),
+            params, "readPermission");
+        assertEquals("((readPermission:\"public\" OR readPermission:\"odd"
+            + SolrSearchHandlerUtil.ACL_SEPARATOR + "one\"))", params.get(CommonParams.FQ)[0]);
+        assertFalse(params.containsKey(SolrSearchHandlerUtil.ACL_SUBJECTS_PARAM));
+
+        params = new HashMap<String, String[]>();
+        MultiMapSolrParams.addParam(SolrSearchHandlerUtil.ACL_SUBJECTS_PARAM, "*", params);
+        SolrSearchHandlerUtil.applyReadRestrictionQueryFilterParameters(
+            new AuthorizationRequestWrapper(new MockHttpServletRequest()), params, READ_FIELDS);
+        assertArrayEquals(new String[] {"isPublic:true"}, params.get(CommonParams.FQ));
+        assertFalse(params.containsKey(SolrSearchHandlerUtil.ACL_SUBJECTS_PARAM));
+    }
+
+    /**
+     * Test that the {!d1acl} filter hands the subjects over in the request context, and that a
+     * user with many subjects gets the post filter
+     * @throws Exception
+     */
+    @Test
+    public void testPluginReadFilter() throws Exception {
+        HashMap<String, String[]> params = new HashMap<String, String[]>();
+        MultiMapSolrParams.addParam(SolrSearchHandlerUtil.ACL_SUBJECTS_PARAM, "*", params);
+        Map<Object, Object> context = new HashMap<Object, Object>();
+        SolrSearchHandlerUtil.applyReadRestriction(request(SUBJECTS), params, READ_FIELDS,
+                                                   context);
+        assertArrayEquals(new String[] {"{!d1acl fields=readPermission,rightsHolder,"
+            + "writePermission,changePermission}"}, params.get(CommonParams.FQ));
+        assertFalse(params.containsKey(SolrSearchHandlerUtil.ACL_SUBJECTS_PARAM));
+        assertEquals(new TreeSet<String>(Arrays.asList(SUBJECTS)),
+                     D1AclQParserPlugin.getAuthorizedSubjects(context));
+
+        params = new HashMap<String, String[]>();
+        SolrSearchHandlerUtil.applyReadRestriction(
+            request(subjects(new Random(1), 20000, 1000)), params, READ_FIELDS, context);
+        ModifiableSolrParams local = new ModifiableSolrParams();
+        QueryParsing.parseLocalParams(params.get(CommonParams.FQ)[0], 0, local,
+                                      new ModifiableSolrParams());
+        assertEquals(D1AclQParserPlugin.NAME, local.get(QueryParsing.TYPE));
+        assertEquals("false", local.get(CommonParams.CACHE));
+        assertEquals(SolrSearchHandlerUtil.ACL_POST_FILTER_COST, local.getInt(CommonParams.COST,
+                                                                              0));
+    }
+
+    /**
+     * Test that the requests sent on to shards are told apart, since they cannot get the
+     * {!d1acl} filter
+     * @throws Exception
+     */
+    @Test
+    public void testIsDistributed() throws Exception {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        assertFalse(SolrSearchHandlerUtil.isDistributed(params, false));
+        assertTrue(SolrSearchHandlerUtil.isDistributed(params, true));
+        params.set(ShardParams.SHARDS, "host1:8983/solr/core,host2:8983/solr/core");
+        assertTrue(SolrSearchHandlerUtil.isDistributed(params, false));
+        params.set(CommonParams.DISTRIB, false);
+        assertFalse(SolrSearchHandlerUtil.isDistributed(params, false));
+        assertFalse(SolrSearchHandlerUtil.isDistributed(params, true));
+    }
+
+    /**
+     * Test that Solr parses the filters of the terms and the boolean mode as they are shipped,
+     * and that both find the same records
+     * @throws Exception
+     */
+    @Test
+    public void testReadFilterEquivalence() throws Exception {
+        int pool = 200;
+        Random random = new Random(42);
+        index(random, 2000, pool);
+        for (int count : new int[] {1, 10, 100}) {
+            String[] subjects = subjects(random, pool, count);
+            try (SolrQueryRequest request = home.request(CORE, new ModifiableSolrParams())) {
+                Query terms = readFilter(request, subjects, false);
+                Query string = readFilter(request, subjects, true);
+                SolrIndexSearcher searcher = request.getSearcher();
+                int hits = searcher.count(terms);
+                assertTrue(hits > 0);
+                assertEquals(hits, searcher.count(string));
+                // the same count for the intersection means the same records
+                BooleanQuery.Builder both = new BooleanQuery.Builder();
+                both.add(string, BooleanClause.Occur.FILTER);
+                both.add(terms, BooleanClause.Occur.FILTER);
+                assertEquals(hits, searcher.count(both.build()));
+            }
+        }
+    }
+
+    /**
+     * Compare the read filter parsed from the OR-chained query string with the terms queries,
+     * for a growing number of subjects: the time Solr takes to parse the filter and to count
+     * the readable records. Beyond maxBooleanClauses, only the terms queries work. The benchmark
+     * prints its figures and only runs with -Dd1.benchmark=true, e.g.
+     * mvn test -Dtest=SolrSearchHandlerUtilTest#testReadFilterBenchmark -Dd1.benchmark=true
+     * @throws Exception
+     */
+    @Test
+    public void testReadFilterBenchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("d1.benchmark"));
+        int pool = 20000;
+        Random random = new Random(42);
+        index(random, 50000, pool);
+        // the first round warms up
+        for (int round = 0; round < 2; round++) {
+            if (round == 1) {
+                System.out.println("subjects  string parse ms  string count ms  "
+                    + "terms parse ms  terms count ms  hits");
+            }
+            for (int count : new int[] {10, 100, 250, 1000, 5000}) {
+                String result = measure(subjects(random, pool, count));
+                if (round == 1) {
+                    System.out.println(count + "  " + result);
+                }
+            }
+        }
+    }
+
+    /*
+     * Time both filters for one subject list
+     */
+    private static String measure(String[] subjects) throws Exception {
+        try (SolrQueryRequest request = home.request(CORE, new ModifiableSolrParams())) {
+            SolrIndexSearcher searcher = request.getSearcher();
+            long start = System.nanoTime();
+            Query terms = readFilter(request, subjects, false);
+            long termsParse = System.nanoTime() - start;
+            start = System.nanoTime();
+            int termsHits = searcher.count(terms);
+            long termsCount = System.nanoTime() - start;
+            String stringParse = "-";
+            String stringCount = "too many clauses";
+            if (subjects.length * READ_FIELDS.size() <= IndexSearcher.getMaxClauseCount()) {
+                start = System.nanoTime();
+                Query string = readFilter(request, subjects, true);
+                stringParse = String.valueOf((System.nanoTime() - start) / 1000000.0);
+                start = System.nanoTime();
+                int stringHits = searcher.count(string);
+                stringCount = String.valueOf((System.nanoTime() - start) / 1000000.0);
+                assertEquals(stringHits, termsHits);
+            }
+            return stringParse + "  " + stringCount + "  " + termsParse / 1000000.0 + "  "
+                + termsCount / 1000000.0 + "  " + termsHits;
+        }
+    }
+
+    /*
+     * Replace the records of the core by random ones
+     */
+    private static void index(Random random, int count, int pool) throws Exception {
+        home.clear(CORE);
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+        for (int i = 0; i < count; i++) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField("id", "doc" + i);
+            doc.addField("rightsHolder", subject(random.nextInt(pool)));
+            for (int j = 0; j < 3; j++) {
+                doc.addField("readPermission", subject(random.nextInt(pool)));
+            }
+            doc.addField("writePermission", subject(random.nextInt(pool)));
+            doc.addField("changePermission", subject(random.nextInt(pool)));
+            docs.add(doc);
+        }
+        home.index(CORE, docs);
+    }
+
+    private static String[] subjects(Random random, int pool, int count) {
+        String[] subjects = new String[count];
+        for (int i = 0; i < count; i++) {
+            subjects[i] = subject(random.nextInt(pool));
+        }
+        return subjects;
+    }
+
+    private static String subject(int i) {
+        return "CN=user" + i + ",O=Test,C=US,DC=cilogon,DC=org";
+    }
+
+    /*
+     * Parse the read filter SolrSearchHandlerUtil adds in the terms or the boolean mode, with
+     * the parameters it sets
+     */
+    private static Query readFilter(SolrQueryRequest request, String[] subjects, boolean string)
+            throws Exception {
+        HashMap<String, String[]> params = new HashMap<String, String[]>();
+        if (string) {
+            SolrSearchHandlerUtil.applyBooleanReadFilter(subjects, READ_FIELDS, params);
+        } else {
+            SolrSearchHandlerUtil.applyTermsReadFilter(subjects, READ_FIELDS, params);
+        }
+        request.setParams(new MultiMapSolrParams(params));
+        return QParser.getParser(params.get(CommonParams.FQ)[0], request).getQuery();
+    }
+}
@@ -0,0 +1,94 @@
+package org.dataone.solr.search;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.FixedBitSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the D1AclBits class
+ */
+public class D1AclBitsTest {
+
+    private static void addDocs(IndexWriter writer, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            Document doc = new Document();
+            doc.add(new StringField("rightsHolder", "CN=user" + (i % 10), Field.Store.NO));
+            doc.add(new StringField("readPermission", i % 3 == 0 ? "public" : "CN=group",
+                                    Field.Store.NO));
+            writer.addDocument(doc);
+        }
+        writer.commit();
+    }
+
+    /*
+     * Check the bits of every segment against the terms query
+     */
+    private static void assertBits(IndexSearcher searcher, D1AclQuery query, D1AclBits bits)
+            throws Exception {
+        Weight weight = searcher.createWeight(searcher.rewrite(query.termsQuery()),
+                                              ScoreMode.COMPLETE_NO_SCORES, 1f);
+        int total = 0;
+        for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+            FixedBitSet expected = D1AclBits.evaluate(weight, context);
+            assertEquals(expected, bits.get(context));
+            total += expected.cardinality();
+        }
+        assertEquals(searcher.count(query.termsQuery()), total);
+    }
+
+    /**
+     * Test that the bits computed for a new searcher reuse those of the segments it shares with
+     * the old one, and that only the new segment is evaluated
+     * @throws Exception
+     */
+    @Test
+    public void testComputeReusesUnchangedSegments() throws Exception {
+        D1AclQuery query = new D1AclQuery(D1AclQParserPlugin.DEFAULT_FIELDS,
+                                          new TreeSet<String>(Arrays.asList("CN=user3", "public")));
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        IndexWriterConfig config = new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            addDocs(writer, 300);
+            addDocs(writer, 300);
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                D1AclBits bits = D1AclBits.compute(searcher, query, null);
+                assertEquals(2, bits.getSegmentCount());
+                assertBits(searcher, query, bits);
+                assertTrue(bits.ramBytesUsed() > 2 * 300 / 8);
+
+                addDocs(writer, 100);
+                try (DirectoryReader newReader = DirectoryReader.openIfChanged(reader)) {
+                    IndexSearcher newSearcher = new IndexSearcher(newReader);
+                    D1AclBits newBits = D1AclBits.compute(newSearcher, query, bits);
+                    assertEquals(3, newBits.getSegmentCount());
+                    assertBits(newSearcher, query, newBits);
+                    for (int i = 0; i < 2; i++) {
+                        assertSame(bits.get(reader.leaves().get(i)),
+                                   newBits.get(newReader.leaves().get(i)));
+                    }
+                    assertNotNull(newBits.get(newReader.leaves().get(2)));
+                }
+            }
+        }
+    }
+}
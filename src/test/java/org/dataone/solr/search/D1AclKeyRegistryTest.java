@@ -0,0 +1,225 @@
+package org.dataone.solr.search;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the D1AclKeyRegistry class
+ */
+public class D1AclKeyRegistryTest {
+
+    private static String subject(int i) {
+        return "CN=user" + i + ",DC=dataone,DC=org";
+    }
+
+    /*
+     * Index a record the way the update processor and the DataONE schema would: the rights
+     * holder and the readers with docValues, the writers and changers stored only
+     */
+    private static void addDoc(IndexWriter writer, D1AclKeyRegistry registry, Random random,
+                               boolean withKey) throws Exception {
+        Map<String, Set<String>> permissions = new HashMap<String, Set<String>>();
+        Document doc = new Document();
+        String rightsHolder = subject(random.nextInt(20));
+        permissions.put("rightsHolder", new HashSet<String>(Arrays.asList(rightsHolder)));
+        doc.add(new StringField("rightsHolder", rightsHolder, Field.Store.NO));
+        doc.add(new SortedDocValuesField("rightsHolder", new BytesRef(rightsHolder)));
+        Set<String> readers = new HashSet<String>();
+        readers.add(random.nextBoolean() ? "public" : subject(100 + random.nextInt(5)));
+        for (String reader : readers) {
+            doc.add(new StringField("readPermission", reader, Field.Store.NO));
+            doc.add(new SortedSetDocValuesField("readPermission", new BytesRef(reader)));
+        }
+        permissions.put("readPermission", readers);
+        if (random.nextInt(4) == 0) {
+            String writePermission = subject(200 + random.nextInt(3));
+            doc.add(new StringField("writePermission", writePermission, Field.Store.YES));
+            permissions.put("writePermission", new HashSet<String>(Arrays.asList(writePermission)));
+        }
+        if (withKey) {
+            doc.add(new StringField(registry.getKeyField(), registry.aclKey(permissions),
+                                    Field.Store.NO));
+        }
+        writer.addDocument(doc);
+    }
+
+    /**
+     * Test that a registry started on an existing index reads the keys back, and that the
+     * restriction over the resolved keys finds the same records as the permission fields
+     * @throws Exception
+     */
+    @Test
+    public void testRefreshAndResolve() throws Exception {
+        Random random = new Random(3);
+        D1AclKeyRegistry indexing = new D1AclKeyRegistry(D1AclKeyRegistry.DEFAULT_KEY_FIELD,
+                                                         D1AclQParserPlugin.DEFAULT_FIELDS);
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int i = 0; i < 2000; i++) {
+                addDoc(writer, indexing, random, true);
+                if (i % 500 == 499) {
+                    writer.commit();
+                }
+            }
+        }
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            D1AclKeyRegistry registry = new D1AclKeyRegistry(D1AclKeyRegistry.DEFAULT_KEY_FIELD,
+                                                             D1AclQParserPlugin.DEFAULT_FIELDS);
+            assertTrue(registry.isComplete(searcher));
+            registry.refresh(searcher);
+            assertTrue(registry.size() > 10);
+            assertTrue(registry.size() < 2000);
+
+            for (List<String> subjects : Arrays.asList(
+                    Arrays.asList("public"), Arrays.asList(subject(3), subject(101)),
+                    Arrays.asList(subject(200), subject(7), "public", "authenticatedUser"),
+                    Arrays.asList("CN=nobody"))) {
+                D1AclQuery fields = new D1AclQuery(D1AclQParserPlugin.DEFAULT_FIELDS,
+                                                   new TreeSet<String>(subjects));
+                assertEquals(searcher.count(fields.termsQuery()), searcher.count(
+                    registry.query(searcher, new TreeSet<String>(subjects))));
+            }
+            // the public subject is checked in the fields rather than resolved to keys
+            assertTrue(registry.resolve(Arrays.asList("public")).isEmpty());
+            assertFalse(registry.query(searcher, new TreeSet<String>(Arrays.asList("public")))
+                            .toString().contains(registry.getKeyField()));
+
+            // the keys resolved for a subject set are kept until a key is added
+            TreeSet<String> newcomer = new TreeSet<String>(Arrays.asList("CN=newcomer"));
+            assertEquals(0, searcher.count(registry.query(searcher, newcomer)));
+            Map<String, Set<String>> permissions = new HashMap<String, Set<String>>();
+            permissions.put("rightsHolder", new HashSet<String>(newcomer));
+            registry.register(registry.aclKey(permissions), permissions);
+            assertTrue(registry.query(searcher, newcomer).toString()
+                           .contains(registry.getKeyField()));
+        }
+    }
+
+    /**
+     * Test that the keys no record has any more are forgotten once a searcher was refreshed
+     * without them, and then another one
+     * @throws Exception
+     */
+    @Test
+    public void testForgetRemovedKeys() throws Exception {
+        Random random = new Random(7);
+        D1AclKeyRegistry registry = new D1AclKeyRegistry(D1AclKeyRegistry.DEFAULT_KEY_FIELD,
+                                                         D1AclQParserPlugin.DEFAULT_FIELDS);
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int i = 0; i < 200; i++) {
+                addDoc(writer, registry, random, true);
+            }
+            writer.commit();
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                registry.refresh(new IndexSearcher(reader));
+            }
+            int known = registry.size();
+            assertTrue(known > 10);
+
+            writer.deleteAll();
+            addDoc(writer, registry, random, true);
+            writer.commit();
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                registry.refresh(new IndexSearcher(reader));
+            }
+            // the keys were found by the refresh before
+            assertTrue(registry.size() >= known);
+
+            addDoc(writer, registry, random, true);
+            writer.commit();
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                registry.refresh(searcher);
+                assertTrue(registry.size() <= 2);
+                assertTrue(registry.isComplete(searcher));
+                D1AclQuery fields = new D1AclQuery(D1AclQParserPlugin.DEFAULT_FIELDS,
+                                                   new TreeSet<String>(Arrays.asList("public")));
+                assertEquals(searcher.count(fields.termsQuery()), searcher.count(
+                    registry.query(searcher, fields.getSubjects())));
+            }
+        }
+    }
+
+    /**
+     * Test that an index with a record lacking the key is not complete
+     * @throws Exception
+     */
+    @Test
+    public void testIncomplete() throws Exception {
+        Random random = new Random(5);
+        D1AclKeyRegistry registry = new D1AclKeyRegistry(D1AclKeyRegistry.DEFAULT_KEY_FIELD,
+                                                         D1AclQParserPlugin.DEFAULT_FIELDS);
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            addDoc(writer, registry, random, true);
+            addDoc(writer, registry, random, false);
+        }
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertFalse(registry.isComplete(new IndexSearcher(reader)));
+        }
+    }
+
+    /**
+     * Test that after a restart an index is not complete if the keys cannot be verified, since
+     * the permission fields are neither stored nor have docValues
+     * @throws Exception
+     */
+    @Test
+    public void testUnverifiableKeys() throws Exception {
+        D1AclKeyRegistry indexing = new D1AclKeyRegistry(D1AclKeyRegistry.DEFAULT_KEY_FIELD,
+                                                         D1AclQParserPlugin.DEFAULT_FIELDS);
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int i = 0; i < 10; i++) {
+                Map<String, Set<String>> permissions = new HashMap<String, Set<String>>();
+                permissions.put("rightsHolder", new HashSet<String>(Arrays.asList(subject(i))));
+                permissions.put("readPermission", new HashSet<String>(Arrays.asList("public")));
+                String aclKey = indexing.aclKey(permissions);
+                indexing.register(aclKey, permissions);
+                Document doc = new Document();
+                doc.add(new StringField("rightsHolder", subject(i), Field.Store.NO));
+                doc.add(new StringField("readPermission", "public", Field.Store.NO));
+                doc.add(new StringField(indexing.getKeyField(), aclKey, Field.Store.NO));
+                writer.addDocument(doc);
+            }
+        }
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            // the registry which saw the records added knows their keys
+            assertTrue(indexing.isComplete(searcher));
+            D1AclKeyRegistry restarted = new D1AclKeyRegistry(
+                D1AclKeyRegistry.DEFAULT_KEY_FIELD, D1AclQParserPlugin.DEFAULT_FIELDS);
+            assertFalse(restarted.isComplete(searcher));
+            assertEquals(0, restarted.size());
+            assertTrue(restarted.resolve(Arrays.asList("public")).isEmpty());
+        }
+    }
+}
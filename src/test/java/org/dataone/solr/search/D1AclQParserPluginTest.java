@@ -0,0 +1,164 @@
+package org.dataone.solr.search;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.PostFilter;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.SyntaxError;
+import org.dataone.solr.EmbeddedSolrHome;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the {!d1acl} parser of the D1AclQParserPlugin class, on embedded cores:
+ * acl with the parser only, aclcache with the d1acl cache as well, and aclkey with the aclKey
+ * update chain as well
+ */
+public class D1AclQParserPluginTest {
+    private final static List<String> SUBJECTS = Arrays.asList(
+        "public", "CN=user1,DC=dataone,DC=org");
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+    private static EmbeddedSolrHome home;
+
+    @BeforeClass
+    public static void setUpSolr() throws Exception {
+        home = new EmbeddedSolrHome(folder.getRoot().toPath());
+        for (String core : new String[] {"acl", "aclcache"}) {
+            home.index(core, docs(), null);
+        }
+    }
+
+    @AfterClass
+    public static void tearDownSolr() {
+        home.close();
+    }
+
+    /*
+     * Six records: user i is the rights holder of record i, which is public for an even i
+     */
+    private static List<SolrInputDocument> docs() {
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+        for (int i = 0; i < 6; i++) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField("id", "doc" + i);
+            doc.addField("rightsHolder", "CN=user" + i + ",DC=dataone,DC=org");
+            if (i % 2 == 0) {
+                doc.addField("readPermission", "public");
+            }
+            doc.addField("writePermission", "CN=writer,DC=dataone,DC=org");
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    /*
+     * Parse a filter the way Solr parses a filter query, with the subjects in the context
+     */
+    private static Query parse(SolrQueryRequest request, String filter, List<String> subjects)
+            throws SyntaxError {
+        if (subjects != null) {
+            D1AclQParserPlugin.setAuthorizedSubjects(request.getContext(), subjects);
+        }
+        return QParser.getParser(filter, request).getQuery();
+    }
+
+    /**
+     * Test that a filter the search handlers did not set is a bad request, and that an unknown
+     * field is a syntax error
+     * @throws Exception
+     */
+    @Test
+    public void testRefused() throws Exception {
+        try (SolrQueryRequest request = home.request("acl", new ModifiableSolrParams())) {
+            parse(request, "{!d1acl}", null);
+            assertTrue("a client cannot supply the subjects", false);
+        } catch (SolrException e) {
+            assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, e.code());
+        }
+        try (SolrQueryRequest request = home.request("acl", new ModifiableSolrParams())) {
+            parse(request, "{!d1acl fields=readPermission,unknown}", SUBJECTS);
+            assertTrue("the field is unknown", false);
+        } catch (SyntaxError e) {
+            assertTrue(e.getMessage().contains("unknown"));
+        }
+    }
+
+    /**
+     * Test that the filter is a post filter if every field is a string field with docValues,
+     * and a plain filter otherwise, and that both find the same records
+     * @throws Exception
+     */
+    @Test
+    public void testPostFilter() throws Exception {
+        try (SolrQueryRequest request = home.request("acl", new ModifiableSolrParams())) {
+            Query post = parse(request,
+                "{!d1acl fields=readPermission,rightsHolder cache=false cost=200}", SUBJECTS);
+            assertTrue(post instanceof D1AclPostFilter);
+            assertFalse(((PostFilter) post).getCache());
+            Query plain = parse(request, "{!d1acl}", SUBJECTS);
+            assertFalse(plain instanceof PostFilter);
+            assertTrue(((D1AclQuery) plain).getCache());
+            // records 0, 1, 2 and 4
+            assertEquals(4, request.getSearcher().count(plain));
+            assertEquals(4, request.getSearcher().getDocSet(Arrays.asList(post)).size());
+        }
+    }
+
+    /**
+     * Test that the filter stays out of the filterCache if the core has the d1acl cache
+     * @throws Exception
+     */
+    @Test
+    public void testD1AclCache() throws Exception {
+        try (SolrQueryRequest request = home.request("aclcache", new ModifiableSolrParams())) {
+            Query query = parse(request, "{!d1acl}", SUBJECTS);
+            assertFalse(((D1AclQuery) query).getCache());
+            assertEquals(4, request.getSearcher().count(query));
+            assertEquals(1, D1AclCacheRegenerator.getCache(request.getSearcher()).size());
+        }
+    }
+
+    /**
+     * Test that the filter checks the aclKeys only once every record has one, and that it keeps
+     * the post filter mode when it does
+     * @throws Exception
+     */
+    @Test
+    public void testAclKeyFallback() throws Exception {
+        home.clear("aclkey");
+        // the default chain does not compute the keys
+        home.index("aclkey", docs(), null);
+        try (SolrQueryRequest request = home.request("aclkey", new ModifiableSolrParams())) {
+            D1AclQuery query = (D1AclQuery) parse(request, "{!d1acl}", SUBJECTS);
+            assertFalse(query.evaluatedQuery(request.getSearcher()).toString()
+                            .contains("aclKey"));
+            assertEquals(4, request.getSearcher().count(query));
+        }
+        home.index("aclkey", docs(), "aclKey");
+        try (SolrQueryRequest request = home.request("aclkey", new ModifiableSolrParams())) {
+            D1AclQuery query = (D1AclQuery) parse(request, "{!d1acl}", SUBJECTS);
+            assertTrue(query.evaluatedQuery(request.getSearcher()).toString()
+                           .contains("aclKey"));
+            assertEquals(4, request.getSearcher().count(query));
+            Query post = parse(request,
+                "{!d1acl fields=readPermission,rightsHolder cache=false cost=200}", SUBJECTS);
+            assertTrue(post instanceof D1AclPostFilter);
+        }
+    }
+}
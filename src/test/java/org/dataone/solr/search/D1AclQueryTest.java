@@ -0,0 +1,166 @@
+package org.dataone.solr.search;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.search.DelegatingCollector;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the D1AclQuery and D1AclPostFilter classes
+ */
+public class D1AclQueryTest {
+
+    /**
+     * Collects the global ids of the documents it sees
+     */
+    private static class DocIdCollector extends SimpleCollector {
+        private final TreeSet<Integer> docs = new TreeSet<Integer>();
+        private int docBase;
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) {
+            docBase = context.docBase;
+        }
+
+        @Override
+        public void collect(int doc) {
+            docs.add(docBase + doc);
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+    }
+
+    private static SortedSet<String> subjects(String... values) {
+        return new TreeSet<String>(Arrays.asList(values));
+    }
+
+    private static String subject(int i) {
+        return "CN=user" + i + ",O=Test,C=US,DC=cilogon,DC=org";
+    }
+
+    /*
+     * Add a permission to a document as the DataONE schema indexes it: a string field with
+     * docValues, single valued for the rights holder
+     */
+    private static void add(Document doc, String field, String value) {
+        doc.add(new StringField(field, value, Field.Store.NO));
+        if ("rightsHolder".equals(field)) {
+            doc.add(new SortedDocValuesField(field, new BytesRef(value)));
+        } else {
+            doc.add(new SortedSetDocValuesField(field, new BytesRef(value)));
+        }
+    }
+
+    private static TreeSet<Integer> postFilter(IndexSearcher searcher, D1AclPostFilter filter)
+            throws Exception {
+        DocIdCollector collector = new DocIdCollector();
+        DelegatingCollector filterCollector = filter.getFilterCollector(searcher);
+        filterCollector.setLastDelegate(collector);
+        searcher.search(new MatchAllDocsQuery(), filterCollector);
+        filterCollector.finish();
+        return collector.docs;
+    }
+
+    /**
+     * Test that the post filter lets the same documents through as the cached filter finds,
+     * over several segments and a field missing from some of them
+     * @throws Exception
+     */
+    @Test
+    public void testPostFilterMatchesCachedFilter() throws Exception {
+        Random random = new Random(7);
+        int pool = 2000;
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int i = 0; i < 5000; i++) {
+                Document doc = new Document();
+                add(doc, "rightsHolder", subject(random.nextInt(pool)));
+                for (int j = random.nextInt(4); j > 0; j--) {
+                    add(doc, "readPermission", subject(random.nextInt(pool)));
+                }
+                if (i >= 2500) {
+                    add(doc, "changePermission", subject(random.nextInt(pool)));
+                }
+                writer.addDocument(doc);
+                if (i % 1000 == 999) {
+                    writer.commit();
+                }
+            }
+        }
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertTrue(reader.leaves().size() > 1);
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for (int count : new int[] {1, 50, 1000}) {
+                SortedSet<String> subjects = new TreeSet<String>();
+                while (subjects.size() < count) {
+                    subjects.add(subject(random.nextInt(pool)));
+                }
+                subjects.add("public");
+                D1AclPostFilter filter =
+                    new D1AclPostFilter(D1AclQParserPlugin.DEFAULT_FIELDS, subjects);
+                DocIdCollector cached = new DocIdCollector();
+                searcher.search(filter, cached);
+                assertFalse(cached.docs.isEmpty());
+                assertEquals(cached.docs, postFilter(searcher, filter));
+            }
+            D1AclPostFilter nobody = new D1AclPostFilter(D1AclQParserPlugin.DEFAULT_FIELDS,
+                                                         subjects("CN=nobody"));
+            assertTrue(postFilter(searcher, nobody).isEmpty());
+            assertEquals(0, searcher.count(nobody));
+        }
+    }
+
+    /**
+     * Test that the subject order does not matter to the cache key, and that the subjects stay
+     * out of the string form
+     * @throws Exception
+     */
+    @Test
+    public void testEqualsAndToString() throws Exception {
+        D1AclQuery query = new D1AclQuery(D1AclQParserPlugin.DEFAULT_FIELDS,
+                                          subjects("public", "CN=b", "CN=a"));
+        D1AclQuery same = new D1AclQuery(D1AclQParserPlugin.DEFAULT_FIELDS,
+                                         subjects("CN=a", "public", "CN=b"));
+        assertEquals(query, same);
+        assertEquals(query.hashCode(), same.hashCode());
+        assertNotEquals(query, new D1AclQuery(Arrays.asList("readPermission"),
+                                              subjects("public", "CN=b", "CN=a")));
+        assertNotEquals(query, new D1AclQuery(D1AclQParserPlugin.DEFAULT_FIELDS,
+                                              subjects("public", "CN=b")));
+        assertFalse(query.toString().contains("CN=a"));
+
+        Map<Object, Object> context = new HashMap<Object, Object>();
+        assertNull(D1AclQParserPlugin.getAuthorizedSubjects(context));
+        D1AclQParserPlugin.setAuthorizedSubjects(context, Arrays.asList("CN=b", "CN=a"));
+        assertEquals(subjects("CN=a", "CN=b"), D1AclQParserPlugin.getAuthorizedSubjects(context));
+    }
+}
@@ -0,0 +1,122 @@
+package org.dataone.solr.search;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.FixedBitSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the D1AclSegmentCache class
+ */
+public class D1AclSegmentCacheTest {
+
+    private static D1AclQuery query(String... subjects) {
+        return new D1AclQuery(D1AclQParserPlugin.DEFAULT_FIELDS,
+                              new TreeSet<String>(Arrays.asList(subjects)));
+    }
+
+    private static void addDocs(IndexWriter writer, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            Document doc = new Document();
+            doc.add(new StringField("rightsHolder", "CN=user" + (i % 10), Field.Store.NO));
+            doc.add(new StringField("readPermission", i % 3 == 0 ? "public" : "CN=group",
+                                    Field.Store.NO));
+            writer.addDocument(doc);
+        }
+        writer.commit();
+    }
+
+    /**
+     * Test that a subject set is kept once it is used often enough, that a reopened searcher
+     * finds the bits of its unchanged segments, and that a closed segment drops its bits
+     * @throws Exception
+     */
+    @Test
+    public void testSharedAcrossSearchers() throws Exception {
+        D1AclSegmentCache cache = new D1AclSegmentCache(1024 * 1024, 2);
+        D1AclQuery query = query("CN=user3", "public");
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        IndexWriterConfig config = new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            addDocs(writer, 300);
+            DirectoryReader reader = DirectoryReader.open(directory);
+            IndexSearcher searcher = new IndexSearcher(reader);
+            LeafReaderContext first = reader.leaves().get(0);
+
+            cache.recordUse(query);
+            D1AclBits.compute(searcher, query, null, cache);
+            assertEquals("a set used once is not kept", 0, cache.size());
+            cache.recordUse(query("public", "CN=user3"));
+            D1AclBits bits = D1AclBits.compute(searcher, query, null, cache);
+            assertEquals(1, cache.size());
+            assertSame(bits.get(first), cache.get(first, query));
+            assertTrue(cache.ramBytesUsed() >= bits.get(first).ramBytesUsed());
+
+            addDocs(writer, 100);
+            DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+            D1AclBits newBits =
+                D1AclBits.compute(new IndexSearcher(newReader), query, null, cache);
+            assertSame(bits.get(first), newBits.get(newReader.leaves().get(0)));
+            assertEquals(2, cache.size());
+            assertTrue(cache.getHits() > 0);
+
+            reader.close();
+            assertEquals("the segment is still open in the new reader", 2, cache.size());
+            newReader.close();
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.ramBytesUsed());
+        }
+    }
+
+    /**
+     * Test that the least recently used bits are evicted beyond the cap, and that a cap of zero
+     * disables the cache
+     * @throws Exception
+     */
+    @Test
+    public void testCapAndDisabled() throws Exception {
+        ByteBuffersDirectory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            addDocs(writer, 8000);
+        }
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            LeafReaderContext context = reader.leaves().get(0);
+            FixedBitSet bits = new FixedBitSet(context.reader().maxDoc());
+            long entryBytes = bits.ramBytesUsed() + query("CN=user0").ramBytesUsed();
+            D1AclSegmentCache cache = new D1AclSegmentCache(entryBytes * 5 / 2, 1);
+            for (int i = 0; i < 4; i++) {
+                cache.recordUse(query("CN=user" + i));
+                cache.put(context, query("CN=user" + i), bits);
+            }
+            assertTrue(cache.ramBytesUsed() <= cache.getMaxBytes());
+            assertEquals(2, cache.size());
+            assertEquals(2, cache.getEvictions());
+            assertNull(cache.get(context, query("CN=user0")));
+            assertNotNull(cache.get(context, query("CN=user3")));
+
+            D1AclSegmentCache disabled = new D1AclSegmentCache(0, 1);
+            disabled.recordUse(query("CN=user0"));
+            disabled.put(context, query("CN=user0"), bits);
+            assertFalse(disabled.isEnabled());
+            assertNull(disabled.get(context, query("CN=user0")));
+        }
+    }
+}
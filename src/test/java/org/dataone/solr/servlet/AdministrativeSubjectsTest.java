@@ -0,0 +1,86 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.service.types.v1.Subject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the AdministrativeSubjects class
+ */
+public class AdministrativeSubjectsTest {
+    private static Subject subject(String value) {
+        Subject subject = new Subject();
+        subject.setValue(value);
+        return subject;
+    }
+
+    /*
+     * A snapshot with the given number of MNs, each having two subjects
+     */
+    private static AdministrativeSubjects snapshot(int nodes) {
+        Map<String, List<Subject>> mnNodeIdToSubjects = new LinkedHashMap<String, List<Subject>>();
+        for (int i = 0; i < nodes; i++) {
+            mnNodeIdToSubjects.put("urn:node:MN" + i, Arrays.asList(
+                subject("CN=urn:node:MN" + i + ",DC=dataone,DC=org"),
+                subject("CN=admin" + i + ",DC=dataone,DC=org")));
+        }
+        return new AdministrativeSubjects(new ArrayList<Subject>(), mnNodeIdToSubjects);
+    }
+
+    /**
+     * Test that a subject resolves to its MNs in nodelist order
+     * @throws Exception
+     */
+    @Test
+    public void testMnNodeIds() throws Exception {
+        Map<String, List<Subject>> mnNodeIdToSubjects = new LinkedHashMap<String, List<Subject>>();
+        Subject shared = subject("CN=shared,DC=dataone,DC=org");
+        mnNodeIdToSubjects.put("urn:node:B", Arrays.asList(shared));
+        mnNodeIdToSubjects.put("urn:node:A", Arrays.asList(subject("CN=a,DC=dataone,DC=org"),
+                                                           shared));
+        AdministrativeSubjects snapshot = new AdministrativeSubjects(
+            Arrays.asList(subject("CN=cn,DC=dataone,DC=org")), mnNodeIdToSubjects);
+        assertTrue(snapshot.isCnAdministrator(subject("CN=cn,DC=dataone,DC=org")));
+        assertFalse(snapshot.isMnAdministrator(subject("CN=cn,DC=dataone,DC=org")));
+        assertTrue(snapshot.getMnNodeIds(subject("CN=cn,DC=dataone,DC=org")).isEmpty());
+        Set<String> nodeIds = snapshot.getMnNodeIds(subject("CN=shared,DC=dataone,DC=org"));
+        assertEquals(2, nodeIds.size());
+        Iterator<String> iterator = nodeIds.iterator();
+        assertEquals("urn:node:B", iterator.next());
+        assertEquals("urn:node:A", iterator.next());
+        assertEquals(1, snapshot.getMnNodeIds(subject("CN=a,DC=dataone,DC=org")).size());
+        assertEquals(2, snapshot.getMnSubjects().size());
+        assertEquals(2, snapshot.getMnNodeIdToSubjects().size());
+    }
+
+    /**
+     * Test that every subject of a large nodelist resolves to its own MN only
+     * @throws Exception
+     */
+    @Test
+    public void testLargeNodeList() throws Exception {
+        AdministrativeSubjects large = snapshot(10000);
+        for (int i = 0; i < 10000; i++) {
+            for (String value : new String[] { "CN=urn:node:MN" + i + ",DC=dataone,DC=org",
+                                               "CN=admin" + i + ",DC=dataone,DC=org" }) {
+                assertTrue(large.isMnAdministrator(subject(value)));
+                assertEquals(Collections.singleton("urn:node:MN" + i),
+                             large.getMnNodeIds(subject(value)));
+            }
+        }
+        assertFalse(large.isMnAdministrator(subject("CN=admin10000,DC=dataone,DC=org")));
+        assertEquals(20000, large.getMnSubjects().size());
+    }
+}
@@ -0,0 +1,74 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.cn.servlet.http.ParameterKeys;
+import org.dataone.solr.servlet.AuthorizationDecisionCache.AuthorizationDecision;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * A Junit test class for the AuthorizationDecisionCache class
+ */
+public class AuthorizationDecisionCacheTest {
+    private final static String USER = "http://orcid.org/0000-0002-1209-5268";
+    private final static String GROUP = "CN=testGroup,DC=dataone,DC=org";
+    private final static String[] SUBJECTS = {GROUP, USER, "authenticatedUser", "public"};
+
+    private static AuthorizationRequestWrapper request() {
+        return new AuthorizationRequestWrapper(new MockHttpServletRequest());
+    }
+
+    /**
+     * Test that a decision is replayed on another request
+     * @throws Exception
+     */
+    @Test
+    public void testReplay() throws Exception {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60000);
+        AuthorizationRequestWrapper first = request();
+        first.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS, SUBJECTS);
+        first.setParameterValues(ParameterKeys.IS_MN_ADMINISTRATOR, new String[] {});
+        cache.put("token:abc", USER, first, Long.MAX_VALUE, cache.getGeneration());
+        assertNull(cache.get(null));
+        assertNull(cache.get("token:def"));
+        AuthorizationDecision decision = cache.get("token:abc");
+        assertNotNull(decision);
+        assertEquals(USER, decision.getSubject());
+        AuthorizationRequestWrapper second = request();
+        decision.applyTo(second);
+        assertArrayEquals(SUBJECTS, second.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS));
+        assertNull(second.getParameterValues(ParameterKeys.IS_CN_ADMINISTRATOR));
+        assertNull(second.getParameterValues(ParameterKeys.IS_MN_ADMINISTRATOR));
+    }
+
+    /**
+     * Test that a decision is not stored after a clear, nor with an expired credential, and
+     * that it can be forgotten by subject or group
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidation() throws Exception {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60000);
+        AuthorizationRequestWrapper request = request();
+        request.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS, SUBJECTS);
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.put("cert:abc", USER, request, Long.MAX_VALUE, generation);
+        assertEquals(0, cache.size());
+        cache.put("cert:abc", USER, request, -1, cache.getGeneration());
+        assertEquals(0, cache.size());
+        cache.put("cert:abc", USER, request, Long.MAX_VALUE, cache.getGeneration());
+        cache.put("cookie:abc", null, request(), Long.MAX_VALUE, cache.getGeneration());
+        assertEquals(2, cache.size());
+        cache.invalidate(GROUP);
+        assertNull(cache.get("cert:abc"));
+        assertNotNull(cache.get("cookie:abc"));
+        cache.put("cert:abc", USER, request, Long.MAX_VALUE, cache.getGeneration());
+        cache.invalidate(USER);
+        assertEquals(1, cache.size());
+    }
+}
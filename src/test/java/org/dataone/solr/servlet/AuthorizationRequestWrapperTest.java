@@ -0,0 +1,125 @@
+package org.dataone.solr.servlet;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+
+import org.dataone.cn.servlet.http.ParameterKeys;
+import org.dataone.cn.servlet.http.ProxyServletRequestWrapper;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the AuthorizationRequestWrapper class
+ */
+public class AuthorizationRequestWrapperTest {
+    private final static String USER = "http://orcid.org/0000-0002-1209-5268";
+    private final static int PARAMETERS = 200;
+    private final static int REQUESTS = 20000;
+
+    private static MockHttpServletRequest largeRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        for (int i = 0; i < PARAMETERS; i++) {
+            request.addParameter("fq" + i, "formatId:eml" + i);
+        }
+        request.addParameter("q", "*:*");
+        return request;
+    }
+
+    /**
+     * Test that the client supplied authorization parameters are hidden and the other ones are
+     * passed through
+     * @throws Exception
+     */
+    @Test
+    public void testOverlay() throws Exception {
+        MockHttpServletRequest client = new MockHttpServletRequest();
+        client.addParameter("q", "*:*");
+        client.addParameter(ParameterKeys.IS_CN_ADMINISTRATOR, "forged");
+        client.addParameter(ParameterKeys.AUTHORIZED_SUBJECTS, "forged");
+        AuthorizationRequestWrapper request = new AuthorizationRequestWrapper(client);
+        assertTrue(request.hasClientAuthorizationParameters());
+        assertEquals("*:*", request.getParameter("q"));
+        assertNull(request.getParameter(ParameterKeys.IS_CN_ADMINISTRATOR));
+        assertNull(request.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS));
+        assertEquals(Collections.singleton("q"), request.getParameterMap().keySet());
+        assertEquals(Collections.singletonList("q"),
+                     Collections.list(request.getParameterNames()));
+
+        request.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS, new String[] {USER});
+        assertEquals(USER, request.getParameter(ParameterKeys.AUTHORIZED_SUBJECTS));
+        assertArrayEquals(new String[] {USER},
+                          request.getParameterMap().get(ParameterKeys.AUTHORIZED_SUBJECTS));
+        assertEquals(2, request.getParameterMap().size());
+        request.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS, new String[] {});
+        assertNull(request.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS));
+    }
+
+    /**
+     * Test that the map of a request without authorization parameters is not copied and that
+     * other parameters can not be set
+     * @throws Exception
+     */
+    @Test
+    public void testDelegation() throws Exception {
+        MockHttpServletRequest client = largeRequest();
+        AuthorizationRequestWrapper request = new AuthorizationRequestWrapper(client);
+        assertFalse(request.hasClientAuthorizationParameters());
+        assertEquals(client.getParameterMap(), request.getParameterMap());
+        try {
+            request.setParameterValues("q", new String[] {"id:*"});
+            assertTrue("should have refused to set q", false);
+        } catch (IllegalArgumentException e) {
+            assertEquals("*:*", request.getParameter("q"));
+        }
+    }
+
+    /**
+     * Compare the bytes allocated per request by this wrapper and the ProxyServletRequestWrapper
+     * for a request with many parameters, doing what the filter does for an anonymous request
+     * @throws Exception
+     */
+    @Test
+    public void testAllocation() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()
+                || !threadBean.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        MockHttpServletRequest client = largeRequest();
+        long threadId = Thread.currentThread().getId();
+        long proxyBytes = 0;
+        long overlayBytes = 0;
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up
+            long start = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < REQUESTS; i++) {
+                ProxyServletRequestWrapper proxy = new ProxyServletRequestWrapper(client);
+                Map<?, ?> map = proxy.getParameterMap();
+                if (map.containsKey(ParameterKeys.AUTHORIZED_SUBJECTS)) {
+                    proxy.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS, new String[] {});
+                }
+            }
+            proxyBytes = threadBean.getThreadAllocatedBytes(threadId) - start;
+            start = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < REQUESTS; i++) {
+                AuthorizationRequestWrapper overlay = new AuthorizationRequestWrapper(client);
+                overlay.hasClientAuthorizationParameters();
+            }
+            overlayBytes = threadBean.getThreadAllocatedBytes(threadId) - start;
+        }
+        assertTrue("bytes per request: ProxyServletRequestWrapper " + proxyBytes / REQUESTS
+                       + ", AuthorizationRequestWrapper " + overlayBytes / REQUESTS,
+                   overlayBytes * 10 < proxyBytes);
+    }
+}
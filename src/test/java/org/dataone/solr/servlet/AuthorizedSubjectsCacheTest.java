@@ -0,0 +1,106 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.service.types.v1.Group;
+import org.dataone.service.types.v1.Person;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.dataone.service.util.Constants;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the AuthorizedSubjectsCache class
+ */
+public class AuthorizedSubjectsCacheTest {
+    private final static String USER = "http://orcid.org/0000-0002-1209-5268";
+    private final static String GROUP = "CN=testGroup,DC=dataone,DC=org";
+    private final static String EQUIVALENT = "CN=Jane Doe A123,O=Google,C=US,DC=cilogon,DC=org";
+
+    private static Subject subject(String value) {
+        Subject subject = new Subject();
+        subject.setValue(value);
+        return subject;
+    }
+
+    /*
+     * The SubjectInfo of USER, who is a member of GROUP and has an equivalent identity
+     */
+    private static SubjectInfo subjectInfo() {
+        Person person = new Person();
+        person.setSubject(subject(USER));
+        person.setFamilyName("Doe");
+        person.addIsMemberOf(subject(GROUP));
+        person.addEquivalentIdentity(subject(EQUIVALENT));
+        Person equivalent = new Person();
+        equivalent.setSubject(subject(EQUIVALENT));
+        equivalent.setFamilyName("Doe");
+        Group group = new Group();
+        group.setSubject(subject(GROUP));
+        group.setGroupName("test");
+        group.addHasMember(subject(USER));
+        SubjectInfo subjectInfo = new SubjectInfo();
+        subjectInfo.addPerson(person);
+        subjectInfo.addPerson(equivalent);
+        subjectInfo.addGroup(group);
+        return subjectInfo;
+    }
+
+    /**
+     * Test that the list is expanded once per SubjectInfo object, sorted and de-duplicated
+     * @throws Exception
+     */
+    @Test
+    public void testExpansion() throws Exception {
+        AuthorizedSubjectsCache cache = new AuthorizedSubjectsCache(10, 60000,
+                                                                    new StandardizedDNCache(10));
+        SubjectInfo subjectInfo = subjectInfo();
+        String[] first = cache.getAuthorizedSubjects(subject(USER), subjectInfo);
+        String[] sorted = first.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(sorted, first);
+        List<String> subjects = Arrays.asList(first);
+        assertEquals(subjects.size(), new HashSet<String>(subjects).size());
+        assertTrue(subjects.contains(Constants.SUBJECT_PUBLIC));
+        assertTrue(subjects.contains(Constants.SUBJECT_AUTHENTICATED_USER));
+        assertTrue(subjects.contains(USER));
+        assertTrue(subjects.contains(GROUP));
+        assertTrue(subjects.contains(EQUIVALENT));
+        String[] second = cache.getAuthorizedSubjects(subject(USER), subjectInfo);
+        assertNotSame(first, second);
+        assertArrayEquals(first, second);
+        assertEquals(1, cache.getHits());
+        // a new SubjectInfo object replaces the entry
+        cache.getAuthorizedSubjects(subject(USER), subjectInfo());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Test the list of a subject without SubjectInfo and the invalidation by subject and group
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidation() throws Exception {
+        AuthorizedSubjectsCache cache = new AuthorizedSubjectsCache(10, 60000,
+                                                                    new StandardizedDNCache(10));
+        String[] plain = cache.getAuthorizedSubjects(subject("CN=other,DC=dataone,DC=org"), null);
+        assertArrayEquals(new String[] {"CN=other,DC=dataone,DC=org",
+                                        Constants.SUBJECT_AUTHENTICATED_USER,
+                                        Constants.SUBJECT_PUBLIC}, plain);
+        cache.getAuthorizedSubjects(subject(USER), subjectInfo());
+        assertEquals(2, cache.size());
+        assertEquals(Arrays.asList(USER), cache.invalidateGroup(subject(GROUP)));
+        assertEquals(1, cache.size());
+        cache.invalidate(subject("CN=other,DC=dataone,DC=org"));
+        assertEquals(0, cache.size());
+    }
+}
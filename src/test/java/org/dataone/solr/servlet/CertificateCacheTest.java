@@ -0,0 +1,81 @@
+package org.dataone.solr.servlet;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the CertificateCache class
+ */
+public class CertificateCacheTest {
+
+    /*
+     * Read a PEM certificate from the class path and turn its line breaks into spaces, as
+     * mod_header does when apache forwards the SSL_CLIENT_CERT header
+     */
+    private static String header(String resource) throws Exception {
+        try (InputStream pem = CertificateCacheTest.class.getResourceAsStream(resource)) {
+            return IOUtils.toString(pem, StandardCharsets.US_ASCII).trim().replace('\n', ' ');
+        }
+    }
+
+    /**
+     * Test that a certificate is parsed once and then served from the cache
+     * @throws Exception
+     */
+    @Test
+    public void testParseOnce() throws Exception {
+        CertificateCache cache = new CertificateCache(10, 60000);
+        String header = header("testClientCert.pem");
+        X509Certificate[] first = cache.getCertificates(header);
+        assertEquals(1, first.length);
+        assertTrue(first[0].getSubjectX500Principal().getName().contains("urn:node:testMN"));
+        X509Certificate[] second = cache.getCertificates(header);
+        // the callers get their own array around the same certificate
+        assertNotSame(first, second);
+        assertSame(first[0], second[0]);
+        assertEquals(1, cache.getParses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Test that an expired certificate and a disabled cache do not keep anything
+     * @throws Exception
+     */
+    @Test
+    public void testExpiredAndDisabled() throws Exception {
+        CertificateCache cache = new CertificateCache(10, 60000);
+        String expired = header("expiredClientCert.pem");
+        cache.getCertificates(expired);
+        cache.getCertificates(expired);
+        assertEquals(2, cache.getParses());
+        assertEquals(0, cache.size());
+        CertificateCache disabled = new CertificateCache(0, 60000);
+        String header = header("testClientCert.pem");
+        disabled.getCertificates(header);
+        disabled.getCertificates(header);
+        assertEquals(2, disabled.getParses());
+        assertEquals(0, disabled.size());
+    }
+
+    /**
+     * Test that a broken header is reported as a CertificateException
+     * @throws Exception
+     */
+    @Test(expected = CertificateException.class)
+    public void testBrokenCertificate() throws Exception {
+        CertificateCache cache = new CertificateCache(10, 60000);
+        cache.getCertificates("-----BEGIN CERTIFICATE----- bm90IGEgY2VydGlmaWNhdGU="
+                                  + " -----END CERTIFICATE-----");
+    }
+}
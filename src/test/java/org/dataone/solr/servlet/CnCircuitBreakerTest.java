@@ -0,0 +1,118 @@
+package org.dataone.solr.servlet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the CnCircuitBreaker class
+ */
+public class CnCircuitBreakerTest {
+
+    /**
+     * A breaker with a clock the test moves
+     */
+    private static class ManualClockCircuitBreaker extends CnCircuitBreaker {
+        private long now = 1000000L;
+
+        ManualClockCircuitBreaker(int failureThreshold, long openMS, long callBudgetMS) {
+            super(failureThreshold, openMS, callBudgetMS, Fallback.CERTIFICATE);
+        }
+
+        @Override
+        protected long now() {
+            return now;
+        }
+    }
+
+    /**
+     * Test the closed, open and half open states
+     * @throws Exception
+     */
+    @Test
+    public void testStates() throws Exception {
+        ManualClockCircuitBreaker breaker = new ManualClockCircuitBreaker(3, 1000, 0);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(breaker.allowCall());
+            breaker.recordFailure();
+        }
+        // a success resets the consecutive failures
+        assertTrue(breaker.allowCall());
+        breaker.recordSuccess(10);
+        assertEquals(0, breaker.getConsecutiveFailures());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowCall());
+            breaker.recordFailure();
+        }
+        assertEquals(CnCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowCall());
+        assertEquals(1, breaker.getRejectedCalls());
+        assertEquals(1, breaker.getOpenings());
+
+        // one probe after the open period, which fails
+        breaker.now += 1000;
+        assertTrue(breaker.allowCall());
+        assertEquals(CnCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowCall());
+        breaker.recordFailure();
+        assertEquals(CnCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenings());
+        assertFalse(breaker.allowCall());
+
+        // a probe which succeeds closes the breaker
+        breaker.now += 1000;
+        assertTrue(breaker.allowCall());
+        breaker.recordSuccess(10);
+        assertEquals(CnCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowCall());
+        assertEquals(6, breaker.getFailures());
+    }
+
+    /**
+     * Test that a probe which never reports back does not keep the breaker half open forever
+     * @throws Exception
+     */
+    @Test
+    public void testLostProbe() throws Exception {
+        ManualClockCircuitBreaker breaker = new ManualClockCircuitBreaker(1, 1000, 0);
+        assertTrue(breaker.allowCall());
+        breaker.recordFailure();
+        breaker.now += 1000;
+        assertTrue(breaker.allowCall());
+        assertFalse(breaker.allowCall());
+        breaker.now += 1000;
+        assertTrue(breaker.allowCall());
+    }
+
+    /**
+     * Test that calls over the latency budget count as failures
+     * @throws Exception
+     */
+    @Test
+    public void testLatencyBudget() throws Exception {
+        ManualClockCircuitBreaker breaker = new ManualClockCircuitBreaker(2, 1000, 100);
+        assertTrue(breaker.allowCall());
+        breaker.recordSuccess(150);
+        assertTrue(breaker.allowCall());
+        breaker.recordSuccess(150);
+        assertEquals(CnCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getSlowCalls());
+    }
+
+    /**
+     * Test that a disabled breaker never opens
+     * @throws Exception
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        CnCircuitBreaker breaker = CnCircuitBreaker.disabled();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(breaker.allowCall());
+            breaker.recordFailure();
+        }
+        assertEquals(CnCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(100, breaker.getFailures());
+    }
+}
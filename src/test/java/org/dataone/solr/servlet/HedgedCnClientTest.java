@@ -0,0 +1,239 @@
+package org.dataone.solr.servlet;
+
+import com.sun.net.httpserver.HttpServer;
+import org.dataone.service.exceptions.InvalidToken;
+import org.dataone.service.exceptions.NotAuthorized;
+import org.dataone.service.exceptions.NotFound;
+import org.dataone.service.exceptions.ServiceFailure;
+import org.dataone.service.types.v1.Person;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.dataone.service.util.TypeMarshaller;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the HedgedCnClient class. The CNs are local http servers which answer
+ * with a configurable delay and status code.
+ */
+public class HedgedCnClientTest {
+    private final static String USER = "http://orcid.org/0000-0002-1209-5268";
+    private final List<StandInCn> cns = new ArrayList<StandInCn>();
+
+    /**
+     * A local http server standing in for a CN
+     */
+    private static class StandInCn {
+        private final HttpServer server;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile long delayMS = 0;
+        private volatile int status = 200;
+        private volatile byte[] body = "<nodeList/>".getBytes(StandardCharsets.UTF_8);
+
+        StandInCn(String name) throws Exception {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/cn", exchange -> {
+                requests.incrementAndGet();
+                try {
+                    Thread.sleep(delayMS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.getResponseHeaders().add("X-CN", name);
+                exchange.sendResponseHeaders(status, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+
+        String getBaseUrl() {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/cn/";
+        }
+    }
+
+    private List<String> start(int count) throws Exception {
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            StandInCn cn = new StandInCn("cn" + i);
+            cns.add(cn);
+            urls.add(cn.getBaseUrl());
+        }
+        return urls;
+    }
+
+    private static String answeredBy(HttpResponse<InputStream> response) throws Exception {
+        response.body().close();
+        return response.headers().firstValue("X-CN").orElse(null);
+    }
+
+    @After
+    public void tearDown() {
+        for (StandInCn cn : cns) {
+            cn.server.stop(0);
+        }
+    }
+
+    /**
+     * Test that a fast primary is the only CN asked
+     * @throws Exception
+     */
+    @Test
+    public void testFastPrimary() throws Exception {
+        HedgedCnClient client = new HedgedCnClient(start(2), HttpClient.newHttpClient(), 500,
+                                                   5000);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("cn0", answeredBy(client.send("/v2/node",
+                                                       Collections.<String, String>emptyMap())));
+        }
+        assertEquals(5, cns.get(0).requests.get());
+        assertEquals(0, cns.get(1).requests.get());
+        assertEquals(0, client.getHedgedRequests());
+    }
+
+    /**
+     * Test that a slow primary is hedged and the replica's answer is taken
+     * @throws Exception
+     */
+    @Test
+    public void testHedge() throws Exception {
+        HedgedCnClient client = new HedgedCnClient(start(2), HttpClient.newHttpClient(), 50,
+                                                   10000);
+        cns.get(0).delayMS = 3000;
+        long start = System.currentTimeMillis();
+        assertEquals("cn1", answeredBy(client.send("/v2/node",
+                                                   Collections.<String, String>emptyMap())));
+        assertTrue(System.currentTimeMillis() - start < 2500);
+        assertEquals(1, client.getHedgedRequests());
+        assertEquals(1, client.getAlternateAnswers());
+        assertEquals(1, cns.get(1).requests.get());
+    }
+
+    /**
+     * Test that a failing CN is replaced straight away, without waiting for the hedge delay,
+     * and that a request fails only when every CN failed
+     * @throws Exception
+     */
+    @Test
+    public void testFailover() throws Exception {
+        HedgedCnClient client = new HedgedCnClient(start(3), HttpClient.newHttpClient(), 0,
+                                                   5000);
+        cns.get(0).status = 503;
+        cns.get(1).status = 500;
+        assertEquals("cn2", answeredBy(client.send("/v2/node",
+                                                   Collections.<String, String>emptyMap())));
+        assertEquals(2, client.getFailovers());
+        assertEquals(0, client.getHedgedRequests());
+        cns.get(2).status = 502;
+        try {
+            client.send("/v2/node", Collections.<String, String>emptyMap());
+            assertTrue("every CN failed", false);
+        } catch (ServiceFailure e) {
+            assertEquals(2, cns.get(2).requests.get());
+        }
+    }
+
+    /**
+     * Test that a request gives up after the timeout
+     * @throws Exception
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        HedgedCnClient client = new HedgedCnClient(start(1), HttpClient.newHttpClient(), 50,
+                                                   200);
+        cns.get(0).delayMS = 2000;
+        long start = System.currentTimeMillis();
+        try {
+            client.send("/v2/node", Collections.<String, String>emptyMap());
+            assertTrue("the CN is too slow", false);
+        } catch (ServiceFailure e) {
+            assertTrue(System.currentTimeMillis() - start < 1500);
+        }
+    }
+
+    /**
+     * Test that the hedge delay follows the 95th percentile of the response times
+     * @throws Exception
+     */
+    @Test
+    public void testHedgeDelay() throws Exception {
+        HedgedCnClient client = new HedgedCnClient(Arrays.asList("http://localhost/cn"),
+                                                   HttpClient.newHttpClient(), 500, 0);
+        assertEquals(500, client.getHedgeDelayMS());
+        for (int i = 1; i <= 100; i++) {
+            client.recordLatency(i);
+        }
+        assertEquals(95, client.getHedgeDelayMS());
+        HedgedCnClient noHedge = new HedgedCnClient(Arrays.asList("http://localhost/cn"),
+                                                    HttpClient.newHttpClient(), 0, 0);
+        noHedge.recordLatency(10);
+        assertEquals(0, noHedge.getHedgeDelayMS());
+    }
+
+    /**
+     * Test the subject info lookup against a stand-in CN
+     * @throws Exception
+     */
+    @Test
+    public void testGetSubjectInfo() throws Exception {
+        HedgedCnClient client = new HedgedCnClient(start(1), HttpClient.newHttpClient(), 500,
+                                                   5000);
+        SubjectInfo subjectInfo = new SubjectInfo();
+        Person person = new Person();
+        Subject subject = new Subject();
+        subject.setValue(USER);
+        person.setSubject(subject);
+        person.addGivenName("Jing");
+        person.setFamilyName("Tao");
+        subjectInfo.addPerson(person);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TypeMarshaller.marshalTypeToOutputStream(subjectInfo, out);
+        cns.get(0).body = out.toByteArray();
+        SubjectInfo answer = client.getSubjectInfo(subject);
+        assertEquals(USER, answer.getPerson(0).getSubject().getValue());
+        cns.get(0).status = 404;
+        try {
+            client.getSubjectInfo(subject);
+            assertTrue("the subject is unknown", false);
+        } catch (NotFound e) {
+            assertEquals(0, client.getFailovers());
+        }
+        cns.get(0).status = 401;
+        cns.get(0).body = ("<error detailCode=\"1050\" errorCode=\"401\" name=\"InvalidToken\">"
+            + "<description>The token has expired</description></error>")
+            .getBytes(StandardCharsets.UTF_8);
+        try {
+            client.getSubjectInfo(subject);
+            assertTrue("the DataONE error should have been thrown", false);
+        } catch (InvalidToken e) {
+            assertEquals("1050", e.getDetail_code());
+            assertEquals("The token has expired", e.getDescription());
+        }
+        cns.get(0).body = "Unauthorized".getBytes(StandardCharsets.UTF_8);
+        try {
+            client.getSubjectInfo(subject);
+            assertTrue("the status code should have been mapped", false);
+        } catch (NotAuthorized e) {
+            assertEquals(0, client.getFailovers());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.service.types.v1.Subject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the NodeListParser class
+ */
+public class NodeListParserTest {
+    private final static String NODE_LIST =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<d1:nodeList xmlns:d1=\"http://ns.dataone.org/service/types/v2.0\">"
+            + "<node replicate=\"false\" synchronize=\"false\" type=\"cn\" state=\"up\">"
+            + "<identifier>urn:node:CN</identifier><name>cn</name>"
+            + "<services><service name=\"CNCore\" version=\"v2\" available=\"true\">"
+            + "<restriction methodName=\"create\">"
+            + "<subject>CN=restricted,DC=dataone,DC=org</subject></restriction>"
+            + "</service></services>"
+            + "<subject>CN=urn:node:CN,DC=dataone,DC=org</subject>"
+            + "<contactSubject>CN=contact,DC=dataone,DC=org</contactSubject>"
+            + "</node>"
+            + "<node replicate=\"true\" synchronize=\"true\" type=\"mn\" state=\"up\">"
+            + "<identifier>urn:node:KNB</identifier>"
+            + "<subject>CN=urn:node:KNB,DC=dataone,DC=org</subject>"
+            + "<subject>CN=urn:node:KNB2,DC=dataone,DC=org</subject>"
+            + "</node>"
+            + "<node replicate=\"true\" synchronize=\"true\" type=\"mn\" state=\"down\">"
+            + "<identifier>urn:node:DOWN</identifier>"
+            + "<subject>CN=urn:node:DOWN,DC=dataone,DC=org</subject>"
+            + "</node>"
+            + "</d1:nodeList>";
+
+    private static Subject subject(String value) {
+        Subject subject = new Subject();
+        subject.setValue(value);
+        return subject;
+    }
+
+    /**
+     * Test that only the direct subjects of the nodes which are up are collected
+     * @throws Exception
+     */
+    @Test
+    public void testParse() throws Exception {
+        List<Subject> cnSubjects = new ArrayList<Subject>();
+        Map<String, List<Subject>> mnNodeIdToSubjects = new LinkedHashMap<String, List<Subject>>();
+        NodeListParser.parse(new ByteArrayInputStream(NODE_LIST.getBytes(StandardCharsets.UTF_8)),
+                             cnSubjects, mnNodeIdToSubjects);
+        assertEquals(1, cnSubjects.size());
+        assertEquals(subject("CN=urn:node:CN,DC=dataone,DC=org"), cnSubjects.get(0));
+        assertFalse(cnSubjects.contains(subject("CN=restricted,DC=dataone,DC=org")));
+        assertEquals(1, mnNodeIdToSubjects.size());
+        assertTrue(mnNodeIdToSubjects.containsKey("urn:node:KNB"));
+        assertEquals(2, mnNodeIdToSubjects.get("urn:node:KNB").size());
+        assertEquals(subject("CN=urn:node:KNB2,DC=dataone,DC=org"),
+                     mnNodeIdToSubjects.get("urn:node:KNB").get(1));
+    }
+
+    /**
+     * Test that a document with a DTD is refused
+     * @throws Exception
+     */
+    @Test(expected = javax.xml.stream.XMLStreamException.class)
+    public void testDoctypeRefused() throws Exception {
+        String xml = "<?xml version=\"1.0\"?><!DOCTYPE foo [<!ENTITY xxe SYSTEM "
+            + "\"file:///etc/passwd\">]><nodeList><node type=\"cn\" state=\"up\">"
+            + "<subject>&xxe;</subject></node></nodeList>";
+        NodeListParser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                             new ArrayList<Subject>(), new LinkedHashMap<String, List<Subject>>());
+    }
+}
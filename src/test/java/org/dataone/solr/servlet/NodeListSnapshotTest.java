@@ -0,0 +1,156 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.service.types.v1.Subject;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.org.webcompere.systemstubs.rules.EnvironmentVariablesRule;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the NodeListSnapshot class
+ */
+public class NodeListSnapshotTest {
+    private final static String URL = "https://cn-sandbox.test.dataone.org/cn/v2/node";
+    private final static String CN_SUBJECT = "CN=urn:node:cnSandboxUCSB1,DC=dataone,DC=org";
+    private final static String MN_SUBJECT = "CN=urn:node:mnTestKNB,DC=dataone,DC=org";
+    private final static String MN_ID = "urn:node:mnTestKNB";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    @Rule
+    public EnvironmentVariablesRule environmentVariablesRule = new EnvironmentVariablesRule();
+
+    private static Subject subject(String value) {
+        Subject subject = new Subject();
+        subject.setValue(value);
+        return subject;
+    }
+
+    private static NodeListSnapshot snapshot(String eTag) {
+        Map<String, List<Subject>> nodes = new LinkedHashMap<String, List<Subject>>();
+        nodes.put(MN_ID, Arrays.asList(subject(MN_SUBJECT)));
+        nodes.put("urn:node:mnEmpty", new ArrayList<Subject>());
+        return new NodeListSnapshot(URL, eTag, null, 1234L, Arrays.asList(subject(CN_SUBJECT)),
+                                    nodes);
+    }
+
+    /**
+     * Test that a saved snapshot reads back the same
+     * @throws Exception
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("sub").resolve("nodelist.snapshot");
+        snapshot("\"abc\"").write(file);
+        NodeListSnapshot read = NodeListSnapshot.read(file);
+        assertEquals(URL, read.getUrl());
+        assertEquals("\"abc\"", read.getETag());
+        assertNull(read.getLastModified());
+        assertEquals(1234L, read.getCreatedMS());
+        assertEquals(Arrays.asList(subject(CN_SUBJECT)), read.getCnSubjects());
+        assertEquals(Arrays.asList(MN_ID, "urn:node:mnEmpty"),
+                     new ArrayList<String>(read.getMnNodeIdToSubjects().keySet()));
+        assertEquals(Arrays.asList(subject(MN_SUBJECT)), read.getMnNodeIdToSubjects().get(MN_ID));
+        assertTrue(read.getMnNodeIdToSubjects().get("urn:node:mnEmpty").isEmpty());
+        // an existing snapshot is replaced
+        snapshot(null).write(file);
+        assertNull(NodeListSnapshot.read(file).getETag());
+        assertEquals(1, Files.list(file.getParent()).count());
+    }
+
+    /**
+     * Test that a missing file is no snapshot and a damaged one is refused
+     * @throws Exception
+     */
+    @Test
+    public void testDamagedFile() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("nodelist.snapshot");
+        assertNull(NodeListSnapshot.read(file));
+        snapshot("\"abc\"").write(file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        byte[] flipped = bytes.clone();
+        flipped[bytes.length / 2] ^= 1;
+        Files.write(file, flipped);
+        assertRefused(file);
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        assertRefused(file);
+
+        Files.write(file, new byte[4]);
+        assertRefused(file);
+
+        Files.write(file, "<nodeList/>".getBytes("UTF-8"));
+        assertRefused(file);
+    }
+
+    private static void assertRefused(Path file) {
+        try {
+            NodeListSnapshot.read(file);
+            assertTrue("the snapshot " + file + " is damaged", false);
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(file.toString()));
+        }
+    }
+
+    /**
+     * Test the configured file: it can be disabled, and a damaged one is ignored
+     * @throws Exception
+     */
+    @Test
+    public void testConfiguredFile() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("configured.snapshot");
+        environmentVariablesRule.set(NodeListSnapshot.ENV_NAME_FILE, file.toString());
+        assertEquals(file, NodeListSnapshot.getConfiguredFile());
+        assertNull(NodeListSnapshot.readConfiguredFile());
+        snapshot("\"abc\"").writeToConfiguredFile();
+        assertEquals("\"abc\"", NodeListSnapshot.readConfiguredFile().getETag());
+        Files.write(file, new byte[16]);
+        assertNull(NodeListSnapshot.readConfiguredFile());
+
+        environmentVariablesRule.set(NodeListSnapshot.ENV_NAME_FILE, "none");
+        assertNull(NodeListSnapshot.getConfiguredFile());
+        assertNull(NodeListSnapshot.readConfiguredFile());
+        // there is no default file
+        environmentVariablesRule.remove(NodeListSnapshot.ENV_NAME_FILE);
+        assertNull(NodeListSnapshot.getConfiguredFile());
+    }
+
+    /**
+     * Test that a file others may have written is refused
+     * @throws Exception
+     */
+    @Test
+    public void testWritableByOthers() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("nodelist.snapshot");
+        snapshot("\"abc\"").write(file);
+        Assume.assumeTrue(Files.getFileAttributeView(file, PosixFileAttributeView.class) != null);
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r--r--"));
+        assertEquals("\"abc\"", NodeListSnapshot.read(file).getETag());
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-rw-r--"));
+        assertRefused(file);
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r--rw-"));
+        assertRefused(file);
+
+        Path link = folder.getRoot().toPath().resolve("link.snapshot");
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        Files.createSymbolicLink(link, file);
+        assertRefused(link);
+    }
+}
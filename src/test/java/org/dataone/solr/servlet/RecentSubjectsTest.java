@@ -0,0 +1,68 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.service.types.v1.Subject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the RecentSubjects class
+ */
+public class RecentSubjectsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Subject subject(String value) {
+        Subject subject = new Subject();
+        subject.setValue(value);
+        return subject;
+    }
+
+    /**
+     * Test that the list keeps the most recently seen subjects, and that it is saved only when
+     * it changed and reads back in the same order
+     * @throws Exception
+     */
+    @Test
+    public void testRecordSaveAndLoad() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("recent").resolve("subjects.txt");
+        RecentSubjects recentSubjects = new RecentSubjects(file, 3);
+        recentSubjects.saveIfChanged();
+        assertFalse(Files.exists(file));
+        for (String value : new String[] {"a", "b", "c", "a", "d"}) {
+            recentSubjects.record(subject(value));
+        }
+        assertEquals(Arrays.asList("d", "a", "c"), recentSubjects.getSubjects());
+        recentSubjects.saveIfChanged();
+        assertEquals(Arrays.asList("d", "a", "c"), recentSubjects.load(10));
+        assertEquals(Arrays.asList("d", "a"), recentSubjects.load(2));
+        Files.delete(file);
+        recentSubjects.saveIfChanged();
+        assertFalse(Files.exists(file));
+
+        RecentSubjects restarted = new RecentSubjects(file, 3);
+        assertTrue(restarted.load(10).isEmpty());
+    }
+
+    /**
+     * Test that nothing is recorded without a file
+     * @throws Exception
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        RecentSubjects recentSubjects = new RecentSubjects(null, 3);
+        recentSubjects.record(subject("a"));
+        assertFalse(recentSubjects.isEnabled());
+        assertEquals(0, recentSubjects.size());
+        assertTrue(recentSubjects.load(10).isEmpty());
+    }
+}
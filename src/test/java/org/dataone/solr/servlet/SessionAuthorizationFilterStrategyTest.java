@@ -1,18 +1,38 @@
 package org.dataone.solr.servlet;
 
+import org.dataone.cn.servlet.http.ParameterKeys;
+import org.dataone.cn.servlet.http.ProxyServletRequestWrapper;
 import org.dataone.configuration.Settings;
+import org.dataone.service.types.v1.Session;
 import org.dataone.service.types.v1.Subject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import uk.org.webcompere.systemstubs.rules.EnvironmentVariablesRule;
 
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -31,8 +51,33 @@ public class SessionAuthorizationFilterStrategyTest {
     private final static String CN_ADMINS = CN_ADMIN1 + ";" + CN_ADMIN2;
     private final static String TOKEN = "123456";
 
+    /**
+     * A filter written against the ProxyServletRequestWrapper variants of the methods
+     */
+    private static class LegacyFilter extends SessionAuthorizationFilterStrategy {
+        @Override
+        protected void handleNoCertificateManagerSession(ProxyServletRequestWrapper proxyRequest,
+                ServletResponse response, FilterChain fc) throws ServletException, IOException {
+            fc.doFilter(proxyRequest, response);
+        }
+
+        @Override
+        protected void addAuthenticatedSubjectsToRequest(ProxyServletRequestWrapper proxyRequest,
+                Session session, Subject authorizedSubject) {
+            proxyRequest.setParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS,
+                                            new String[] { authorizedSubject.getValue() });
+        }
+
+        @Override
+        protected String getServiceMethodName() {
+            return "search";
+        }
+    }
+
     @Rule
     public EnvironmentVariablesRule environmentVariablesRule = new EnvironmentVariablesRule();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
 
     @Before
@@ -40,6 +85,9 @@ public class SessionAuthorizationFilterStrategyTest {
         Settings.getConfiguration().clearProperty(SETTING_NAME_D1_CN_URL);
         Settings.getConfiguration().clearProperty(SETTING_NAME_CN_ADMINS);
         Settings.getConfiguration().clearProperty(SETTING_NAME_SOLR_ADMIN_TOKEN);
+        // other test classes may have initialized the filter already
+        SessionAuthorizationFilterStrategy.cnClientUrl = null;
+        SessionAuthorizationFilterStrategy.cnNodeListUrl = null;
     }
 
     @After
@@ -52,6 +100,7 @@ public class SessionAuthorizationFilterStrategyTest {
         Settings.getConfiguration().clearProperty(SETTING_NAME_SOLR_ADMIN_TOKEN);
         SessionAuthorizationFilterStrategy.cnClientUrl = null;
         SessionAuthorizationFilterStrategy.cnNodeListUrl = null;
+        SessionAuthorizationFilterStrategy.runtimeConfiguration = null;
     }
     /**
      * Test the readEnvVariables method
@@ -81,6 +130,27 @@ public class SessionAuthorizationFilterStrategyTest {
         assertEquals(TOKEN, Settings.getConfiguration().getString(SETTING_NAME_SOLR_ADMIN_TOKEN));
     }
 
+    /**
+     * Test that the configuration snapshot only changes on a reload or an env variable change
+     * @throws Exception
+     */
+    @Test
+    public void testReloadConfiguration() throws Exception {
+        RuntimeConfiguration config = SessionAuthorizationFilterStrategy.reloadConfiguration();
+        assertSame(config, SessionAuthorizationFilterStrategy.getRuntimeConfiguration());
+        assertEquals("https://cn.dataone.org/cn", config.getCnUrl());
+        assertNull(config.getAdminToken());
+        assertFalse(SessionAuthorizationFilterStrategy.reloadConfigurationIfChanged());
+        assertSame(config, SessionAuthorizationFilterStrategy.getRuntimeConfiguration());
+        environmentVariablesRule.set(ENV_NAME_CN_SOLR_ADMIN_TOKEN, TOKEN);
+        // the snapshot is kept until the change is noticed
+        assertNull(SessionAuthorizationFilterStrategy.getRuntimeConfiguration().getAdminToken());
+        assertTrue(SessionAuthorizationFilterStrategy.reloadConfigurationIfChanged());
+        assertEquals(TOKEN,
+                     SessionAuthorizationFilterStrategy.getRuntimeConfiguration().getAdminToken());
+        assertFalse(SessionAuthorizationFilterStrategy.reloadConfigurationIfChanged());
+    }
+
     /**
      * Test the splitTextBySemicolon method
      * @throws Exception
@@ -109,29 +179,31 @@ public class SessionAuthorizationFilterStrategyTest {
     @Test
     public void testCacheAdministrativeSubjectList() throws Exception {
         SessionAuthorizationFilterStrategy.cacheAdministrativeSubjectList();
+        AdministrativeSubjects adminSubjects =
+            SessionAuthorizationFilterStrategy.getAdministrativeSubjects();
         assertEquals(
             "https://cn.dataone.org/cn/v2/node", SessionAuthorizationFilterStrategy.cnNodeListUrl);
-        assertEquals(3, SessionAuthorizationFilterStrategy.cnAdministrativeSubjects.size());
+        assertEquals(3, adminSubjects.getCnSubjects().size());
         Subject cnSubject = new Subject();
         cnSubject.setValue("CN=urn:node:CN,DC=dataone,DC=org");
-        assertTrue(SessionAuthorizationFilterStrategy.cnAdministrativeSubjects.contains(cnSubject));
-        assertEquals(SessionAuthorizationFilterStrategy.mnAdministrativeSubjects.size(),
-                     SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.size());
+        assertTrue(adminSubjects.getCnSubjects().contains(cnSubject));
+        assertEquals(adminSubjects.getMnSubjects().size(),
+                     adminSubjects.getMnNodeIdToSubjects().size());
         Subject knbSubject = new Subject();
         knbSubject.setValue("CN=urn:node:KNB,DC=dataone,DC=org");
         Subject adcSubject = new Subject();
         adcSubject.setValue("CN=urn:node:ARCTIC,DC=dataone,DC=org");
         assertTrue(
-            SessionAuthorizationFilterStrategy.mnAdministrativeSubjects.contains(knbSubject));
+            adminSubjects.getMnSubjects().contains(knbSubject));
         assertTrue(
-            SessionAuthorizationFilterStrategy.mnAdministrativeSubjects.contains(adcSubject));
-        assertEquals(adcSubject, SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.get(
+            adminSubjects.getMnSubjects().contains(adcSubject));
+        assertEquals(adcSubject, adminSubjects.getMnNodeIdToSubjects().get(
             "urn:node:ARCTIC").get(0));
-        assertEquals(1, SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.get(
+        assertEquals(1, adminSubjects.getMnNodeIdToSubjects().get(
             "urn:node:ARCTIC").size());
-        assertEquals(knbSubject, SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.get(
+        assertEquals(knbSubject, adminSubjects.getMnNodeIdToSubjects().get(
             "urn:node:KNB").get(0));
-        assertEquals(1, SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.get(
+        assertEquals(1, adminSubjects.getMnNodeIdToSubjects().get(
             "urn:node:KNB").size());
     }
 
@@ -148,39 +220,102 @@ public class SessionAuthorizationFilterStrategyTest {
         SessionAuthorizationFilterStrategy.cnNodeListUrl = null; //Clear the url
         SessionAuthorizationFilterStrategy.readEnvVariables();
         SessionAuthorizationFilterStrategy.cacheAdministrativeSubjectList();
+        AdministrativeSubjects adminSubjects =
+            SessionAuthorizationFilterStrategy.getAdministrativeSubjects();
         assertEquals(
             "https://cn-sandbox.test.dataone.org/cn/v2/node",
             SessionAuthorizationFilterStrategy.cnNodeListUrl);
-        assertEquals(5, SessionAuthorizationFilterStrategy.cnAdministrativeSubjects.size());
+        assertEquals(5, adminSubjects.getCnSubjects().size());
         Subject cnSubject = new Subject();
         cnSubject.setValue("CN=urn:node:cnSandbox,DC=dataone,DC=org");
-        assertTrue(SessionAuthorizationFilterStrategy.cnAdministrativeSubjects.contains(cnSubject));
+        assertTrue(adminSubjects.getCnSubjects().contains(cnSubject));
         Subject cnSubject2 = new Subject();
         cnSubject2.setValue(CN_ADMIN1);
         assertTrue(
-            SessionAuthorizationFilterStrategy.cnAdministrativeSubjects.contains(cnSubject2));
+            adminSubjects.getCnSubjects().contains(cnSubject2));
         Subject cnSubject3 = new Subject();
         cnSubject3.setValue(CN_ADMIN2);
         assertTrue(
-            SessionAuthorizationFilterStrategy.cnAdministrativeSubjects.contains(cnSubject3));
-        assertEquals(SessionAuthorizationFilterStrategy.mnAdministrativeSubjects.size(),
-                     SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.size());
+            adminSubjects.getCnSubjects().contains(cnSubject3));
+        assertEquals(adminSubjects.getMnSubjects().size(),
+                     adminSubjects.getMnNodeIdToSubjects().size());
         Subject subject1 = new Subject();
         subject1.setValue("CN=urn:node:mnSandboxUCSB1,DC=dataone,DC=org");
         Subject subject2 = new Subject();
         subject2.setValue("CN=urn:node:mnSandboxUCSB2,DC=dataone,DC=org");
         assertTrue(
-            SessionAuthorizationFilterStrategy.mnAdministrativeSubjects.contains(subject1));
+            adminSubjects.getMnSubjects().contains(subject1));
         assertTrue(
-            SessionAuthorizationFilterStrategy.mnAdministrativeSubjects.contains(subject2));
-        assertEquals(subject1, SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.get(
+            adminSubjects.getMnSubjects().contains(subject2));
+        assertEquals(subject1, adminSubjects.getMnNodeIdToSubjects().get(
             "urn:node:mnSandboxUCSB1").get(0));
-        assertEquals(1, SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.get(
+        assertEquals(1, adminSubjects.getMnNodeIdToSubjects().get(
             "urn:node:mnSandboxUCSB1").size());
-        assertEquals(subject2, SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.get(
+        assertEquals(subject2, adminSubjects.getMnNodeIdToSubjects().get(
             "urn:node:mnSandboxUCSB2").get(0));
-        assertEquals(1, SessionAuthorizationFilterStrategy.mnNodeNameToSubjectsMap.get(
+        assertEquals(1, adminSubjects.getMnNodeIdToSubjects().get(
             "urn:node:mnSandboxUCSB2").size());
     }
 
+    /**
+     * Test that a saved nodelist snapshot of the configured cn is published without asking the
+     * cn, and that the snapshot of another cn is ignored
+     * @throws Exception
+     */
+    @Test
+    public void testLoadNodeListSnapshot() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("nodelist.snapshot");
+        environmentVariablesRule.set(NodeListSnapshot.ENV_NAME_FILE, file.toString());
+        environmentVariablesRule.set(ENV_NAME_D1_CN_URL, CN_SANDBOX_URL);
+        environmentVariablesRule.set(ENV_NAME_CN_ADMINS, CN_ADMINS);
+        SessionAuthorizationFilterStrategy.readEnvVariables();
+        assertFalse(SessionAuthorizationFilterStrategy.loadNodeListSnapshot());
+
+        Subject cnSubject = new Subject();
+        cnSubject.setValue("CN=urn:node:cnSandbox,DC=dataone,DC=org");
+        Subject mnSubject = new Subject();
+        mnSubject.setValue("CN=urn:node:mnSandboxUCSB1,DC=dataone,DC=org");
+        Map<String, List<Subject>> nodes = new HashMap<String, List<Subject>>();
+        nodes.put("urn:node:mnSandboxUCSB1", Arrays.asList(mnSubject));
+        new NodeListSnapshot("https://cn.dataone.org/cn/v2/node", null, null, 0L,
+                             Arrays.asList(cnSubject), nodes).write(file);
+        assertFalse(SessionAuthorizationFilterStrategy.loadNodeListSnapshot());
+
+        new NodeListSnapshot(CN_SANDBOX_URL + "/v2/node", "\"1\"", null, 0L,
+                             Arrays.asList(cnSubject), nodes).write(file);
+        assertTrue(SessionAuthorizationFilterStrategy.loadNodeListSnapshot());
+        AdministrativeSubjects adminSubjects =
+            SessionAuthorizationFilterStrategy.getAdministrativeSubjects();
+        assertEquals(3, adminSubjects.getCnSubjects().size());
+        assertTrue(adminSubjects.getCnSubjects().contains(cnSubject));
+        Subject admin = new Subject();
+        admin.setValue(CN_ADMIN1);
+        assertTrue(adminSubjects.isCnAdministrator(admin));
+        assertTrue(adminSubjects.isMnAdministrator(mnSubject));
+    }
+
+    /**
+     * Test that a subclass which only overrides the ProxyServletRequestWrapper variants of the
+     * methods still sets the authorized subjects and passes the request on
+     * @throws Exception
+     */
+    @Test
+    public void testLegacySubclass() throws Exception {
+        LegacyFilter filter = new LegacyFilter();
+        MockHttpServletRequest client = new MockHttpServletRequest();
+        client.addParameter("q", "*:*");
+        AuthorizationRequestWrapper request = new AuthorizationRequestWrapper(client);
+        Subject subject = new Subject();
+        subject.setValue(CN_ADMIN1);
+        filter.addAuthenticatedSubjectsToRequest(request, new Session(), subject);
+        assertArrayEquals(new String[] { CN_ADMIN1 },
+                          request.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS));
+
+        MockFilterChain chain = new MockFilterChain();
+        filter.handleNoCertificateManagerSession(request, new MockHttpServletResponse(), chain);
+        HttpServletRequest passed = (HttpServletRequest) chain.getRequest();
+        assertEquals("*:*", passed.getParameter("q"));
+        assertArrayEquals(new String[] { CN_ADMIN1 },
+                          passed.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS));
+    }
 }
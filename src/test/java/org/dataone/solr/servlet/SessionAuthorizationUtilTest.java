@@ -0,0 +1,236 @@
+package org.dataone.solr.servlet;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.LogFactory;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.dataone.cn.servlet.http.ParameterKeys;
+import org.dataone.service.types.v1.Person;
+import org.dataone.service.types.v1.Session;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.junit.Assume;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the SessionAuthorizationUtil class
+ */
+public class SessionAuthorizationUtilTest {
+    private final static String CERTIFICATES_ATTR = "javax.servlet.request.X509Certificate";
+    private final static int REQUESTS = 100000;
+
+    /*
+     * A request whose header lookups are plain hash lookups, so that the allocations measured
+     * are the ones of the code under test rather than the case insensitive headers of the mock
+     */
+    private static class PlainHeaderRequest extends MockHttpServletRequest {
+        private final Map<String, String> plainHeaders = new HashMap<String, String>();
+
+        @Override
+        public void addHeader(String name, Object value) {
+            super.addHeader(name, value);
+            plainHeaders.put(name, value.toString());
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return plainHeaders.get(name);
+        }
+    }
+
+    private static Subject subject(String value) {
+        Subject subject = new Subject();
+        subject.setValue(value);
+        return subject;
+    }
+
+    private static String certificateHeader() throws Exception {
+        try (InputStream pem = SessionAuthorizationUtilTest.class.getResourceAsStream(
+                "testClientCert.pem")) {
+            return IOUtils.toString(pem, StandardCharsets.US_ASCII).trim().replace('\n', ' ');
+        }
+    }
+
+    /**
+     * Test which credentials are detected, and that a verified certificate header is the only
+     * credential considered when it is present
+     * @throws Exception
+     */
+    @Test
+    public void testValidateSSLAttributes() throws Exception {
+        assertFalse(SessionAuthorizationUtil.validateSSLAttributes(
+            new AuthorizationRequestWrapper(new PlainHeaderRequest())));
+
+        PlainHeaderRequest attribute = new PlainHeaderRequest();
+        attribute.setAttribute(CERTIFICATES_ATTR, new Object());
+        assertTrue(SessionAuthorizationUtil.validateSSLAttributes(
+            new AuthorizationRequestWrapper(attribute)));
+
+        PlainHeaderRequest certificate = new PlainHeaderRequest();
+        certificate.addHeader("SSL_CLIENT_VERIFY", "SUCCESS");
+        certificate.addHeader("SSL_CLIENT_CERT", certificateHeader());
+        certificate.addHeader("SSL_CIPHER", "ECDHE-RSA-AES256-GCM-SHA384");
+        certificate.addHeader("SSL_CIPHER_USEKEYSIZE", "256");
+        assertTrue(SessionAuthorizationUtil.validateSSLAttributes(
+            new AuthorizationRequestWrapper(certificate)));
+        assertNotNull(certificate.getAttribute(CERTIFICATES_ATTR));
+        assertEquals("ECDHE-RSA-AES256-GCM-SHA384",
+                     certificate.getAttribute("javax.servlet.request.cipher_suite"));
+        assertEquals(256, certificate.getAttribute("javax.servlet.request.key_size"));
+
+        PlainHeaderRequest badCertificate = new PlainHeaderRequest();
+        badCertificate.addHeader("SSL_CLIENT_VERIFY", "SUCCESS");
+        badCertificate.addHeader("SSL_CLIENT_CERT", "(null)");
+        badCertificate.addHeader("Authorization", "Bearer abc");
+        assertFalse(SessionAuthorizationUtil.validateSSLAttributes(
+            new AuthorizationRequestWrapper(badCertificate)));
+
+        PlainHeaderRequest token = new PlainHeaderRequest();
+        token.addHeader("SSL_CLIENT_VERIFY", "NONE");
+        token.addHeader("Authorization", "Bearer abc");
+        assertTrue(SessionAuthorizationUtil.validateSSLAttributes(
+            new AuthorizationRequestWrapper(token)));
+
+        PlainHeaderRequest nullToken = new PlainHeaderRequest();
+        nullToken.addHeader("Authorization", "(null)");
+        assertFalse(SessionAuthorizationUtil.validateSSLAttributes(
+            new AuthorizationRequestWrapper(nullToken)));
+    }
+
+    /**
+     * Test that the credential of an anonymous request is looked for, first for the key of the
+     * decision cache and then for the session, without allocating anything beyond the wrapper
+     * @throws Exception
+     */
+    @Test
+    public void testAnonymousAllocationBudget() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported()
+                              && threadBean.isThreadAllocatedMemoryEnabled());
+        // the debug output of the headers allocates by design
+        String loggerName = SessionAuthorizationUtil.class.getName();
+        Level level = LogManager.getLogger(loggerName).getLevel();
+        Configurator.setLevel(loggerName, Level.INFO);
+        try {
+            Assume.assumeFalse(LogFactory.getLog(SessionAuthorizationUtil.class)
+                                   .isDebugEnabled());
+            PlainHeaderRequest anonymous = new PlainHeaderRequest();
+            anonymous.addHeader("Accept", "application/json");
+            long threadId = Thread.currentThread().getId();
+            long wrapperBytes = 0;
+            long bytes = 0;
+            long excess = Long.MAX_VALUE;
+            AuthorizationRequestWrapper[] requests = new AuthorizationRequestWrapper[1];
+            for (int round = 0; round < 4; round++) {
+                // the first round warms up; the best of the others is taken, since the JIT
+                // may still allocate once in a while
+                long start = threadBean.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < REQUESTS; i++) {
+                    requests[0] = new AuthorizationRequestWrapper(anonymous);
+                }
+                wrapperBytes = threadBean.getThreadAllocatedBytes(threadId) - start;
+                start = threadBean.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < REQUESTS; i++) {
+                    AuthorizationRequestWrapper request =
+                        new AuthorizationRequestWrapper(anonymous);
+                    requests[0] = request;
+                    if (SessionAuthorizationUtil.getCredentialKey(request) != null
+                            || SessionAuthorizationUtil.validateSSLAttributes(request)) {
+                        throw new AssertionError("an anonymous request has no credential");
+                    }
+                }
+                bytes = threadBean.getThreadAllocatedBytes(threadId) - start;
+                if (round > 0) {
+                    excess = Math.min(excess, bytes - wrapperBytes);
+                }
+            }
+            // allow for the measurement itself, but not for a single byte per request
+            assertTrue("bytes allocated by " + REQUESTS + " anonymous requests: " + bytes
+                           + ", by their wrappers alone: " + wrapperBytes
+                           + ", least difference of a round: " + excess,
+                       excess < REQUESTS / 10);
+        } finally {
+            Configurator.setLevel(loggerName, level);
+        }
+    }
+
+    /**
+     * Test that a request authorized while the CN circuit breaker is open is not remembered by
+     * the decision cache, so the next request after the breaker closed gets the groups of the
+     * subject from the CN
+     * @throws Exception
+     */
+    @Test
+    public void testFallbackDecisionIsNotCached() throws Exception {
+        String user = "http://orcid.org/0000-0002-1209-5268";
+        String group = "CN=testGroup,DC=dataone,DC=org";
+        SubjectInfo subjectInfo = new SubjectInfo();
+        Person person = new Person();
+        person.setSubject(subject(user));
+        person.setFamilyName("Tao");
+        person.addIsMemberOf(subject(group));
+        subjectInfo.addPerson(person);
+        CnCircuitBreaker circuitBreaker =
+            new CnCircuitBreaker(1, 50, 0, CnCircuitBreaker.Fallback.CERTIFICATE);
+        SubjectInfoCache subjectInfoCache = new SubjectInfoCache(10, 60000, 10, 60000, 5000, 1,
+                                                                 100, circuitBreaker, null, 0) {
+            @Override
+            protected SubjectInfo fetchSubjectInfo(Subject subject) {
+                return subjectInfo;
+            }
+        };
+        AuthorizationDecisionCache decisionCache = new AuthorizationDecisionCache(10, 60000);
+        Session session = new Session();
+        session.setSubject(subject(user));
+
+        circuitBreaker.recordFailure();
+        assertEquals(CnCircuitBreaker.State.OPEN, circuitBreaker.getState());
+        AuthorizationRequestWrapper first = new AuthorizationRequestWrapper(
+            new PlainHeaderRequest());
+        SessionAuthorizationUtil.addAuthenticatedSubjectsToRequest(first, session,
+                                                                   subject(user),
+                                                                   subjectInfoCache);
+        assertTrue(first.hasFallbackSubjectInfo());
+        assertFalse(Arrays.asList(first.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS))
+                        .contains(group));
+        decisionCache.put("cert:abc", user, first, Long.MAX_VALUE,
+                          decisionCache.getGeneration());
+        assertNull(decisionCache.get("cert:abc"));
+
+        // the breaker lets a probe through once it was open long enough, and closes on success
+        Thread.sleep(60);
+        AuthorizationRequestWrapper second = new AuthorizationRequestWrapper(
+            new PlainHeaderRequest());
+        SessionAuthorizationUtil.addAuthenticatedSubjectsToRequest(second, session,
+                                                                   subject(user),
+                                                                   subjectInfoCache);
+        assertEquals(CnCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertFalse(second.hasFallbackSubjectInfo());
+        assertTrue(Arrays.asList(second.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS))
+                       .contains(group));
+        decisionCache.put("cert:abc", user, second, Long.MAX_VALUE,
+                          decisionCache.getGeneration());
+        AuthorizationRequestWrapper third = new AuthorizationRequestWrapper(
+            new PlainHeaderRequest());
+        decisionCache.get("cert:abc").applyTo(third);
+        assertTrue(Arrays.asList(third.getParameterValues(ParameterKeys.AUTHORIZED_SUBJECTS))
+                       .contains(group));
+    }
+}
@@ -0,0 +1,68 @@
+package org.dataone.solr.servlet;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * A Junit test class for the StandardizedDNCache class
+ */
+public class StandardizedDNCacheTest {
+    private final static String ORCID = "http://orcid.org/0000-0002-1209-5268";
+
+    /**
+     * A memo whose standardization lower cases DNs, refuses anything else and counts the parses
+     */
+    private static class CountingStandardizedDNCache extends StandardizedDNCache {
+        private final AtomicInteger parses = new AtomicInteger();
+
+        CountingStandardizedDNCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected String standardizeDN(String value) {
+            parses.incrementAndGet();
+            if (!value.startsWith("CN=")) {
+                throw new IllegalArgumentException("not a DN");
+            }
+            return value.toLowerCase();
+        }
+    }
+
+    /**
+     * Test that DNs and non-DNs are parsed once and the hit rate is reported
+     * @throws Exception
+     */
+    @Test
+    public void testMemo() throws Exception {
+        CountingStandardizedDNCache cache = new CountingStandardizedDNCache(10);
+        assertEquals("cn=a,dc=dataone,dc=org", cache.standardize("CN=a,DC=dataone,DC=org"));
+        assertEquals("cn=a,dc=dataone,dc=org", cache.standardize("CN=a,DC=dataone,DC=org"));
+        assertEquals(ORCID, cache.standardize(ORCID));
+        assertEquals(ORCID, cache.standardize(ORCID));
+        assertNull(cache.standardize(null));
+        assertEquals(2, cache.parses.get());
+        assertEquals(1, cache.getNotDNs());
+        assertEquals(2, cache.getHits());
+        assertEquals(0.5, cache.getHitRate(), 0.001);
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Test that a zero size turns the memo off
+     * @throws Exception
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        CountingStandardizedDNCache cache = new CountingStandardizedDNCache(0);
+        cache.standardize(ORCID);
+        cache.standardize(ORCID);
+        assertEquals(2, cache.parses.get());
+        assertEquals(0, cache.size());
+        assertEquals(0.0, cache.getHitRate(), 0.001);
+    }
+}
@@ -0,0 +1,98 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.service.exceptions.NotFound;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the SubjectCacheWarmer class
+ */
+public class SubjectCacheWarmerTest {
+
+    /**
+     * A cache whose CN calls take a while, block until released if asked to, and record how
+     * many run at the same time
+     */
+    private static class SlowSubjectInfoCache extends SubjectInfoCache {
+        private final AtomicInteger remoteCalls = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger mostRunning = new AtomicInteger();
+        private final CountDownLatch release;
+
+        SlowSubjectInfoCache(CountDownLatch release) {
+            super(100, 60000, 100, 60000, 0, 16, 100, CnCircuitBreaker.disabled(), null, 0);
+            this.release = release;
+        }
+
+        @Override
+        protected SubjectInfo fetchSubjectInfo(Subject subject) throws NotFound {
+            remoteCalls.incrementAndGet();
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            return new SubjectInfo();
+        }
+    }
+
+    private static List<String> subjects(int count) {
+        List<String> subjects = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            subjects.add("CN=user" + i + ",DC=dataone,DC=org");
+        }
+        return subjects;
+    }
+
+    /**
+     * Test that every subject is warmed with the given number of lookups at a time, and that
+     * the authorized subject lists are filled as well
+     * @throws Exception
+     */
+    @Test
+    public void testWarmUp() throws Exception {
+        SlowSubjectInfoCache cache = new SlowSubjectInfoCache(new CountDownLatch(0));
+        AuthorizedSubjectsCache authorizedSubjectsCache =
+            new AuthorizedSubjectsCache(100, 60000, new StandardizedDNCache(100));
+        SubjectCacheWarmer warmer = new SubjectCacheWarmer(cache, authorizedSubjectsCache, 3,
+                                                           10000);
+        assertEquals(12, warmer.warmUp(subjects(12)));
+        assertEquals(12, cache.remoteCalls.get());
+        assertTrue(cache.mostRunning.get() <= 3);
+        assertEquals(12, cache.size());
+        assertEquals(12, authorizedSubjectsCache.size());
+    }
+
+    /**
+     * Test that the warm-up returns once the budget is spent and finishes in the background
+     * @throws Exception
+     */
+    @Test
+    public void testBudget() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        SlowSubjectInfoCache cache = new SlowSubjectInfoCache(release);
+        SubjectCacheWarmer warmer = new SubjectCacheWarmer(
+            cache, new AuthorizedSubjectsCache(100, 60000, new StandardizedDNCache(100)), 2, 100);
+        long start = System.currentTimeMillis();
+        assertEquals(0, warmer.warmUp(subjects(4)));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        release.countDown();
+        while (warmer.getWarmed() < 4) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, cache.size());
+    }
+}
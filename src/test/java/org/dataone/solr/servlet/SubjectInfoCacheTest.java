@@ -0,0 +1,335 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.service.exceptions.NotFound;
+import org.dataone.service.exceptions.ServiceFailure;
+import org.dataone.service.types.v1.Person;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v1.SubjectInfo;
+import org.dataone.solr.servlet.cache.MappedByteStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the SubjectInfoCache class
+ */
+public class SubjectInfoCacheTest {
+    private final static String KNOWN = "http://orcid.org/0000-0002-1209-5268";
+    private final static String UNKNOWN = "CN=nobody,DC=dataone,DC=org";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A cache which answers from memory instead of the CN and counts the remote calls
+     */
+    private static class CountingSubjectInfoCache extends SubjectInfoCache {
+        private final AtomicInteger remoteCalls = new AtomicInteger();
+        private final SubjectInfo subjectInfo = new SubjectInfo();
+
+        CountingSubjectInfoCache(int maxSize, long ttlMS, int notFoundMaxSize,
+                                 long notFoundTtlMS) {
+            super(maxSize, ttlMS, notFoundMaxSize, notFoundTtlMS, 5000, 8, 100,
+                  CnCircuitBreaker.disabled(), null, 0);
+        }
+
+        CountingSubjectInfoCache(MappedByteStore store) {
+            super(10, 60000, 10, 60000, 5000, 2, 100, CnCircuitBreaker.disabled(), store, 60000);
+            Person person = new Person();
+            person.setSubject(subject(KNOWN));
+            person.setFamilyName("Tao");
+            person.addGivenName("Jing");
+            person.addIsMemberOf(subject("CN=testGroup,DC=dataone,DC=org"));
+            subjectInfo.addPerson(person);
+        }
+
+        @Override
+        protected SubjectInfo fetchSubjectInfo(Subject subject) throws NotFound {
+            remoteCalls.incrementAndGet();
+            if (UNKNOWN.equals(subject.getValue())) {
+                throw new NotFound("0000", "no such subject");
+            }
+            return subjectInfo;
+        }
+    }
+
+    /**
+     * A cache whose CN calls block until they are released
+     */
+    private static class SlowSubjectInfoCache extends SubjectInfoCache {
+        private final AtomicInteger remoteCalls = new AtomicInteger();
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        SlowSubjectInfoCache(long waitMS) {
+            super(10, 60000, 10, 60000, waitMS, 2, 100, CnCircuitBreaker.disabled(), null, 0);
+        }
+
+        SlowSubjectInfoCache(long waitMS, int lookupThreads, int lookupQueueSize) {
+            super(10, 60000, 10, 60000, waitMS, lookupThreads, lookupQueueSize,
+                  CnCircuitBreaker.disabled(), null, 0);
+        }
+
+        @Override
+        protected SubjectInfo fetchSubjectInfo(Subject subject) throws NotFound {
+            remoteCalls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new SubjectInfo();
+        }
+    }
+
+    /**
+     * A cache whose CN calls fail while the CN is down
+     */
+    private static class FlakySubjectInfoCache extends SubjectInfoCache {
+        private final AtomicInteger remoteCalls = new AtomicInteger();
+        private volatile boolean down = false;
+
+        FlakySubjectInfoCache(CnCircuitBreaker circuitBreaker) {
+            super(10, 1, 10, 60000, 0, 1, 100, circuitBreaker, null, 0);
+        }
+
+        @Override
+        protected SubjectInfo fetchSubjectInfo(Subject subject) throws ServiceFailure {
+            remoteCalls.incrementAndGet();
+            if (down) {
+                throw new ServiceFailure("0000", "the CN is down");
+            }
+            return new SubjectInfo();
+        }
+    }
+
+    private static Subject subject(String value) {
+        Subject subject = new Subject();
+        subject.setValue(value);
+        return subject;
+    }
+
+    /**
+     * Test that found and not found subjects only go to the CN once while cached
+     * @throws Exception
+     */
+    @Test
+    public void testHitsAndNegativeCaching() throws Exception {
+        CountingSubjectInfoCache cache = new CountingSubjectInfoCache(10, 60000, 10, 60000);
+        SubjectInfo first = cache.getSubjectInfo(subject(KNOWN));
+        assertSame(first, cache.getSubjectInfo(subject(KNOWN)));
+        assertNull(cache.getSubjectInfo(subject(UNKNOWN)));
+        assertNull(cache.getSubjectInfo(subject(UNKNOWN)));
+        assertEquals(2, cache.remoteCalls.get());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getNotFoundHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.notFoundSize());
+        cache.invalidate(subject(KNOWN));
+        cache.getSubjectInfo(subject(KNOWN));
+        assertEquals(3, cache.remoteCalls.get());
+    }
+
+    /**
+     * Test that entries expire and the least recently used entry is evicted
+     * @throws Exception
+     */
+    @Test
+    public void testExpirationAndEviction() throws Exception {
+        CountingSubjectInfoCache cache = new CountingSubjectInfoCache(2, 50, 2, 50);
+        cache.getSubjectInfo(subject(KNOWN));
+        Thread.sleep(100);
+        cache.getSubjectInfo(subject(KNOWN));
+        assertEquals(2, cache.remoteCalls.get());
+        cache.getSubjectInfo(subject("a"));
+        cache.getSubjectInfo(subject("b"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Test that a zero size turns the cache off
+     * @throws Exception
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        CountingSubjectInfoCache cache = new CountingSubjectInfoCache(0, 60000, 0, 60000);
+        cache.getSubjectInfo(subject(KNOWN));
+        cache.getSubjectInfo(subject(KNOWN));
+        cache.getSubjectInfo(subject(UNKNOWN));
+        cache.getSubjectInfo(subject(UNKNOWN));
+        assertEquals(4, cache.remoteCalls.get());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test that concurrent misses for the same subject share one CN call
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        SlowSubjectInfoCache cache = new SlowSubjectInfoCache(10000);
+        int threads = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<SubjectInfo>> results = new ArrayList<Future<SubjectInfo>>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<SubjectInfo>() {
+                    @Override
+                    public SubjectInfo call() throws Exception {
+                        return cache.getSubjectInfo(subject(KNOWN));
+                    }
+                }));
+            }
+            // let every request thread reach the in-flight lookup before the CN answers
+            while (cache.getCoalescedLookups() < threads - 1) {
+                Thread.sleep(10);
+            }
+            cache.release.countDown();
+            SubjectInfo first = results.get(0).get();
+            assertNotNull(first);
+            for (Future<SubjectInfo> result : results) {
+                assertSame(first, result.get());
+            }
+            assertEquals(1, cache.remoteCalls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that a request gives up after the wait budget and the late answer is still cached
+     * @throws Exception
+     */
+    @Test
+    public void testWaitBudget() throws Exception {
+        SlowSubjectInfoCache cache = new SlowSubjectInfoCache(50);
+        long start = System.currentTimeMillis();
+        assertNull(cache.getSubjectInfo(subject(KNOWN)));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, cache.getTimedOutWaits());
+        cache.release.countDown();
+        while (cache.size() == 0) {
+            Thread.sleep(10);
+        }
+        assertNotNull(cache.getSubjectInfo(subject(KNOWN)));
+        assertEquals(1, cache.remoteCalls.get());
+    }
+
+    /**
+     * Test that a miss is answered with the fallback at once when the lookup queue is full or
+     * the lookup threads are stopped, and that they can be started again
+     * @throws Exception
+     */
+    @Test
+    public void testFullQueueAndStop() throws Exception {
+        SlowSubjectInfoCache cache = new SlowSubjectInfoCache(200, 1, 1);
+        // one lookup runs, one waits in the queue
+        assertNull(cache.getSubjectInfo(subject("CN=first,DC=dataone,DC=org")));
+        assertNull(cache.getSubjectInfo(subject("CN=second,DC=dataone,DC=org")));
+        assertEquals(2, cache.getTimedOutWaits());
+        assertNull(cache.getSubjectInfo(subject("CN=third,DC=dataone,DC=org")));
+        assertEquals(1, cache.getRejectedLookups());
+        assertEquals(3, cache.getFallbacks());
+        assertEquals(2, cache.getTimedOutWaits());
+        cache.release.countDown();
+        while (cache.size() < 2) {
+            Thread.sleep(10);
+        }
+        assertNotNull(cache.getSubjectInfo(subject("CN=third,DC=dataone,DC=org")));
+
+        cache.start();
+        cache.stop();
+        assertNull(cache.getSubjectInfo(subject("CN=fourth,DC=dataone,DC=org")));
+        assertEquals(2, cache.getRejectedLookups());
+        cache.start();
+        assertNotNull(cache.getSubjectInfo(subject("CN=fourth,DC=dataone,DC=org")));
+        assertEquals(4, cache.remoteCalls.get());
+        cache.stop();
+    }
+
+    /**
+     * Test that an open circuit breaker stops the CN calls and that the fallback is the last
+     * known subject info or nothing, depending on the setting
+     * @throws Exception
+     */
+    @Test
+    public void testCircuitBreakerFallback() throws Exception {
+        for (CnCircuitBreaker.Fallback fallback : CnCircuitBreaker.Fallback.values()) {
+            CnCircuitBreaker circuitBreaker = new CnCircuitBreaker(2, 60000, 0, fallback);
+            FlakySubjectInfoCache cache = new FlakySubjectInfoCache(circuitBreaker);
+            SubjectInfo known = cache.getSubjectInfo(subject(KNOWN));
+            assertNotNull(known);
+            Thread.sleep(5);
+            cache.down = true;
+            for (int i = 0; i < 2; i++) {
+                try {
+                    cache.getSubjectInfo(subject(KNOWN));
+                    assertTrue("the CN failure should have been reported", false);
+                } catch (ServiceFailure e) {
+                    assertEquals(i + 2, cache.remoteCalls.get());
+                }
+            }
+            assertEquals(CnCircuitBreaker.State.OPEN, circuitBreaker.getState());
+            SubjectInfo answer = cache.getSubjectInfo(subject(KNOWN));
+            if (fallback == CnCircuitBreaker.Fallback.CACHED) {
+                assertSame(known, answer);
+            } else {
+                assertNull(answer);
+            }
+            assertNull(cache.getSubjectInfo(subject(UNKNOWN)));
+            assertEquals(3, cache.remoteCalls.get());
+            assertEquals(2, cache.getFallbacks());
+            assertEquals(2, circuitBreaker.getRejectedCalls());
+        }
+    }
+
+    /**
+     * Test that a subject info fetched before a restart is read from the off-heap store instead
+     * of the CN, and that an unknown subject leaves the store
+     * @throws Exception
+     */
+    @Test
+    public void testOffHeapStoreSurvivesRestart() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("subjectinfo.store");
+        try (MappedByteStore store = new MappedByteStore(file, 64, 1024)) {
+            CountingSubjectInfoCache cache = new CountingSubjectInfoCache(store);
+            assertNotNull(cache.getSubjectInfo(subject(KNOWN)));
+            while (store.getWrites() == 0) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, cache.remoteCalls.get());
+        }
+        try (MappedByteStore store = new MappedByteStore(file, 64, 1024)) {
+            CountingSubjectInfoCache restarted = new CountingSubjectInfoCache(store);
+            SubjectInfo stored = restarted.getSubjectInfo(subject(KNOWN));
+            assertEquals(KNOWN, stored.getPerson(0).getSubject().getValue());
+            assertEquals("CN=testGroup,DC=dataone,DC=org",
+                         stored.getPerson(0).getIsMemberOf(0).getValue());
+            assertEquals(0, restarted.remoteCalls.get());
+            assertEquals(1, restarted.getStoreHits());
+            assertEquals(0, restarted.getMisses());
+            // the second request is a heap hit
+            restarted.getSubjectInfo(subject(KNOWN));
+            assertEquals(1, restarted.getStoreHits());
+            restarted.invalidate(subject(KNOWN));
+            assertNull(store.get(KNOWN));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.service.types.v1.Session;
+import org.dataone.service.types.v1.Subject;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the TokenSessionCache class
+ */
+public class TokenSessionCacheTest {
+
+    /**
+     * A cache which builds the session without PortalCertificateManager and counts the
+     * verifications
+     */
+    private static class CountingTokenSessionCache extends TokenSessionCache {
+        private final AtomicInteger verifications = new AtomicInteger();
+
+        CountingTokenSessionCache(int maxSize, long maxTtlMS) {
+            super(maxSize, maxTtlMS);
+        }
+
+        @Override
+        protected Session fetchSession(HttpServletRequest request) {
+            verifications.incrementAndGet();
+            if (request.getHeader("Authorization") == null) {
+                return null;
+            }
+            Subject subject = new Subject();
+            subject.setValue("http://orcid.org/0000-0002-1209-5268");
+            Session session = new Session();
+            session.setSubject(subject);
+            return session;
+        }
+    }
+
+    /*
+     * An unsigned token with the given exp claim in seconds
+     */
+    private static String token(long exp) {
+        return token("{\"sub\":\"me\",\"exp\":" + exp + "}");
+    }
+
+    /*
+     * An unsigned token with the given claims
+     */
+    private static String token(String claims) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return "Bearer " + encoder.encodeToString("{\"alg\":\"RS256\"}".getBytes(
+            StandardCharsets.UTF_8)) + "." + encoder.encodeToString(
+            claims.getBytes(StandardCharsets.UTF_8)) + ".c2lnbmF0dXJl";
+    }
+
+    private static MockHttpServletRequest request(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        if (token != null) {
+            request.addHeader("Authorization", token);
+        }
+        return request;
+    }
+
+    /**
+     * Test that a token is verified once while it is cached
+     * @throws Exception
+     */
+    @Test
+    public void testVerifyOnce() throws Exception {
+        CountingTokenSessionCache cache = new CountingTokenSessionCache(10, 60000);
+        String token = token(System.currentTimeMillis() / 1000L + 3600L);
+        Session first = cache.getSession(request(token));
+        assertSame(first, cache.getSession(request(token)));
+        assertEquals(1, cache.verifications.get());
+        assertEquals(1, cache.getHits());
+        // a different token is verified on its own
+        cache.getSession(request(token(System.currentTimeMillis() / 1000L + 7200L)));
+        assertEquals(2, cache.verifications.get());
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Test that expired tokens and requests without a token are not cached
+     * @throws Exception
+     */
+    @Test
+    public void testNotCached() throws Exception {
+        CountingTokenSessionCache cache = new CountingTokenSessionCache(10, 60000);
+        String expired = token(System.currentTimeMillis() / 1000L - 60L);
+        cache.getSession(request(expired));
+        cache.getSession(request(expired));
+        assertEquals(2, cache.verifications.get());
+        assertNull(cache.getSession(request(null)));
+        assertEquals(3, cache.verifications.get());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test reading the exp claim
+     * @throws Exception
+     */
+    @Test
+    public void testGetExpirationMS() throws Exception {
+        assertEquals(1700000000000L, TokenSessionCache.getExpirationMS(token(1700000000L)));
+        assertEquals(0L, TokenSessionCache.getExpirationMS("Bearer not-a-jwt"));
+        assertEquals(0L, TokenSessionCache.getExpirationMS("a.%%%.b"));
+        assertTrue(TokenSessionCache.getExpirationMS(token(1700000000L).substring(7)) > 0);
+        // only the top-level claim counts, not one a user put in another claim
+        assertEquals(0L, TokenSessionCache.getExpirationMS(
+            token("{\"sub\":\"me\",\"fullName\":\"\\\"exp\\\": 9999999999\"}")));
+        assertEquals(1700000000000L, TokenSessionCache.getExpirationMS(token(
+            "{\"profile\":{\"exp\":9999999999},\"exp\":1700000000}")));
+        assertEquals(0L, TokenSessionCache.getExpirationMS(
+            token("{\"sub\":\"me\",\"exp\":\"9999999999\"}")));
+    }
+}
@@ -0,0 +1,73 @@
+package org.dataone.solr.servlet;
+
+import org.dataone.service.types.v1.Session;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * A Junit test class for the TrustedProxyAuthenticator class
+ */
+public class TrustedProxyAuthenticatorTest {
+    private final static String DN = "CN=urn:node:testMN,DC=dataone,DC=org";
+    private final static String FINGERPRINT = "AB:CD:EF";
+
+    private static TrustedProxyAuthenticator authenticator(boolean enabled) {
+        return new TrustedProxyAuthenticator(enabled, Arrays.asList("127.0.0.1", "::1"),
+                                             "SSL_CLIENT_S_DN", "SSL_CLIENT_FINGERPRINT");
+    }
+
+    private static MockHttpServletRequest request(String remoteAddress, String verify) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddress);
+        request.addHeader("SSL_CLIENT_VERIFY", verify);
+        request.addHeader("SSL_CLIENT_S_DN", DN);
+        request.addHeader("SSL_CLIENT_FINGERPRINT", FINGERPRINT);
+        return request;
+    }
+
+    /**
+     * Test that a verified subject from a trusted proxy becomes the session
+     * @throws Exception
+     */
+    @Test
+    public void testTrustedProxy() throws Exception {
+        MockHttpServletRequest request = request("127.0.0.1", "SUCCESS");
+        Session session = authenticator(true).getSession(request);
+        assertNotNull(session);
+        assertEquals(DN, session.getSubject().getValue());
+        assertNull(session.getSubjectInfo());
+        assertSame(session, request.getAttribute(TrustedProxyAuthenticator.SESSION_ATTR));
+        assertEquals(FINGERPRINT, request.getAttribute(TrustedProxyAuthenticator.FINGERPRINT_ATTR));
+        // the IPv6 loopback in the form the servlet container reports it
+        assertNotNull(authenticator(true).getSession(request("0:0:0:0:0:0:0:1", "SUCCESS")));
+    }
+
+    /**
+     * Test that the headers are ignored when the mode is off, the request comes from elsewhere
+     * or the proxy did not verify the certificate
+     * @throws Exception
+     */
+    @Test
+    public void testUntrusted() throws Exception {
+        assertFalse(authenticator(false).isEnabled());
+        assertNull(authenticator(false).getSession(request("127.0.0.1", "SUCCESS")));
+        assertNull(authenticator(true).getSession(request("10.1.2.3", "SUCCESS")));
+        assertNull(authenticator(true).getSession(request("127.0.0.1", "FAILED")));
+        MockHttpServletRequest request = request("127.0.0.1", "SUCCESS");
+        request.removeHeader("SSL_CLIENT_S_DN");
+        request.addHeader("SSL_CLIENT_S_DN", "(null)");
+        assertNull(authenticator(true).getSession(request));
+        assertNull(request.getAttribute(TrustedProxyAuthenticator.SESSION_ATTR));
+        // no addresses means no trusted proxy
+        assertFalse(new TrustedProxyAuthenticator(true, null, "SSL_CLIENT_S_DN",
+                                                  "SSL_CLIENT_FINGERPRINT").isEnabled());
+    }
+}
@@ -0,0 +1,140 @@
+package org.dataone.solr.servlet.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A Junit test class for the MappedByteStore class
+ */
+public class MappedByteStoreTest {
+    private final static String KEY = "http://orcid.org/0000-0002-1209-5268";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A store whose clock is set by the test
+     */
+    private static class ManualClockStore extends MappedByteStore {
+        private long now = 1000L;
+
+        ManualClockStore(Path file, int slotCount, int slotBytes) throws Exception {
+            super(file, slotCount, slotBytes);
+        }
+
+        @Override
+        protected long now() {
+            return now;
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Test put, get, replace, remove and expiry
+     * @throws Exception
+     */
+    @Test
+    public void testPutAndGet() throws Exception {
+        try (ManualClockStore store = new ManualClockStore(
+                folder.getRoot().toPath().resolve("store"), 16, 128)) {
+            assertNull(store.get(KEY));
+            assertTrue(store.put(KEY, bytes("one"), 100));
+            assertArrayEquals(bytes("one"), store.get(KEY).getValue());
+            assertEquals(1100L, store.get(KEY).getExpiresAtMS());
+            assertTrue(store.put(KEY, bytes("two"), 100));
+            assertArrayEquals(bytes("two"), store.get(KEY).getValue());
+            assertEquals(1, store.size());
+            store.now = 1100L;
+            assertNull(store.get(KEY));
+            assertEquals(0, store.size());
+            store.put(KEY, bytes("three"), 100);
+            store.remove(KEY);
+            assertNull(store.get(KEY));
+            // a key and value larger than a slot is not stored
+            assertFalse(store.put(KEY, new byte[128], 100));
+            assertEquals(1, store.getOversized());
+            assertNull(store.get(KEY));
+        }
+    }
+
+    /**
+     * Test that a full neighbourhood of slots gives up the entry closest to expiry
+     * @throws Exception
+     */
+    @Test
+    public void testEviction() throws Exception {
+        try (ManualClockStore store = new ManualClockStore(
+                folder.getRoot().toPath().resolve("store"), 4, 64)) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(store.put("k" + i, bytes("v" + i), 100 + i));
+            }
+            assertEquals(4, store.size());
+            assertTrue(store.put("k4", bytes("v4"), 1000));
+            assertEquals(1, store.getEvictions());
+            assertNull(store.get("k0"));
+            for (int i = 1; i < 5; i++) {
+                assertArrayEquals(bytes("v" + i), store.get("k" + i).getValue());
+            }
+        }
+    }
+
+    /**
+     * Test that the values survive closing and opening the file, that a torn slot reads as
+     * empty and that a file of another layout is cleared
+     * @throws Exception
+     */
+    @Test
+    public void testReopen() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("store");
+        try (MappedByteStore store = new MappedByteStore(file, 16, 128)) {
+            store.put(KEY, bytes("kept"), 60000);
+            store.put("other", bytes("torn"), 60000);
+        }
+        try (MappedByteStore store = new MappedByteStore(file, 16, 128)) {
+            assertArrayEquals(bytes("kept"), store.get(KEY).getValue());
+            assertArrayEquals(bytes("torn"), store.get("other").getValue());
+        }
+        // damage the value of "other" as a crash in the middle of a write would
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            byte[] content = new byte[(int) raw.length()];
+            raw.readFully(content);
+            for (int i = 0; i < content.length - 4; i++) {
+                if (content[i] == 't' && content[i + 1] == 'o' && content[i + 2] == 'r'
+                        && content[i + 3] == 'n') {
+                    raw.seek(i);
+                    raw.write('T');
+                }
+            }
+        }
+        try (MappedByteStore store = new MappedByteStore(file, 16, 128)) {
+            assertArrayEquals(bytes("kept"), store.get(KEY).getValue());
+            assertNull(store.get("other"));
+        }
+        try (MappedByteStore store = new MappedByteStore(file, 32, 128)) {
+            assertNull(store.get(KEY));
+        }
+    }
+
+    /**
+     * Test that a store beyond a single mapping is refused
+     * @throws Exception
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLarge() throws Exception {
+        new MappedByteStore(folder.getRoot().toPath().resolve("store"), 1 << 20, 4096);
+    }
+}
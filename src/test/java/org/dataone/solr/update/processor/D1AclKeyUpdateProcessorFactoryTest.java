@@ -0,0 +1,79 @@
+package org.dataone.solr.update.processor;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A Junit test class for the D1AclKeyUpdateProcessorFactory class
+ */
+public class D1AclKeyUpdateProcessorFactoryTest {
+
+    private static SolrInputDocument doc(String rightsHolder, String... readers) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("id", "urn:uuid:" + Arrays.hashCode(readers));
+        doc.setField("rightsHolder", rightsHolder);
+        for (String reader : readers) {
+            doc.addField("readPermission", reader);
+        }
+        return doc;
+    }
+
+    /**
+     * Test that the aclKey depends on the permissions only, not on their order, and that the
+     * records are registered under their subjects
+     * @throws Exception
+     */
+    @Test
+    public void testSetAclKey() throws Exception {
+        D1AclKeyUpdateProcessorFactory factory = new D1AclKeyUpdateProcessorFactory();
+        NamedList<Object> args = new NamedList<Object>();
+        args.add(D1AclKeyUpdateProcessorFactory.KEY_FIELD_PARAM, "permissionKey");
+        factory.init(args);
+
+        SolrInputDocument first = doc("CN=owner", "public", "CN=group");
+        SolrInputDocument same = doc("CN=owner", "CN=group", "public");
+        SolrInputDocument other = doc("CN=owner", "CN=group");
+        factory.setAclKey(first);
+        factory.setAclKey(same);
+        factory.setAclKey(other);
+        String key = (String) first.getFieldValue("permissionKey");
+        assertEquals(64, key.length());
+        assertEquals(key, same.getFieldValue("permissionKey"));
+        assertNotEquals(key, other.getFieldValue("permissionKey"));
+
+        assertEquals(2, factory.getRegistry().size());
+        // the public subject is checked in the permission fields, not through the keys
+        assertTrue(factory.getRegistry().resolve(Arrays.asList("public")).isEmpty());
+        assertEquals(2, factory.getRegistry().resolve(Arrays.asList("CN=group", "public")).size());
+        assertEquals(2, factory.getRegistry().resolve(Arrays.asList("CN=owner")).size());
+        assertTrue(factory.getRegistry().resolve(Arrays.asList("CN=nobody")).isEmpty());
+    }
+
+    /**
+     * Test that a record still holding an atomic update of a permission is rejected
+     * @throws Exception
+     */
+    @Test
+    public void testAtomicUpdateRejected() throws Exception {
+        D1AclKeyUpdateProcessorFactory factory = new D1AclKeyUpdateProcessorFactory();
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("readPermission", Collections.singletonMap("add", "CN=someone"));
+        try {
+            factory.setAclKey(doc);
+            fail("an atomic update should be rejected");
+        } catch (SolrException e) {
+            assertTrue(e.getMessage().contains("DistributedUpdateProcessorFactory"));
+        }
+        assertEquals(0, factory.getRegistry().size());
+    }
+}